@@ -0,0 +1,115 @@
+// BackupBenchmark.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Measures backup size and time against diary size: a full first backup, then incremental backups
+ * after one new entry and after one edited entry, then a restore back to the first snapshot.
+ * Fails if the restored diary differs from the one that was backed up.
+ *
+ * Runs on a plain JVM with org.json on the classpath:
+ * java com.example.madproject.BackupBenchmark [entryCount...]
+ */
+public class BackupBenchmark {
+
+    private static final int[] DEFAULT_ENTRY_COUNTS = {1_000, 5_000, 10_000};
+    private static final String PASSPHRASE = "benchmark passphrase";
+
+    public static void main(String[] args) throws Exception {
+        int[] entryCounts = DEFAULT_ENTRY_COUNTS;
+        if (args.length > 0) {
+            entryCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                entryCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.println("Entries | Headers KB | Content KB | Full backup      | After 1 new entry | After 1 edit     | Restore  ");
+        for (int entryCount : entryCounts) {
+            run(entryCount);
+        }
+    }
+
+    private static void run(int entryCount) throws Exception {
+        File filesDir = Files.createTempDirectory("diary-backup").toFile();
+        File backupDir = new File(filesDir, "backups");
+        DiaryStore store = BenchmarkFixtures.createDiary(filesDir);
+        DiaryRepository repository = new DiaryRepository(store);
+        BackupEngine backupEngine = new BackupEngine(store, backupDir,
+                BackupEngine.openBackupCipher(backupDir, PASSPHRASE));
+
+        store.writeEntries(generateEntries(store, entryCount));
+        repository.prepareList();
+        Map<Long, String> original = textsOf(store);
+
+        long start = System.nanoTime();
+        BackupEngine.Snapshot full = backupEngine.backup();
+        long fullNanos = System.nanoTime() - start;
+
+        repository.createEntry("One more entry, written after the first backup.", null, Collections.<String>emptyList(), null);
+        start = System.nanoTime();
+        BackupEngine.Snapshot afterCreate = backupEngine.backup();
+        long createNanos = System.nanoTime() - start;
+
+        JSONArray entries = store.readEntries();
+        long editedId = entries.getJSONObject(entries.length() / 2).getLong(DiaryStore.KEY_UNIQUE_ID);
+        repository.updateEntry(editedId, "An entry in the middle of the diary, edited after the first backup.", null, Collections.<String>emptyList(), null);
+        start = System.nanoTime();
+        BackupEngine.Snapshot afterEdit = backupEngine.backup();
+        long editNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int restored = backupEngine.restore(full.getId());
+        long restoreNanos = System.nanoTime() - start;
+        if (!textsOf(store).equals(original)) {
+            throw new IllegalStateException("Restored diary differs from the backed up one");
+        }
+        // The salt is kept with the backup set, so the passphrase alone opens it again
+        BackupEngine reopened = new BackupEngine(store, backupDir, BackupEngine.openBackupCipher(backupDir, PASSPHRASE));
+        if (reopened.listSnapshots().size() != 3) {
+            throw new IllegalStateException("Backup set could not be reopened with its passphrase");
+        }
+
+        System.out.println(String.format(Locale.US, "%7d | %10d | %10d | %6d KB %6.0f ms | %6.1f KB %6.0f ms | %6.1f KB %5.0f ms | %d entries in %.0f ms",
+                entryCount, new File(filesDir, DiaryStore.DIARY_FILE_NAME).length() / 1024, full.getContentBytes() / 1024,
+                full.getNewBytes() / 1024, fullNanos / 1e6,
+                afterCreate.getNewBytes() / 1024.0, createNanos / 1e6,
+                afterEdit.getNewBytes() / 1024.0, editNanos / 1e6,
+                restored, restoreNanos / 1e6));
+        BenchmarkFixtures.deleteRecursively(filesDir);
+    }
+
+    private static Map<Long, String> textsOf(DiaryStore store) throws Exception {
+        Map<Long, String> texts = new TreeMap<>();
+        JSONArray entries = store.readEntries();
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            texts.put(entry.getLong(DiaryStore.KEY_UNIQUE_ID), store.readFullText(entry));
+        }
+        return texts;
+    }
+
+    private static JSONArray generateEntries(DiaryStore store, int count) throws Exception {
+        JSONArray entries = new JSONArray();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.setLength(0);
+            int words = i % 100 == 0 ? 2_000 : BenchmarkFixtures.wordCount(i); // Some long, chunked entries
+            for (int w = 0; w < words; w++) {
+                // Not BenchmarkFixtures.text(): texts that vary from entry to entry, so deduplication is not flattered
+                text.append("word").append((w * 31 + i) % 97).append(' ');
+            }
+            entries.put(BenchmarkFixtures.newEntry(store, BenchmarkFixtures.BASE_TIME + i * BenchmarkFixtures.ENTRY_INTERVAL_MS,
+                    text.toString()));
+        }
+        return entries;
+    }
+}
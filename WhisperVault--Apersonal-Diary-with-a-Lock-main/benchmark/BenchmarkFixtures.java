@@ -0,0 +1,104 @@
+// BenchmarkFixtures.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Diaries, generated entries and timing helpers shared by the benchmarks, so they all measure the
+ * same kind of diary: entries one minute apart from BASE_TIME on, each 40 to 239 words drawn from a
+ * vocabulary of 17 words, in an encrypted store behind PIN.
+ */
+final class BenchmarkFixtures {
+
+    static final String PIN = "1234";
+    static final long BASE_TIME = 1_600_000_000_000L; // September 2020
+    static final long ENTRY_INTERVAL_MS = 60_000;
+
+    private static final String TIMESTAMP = "2020-09-13 12:26"; // Display time only, the same for every entry
+    private static final int VOCABULARY = 17;
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Sets up a new diary in filesDir with PIN, unlocked.
+     */
+    static DiaryStore createDiary(File filesDir) throws Exception {
+        DiaryStore store = new DiaryStore(filesDir);
+        new DiaryLock(new DiaryKeyManager(filesDir), store).createPin(PIN, false);
+        return store;
+    }
+
+    /**
+     * Opens the diary in filesDir with PIN the way a fresh process would, with nothing in memory yet.
+     */
+    static DiaryStore openDiary(File filesDir) throws Exception {
+        DiaryStore store = new DiaryStore(filesDir);
+        if (!new DiaryLock(new DiaryKeyManager(filesDir), store).unlock(PIN)) {
+            throw new IllegalStateException("PIN was not accepted");
+        }
+        return store;
+    }
+
+    /**
+     * Returns the number of words of generated entry i, so the texts come in many lengths.
+     */
+    static int wordCount(int i) {
+        return 40 + (i % 200);
+    }
+
+    /**
+     * Returns a text of the given number of words: "word0 word1 ... word16 word0 ...".
+     */
+    static String text(int words) {
+        StringBuilder text = new StringBuilder(words * 7);
+        for (int w = 0; w < words; w++) {
+            text.append("word").append(w % VOCABULARY).append(' ');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns a new entry header with its text stored through putText(); the header itself is not written yet.
+     */
+    static JSONObject newEntry(DiaryStore store, long uniqueId, String text) throws Exception {
+        JSONObject entry = new JSONObject();
+        entry.put(DiaryStore.KEY_UNIQUE_ID, uniqueId);
+        entry.put(DiaryStore.KEY_TIMESTAMP, TIMESTAMP);
+        store.putText(entry, text);
+        return entry;
+    }
+
+    /**
+     * Generates count entries ENTRY_INTERVAL_MS apart from BASE_TIME on, entry i with wordCount(i) words.
+     */
+    static JSONArray generateEntries(DiaryStore store, int count) throws Exception {
+        JSONArray entries = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            entries.put(newEntry(store, BASE_TIME + i * ENTRY_INTERVAL_MS, text(wordCount(i))));
+        }
+        return entries;
+    }
+
+    static long median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    static void deleteRecursively(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        Files.delete(file.toPath());
+    }
+}
@@ -0,0 +1,160 @@
+// FilterBenchmark.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures filtering the list by tag, mood and year with the bitmap index against scanning every
+ * entry header, on a large encrypted diary. Fails if the two disagree, including after entries were
+ * created, updated and deleted through DiaryRepository (which maintains the index incrementally).
+ *
+ * Runs on a plain JVM with org.json on the classpath:
+ * java com.example.madproject.FilterBenchmark [entryCount]
+ */
+public class FilterBenchmark {
+
+    private static final int DEFAULT_ENTRY_COUNT = 10_000;
+    private static final int FIRST_SCREEN = 30; // Same as DiaryActivity.PAGE_SIZE
+    private static final int RUNS = 21;
+    private static final int QUERIES_PER_RUN = 1_000; // A single query is too short to time on its own
+
+    private static final String[] TAGS = {"travel", "family", "work", "health", "friends", "books", "food", "music"};
+    private static final String[] MOODS = {"happy", "calm", "tired", "sad", "excited"};
+    private static final String FILTER = "tag:travel AND mood:happy AND 2024";
+
+    public static void main(String[] args) throws Exception {
+        int entryCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ENTRY_COUNT;
+        File filesDir = Files.createTempDirectory("diary-filter").toFile();
+        DiaryStore store = BenchmarkFixtures.createDiary(filesDir);
+        DiaryRepository repository = new DiaryRepository(store);
+
+        System.out.println("Generating " + entryCount + " entries...");
+        store.writeEntries(generateEntries(store, entryCount));
+        long start = System.nanoTime();
+        repository.prepareList();
+        System.out.println("Build summary table and index: " + (System.nanoTime() - start) / 1_000_000.0 + " ms");
+        System.out.println("Index file size: " + new File(filesDir, EntryFilterIndex.INDEX_FILE_NAME).length() / 1024 + " KB");
+
+        long[] queryTimes = new long[RUNS];
+        long[] pageTimes = new long[RUNS];
+        long[] scanTimes = new long[RUNS];
+        int matches = 0;
+        for (int run = 0; run < RUNS; run++) {
+            start = System.nanoTime();
+            EntryFilterIndex.Match match = null;
+            for (int i = 0; i < QUERIES_PER_RUN; i++) {
+                match = repository.filterEntries(FILTER);
+                matches = match.count();
+            }
+            queryTimes[run] = (System.nanoTime() - start) / QUERIES_PER_RUN;
+
+            start = System.nanoTime();
+            repository.readPage(0, FIRST_SCREEN, match);
+            pageTimes[run] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            scanCount(store);
+            scanTimes[run] = System.nanoTime() - start;
+        }
+        checkAgainstScan(repository, store);
+        System.out.println("Filter \"" + FILTER + "\": " + matches + " matches");
+        System.out.println("Bitmap query:           " + BenchmarkFixtures.median(queryTimes) / 1_000.0 + " us (median of " + RUNS + ")");
+        System.out.println("First filtered page:    " + BenchmarkFixtures.median(pageTimes) / 1_000_000.0 + " ms (median of " + RUNS + ")");
+        System.out.println("Scan all entry headers: " + BenchmarkFixtures.median(scanTimes) / 1_000_000.0 + " ms (median of " + RUNS + ")");
+
+        // Incremental maintenance through the repository
+        JSONArray entries = store.readEntries();
+        long createdId = repository.createEntry("Written on the road", null, Arrays.asList("#Travel", "road trip"), "Happy")
+                .getLong(DiaryStore.KEY_UNIQUE_ID);
+        long updatedId = entries.getJSONObject(3).getLong(DiaryStore.KEY_UNIQUE_ID);
+        repository.updateEntry(updatedId, "No longer about travel", null, Collections.singletonList("work"), "tired");
+        repository.deleteEntry(entries.getJSONObject(5).getLong(DiaryStore.KEY_UNIQUE_ID));
+        checkAgainstScan(repository, store);
+        if (!repository.filterEntries("#road-trip mood:happy").contains(createdId)) {
+            throw new IllegalStateException("New entry missing from the index");
+        }
+        System.out.println("Index matches a full scan after create, update and delete.");
+
+        // A match keeps describing the entries it was made for, even after their ordinals are reused
+        EntryFilterIndex.Match earlier = repository.filterEntries("tag:travel");
+        long matchedId = firstMatch(store.readEntries(), earlier);
+        repository.deleteEntry(matchedId);
+        long reusedId = repository.createEntry("Not about travel", null, Collections.singletonList("work"), null)
+                .getLong(DiaryStore.KEY_UNIQUE_ID);
+        if (!earlier.contains(matchedId) || earlier.contains(reusedId)) {
+            throw new IllegalStateException("An earlier match changed with the index");
+        }
+
+        // Changes live in memory until the flush; after it, a fresh process finds the index in sync
+        repository.flush();
+        DiaryStore reopened = BenchmarkFixtures.openDiary(filesDir);
+        DiaryRepository reopenedRepository = new DiaryRepository(reopened);
+        if (reopenedRepository.prepareList()) {
+            throw new IllegalStateException("Index was not in sync after the flush");
+        }
+        checkAgainstScan(reopenedRepository, reopened);
+        System.out.println("Earlier matches are stable, and the flushed index is in sync after a restart.");
+
+        BenchmarkFixtures.deleteRecursively(filesDir);
+    }
+
+    /**
+     * Fails unless the index and a scan of the headers find the same number of entries.
+     */
+    private static void checkAgainstScan(DiaryRepository repository, DiaryStore store) throws Exception {
+        int indexed = repository.filterEntries(FILTER).count();
+        int scanned = scanCount(store);
+        if (indexed != scanned) {
+            throw new IllegalStateException("Index found " + indexed + " entries, scan found " + scanned);
+        }
+    }
+
+    private static long firstMatch(JSONArray entries, EntryFilterIndex.Match match) throws Exception {
+        for (int i = 0; i < entries.length(); i++) {
+            long uniqueId = entries.getJSONObject(i).getLong(DiaryStore.KEY_UNIQUE_ID);
+            if (match.contains(uniqueId)) {
+                return uniqueId;
+            }
+        }
+        throw new IllegalStateException("Nothing matches");
+    }
+
+    /**
+     * Counts the entries matching FILTER the way it would be done without the index.
+     */
+    private static int scanCount(DiaryStore store) throws Exception {
+        JSONArray entries = store.readVerifiedEntries(); // From the file, as a fresh process would;
+        Calendar calendar = Calendar.getInstance();
+        int count = 0;
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            calendar.setTimeInMillis(entry.getLong(DiaryStore.KEY_UNIQUE_ID));
+            if (DiaryStore.getTags(entry).contains("travel") && "happy".equals(entry.optString(DiaryStore.KEY_MOOD))
+                    && calendar.get(Calendar.YEAR) == 2024) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static JSONArray generateEntries(DiaryStore store, int count) throws Exception {
+        JSONArray entries = new JSONArray();
+        long step = (1_735_000_000_000L - BenchmarkFixtures.BASE_TIME) / count; // Spread up to the end of 2024
+        for (int i = 0; i < count; i++) {
+            JSONObject entry = BenchmarkFixtures.newEntry(store, BenchmarkFixtures.BASE_TIME + i * step,
+                    BenchmarkFixtures.text(BenchmarkFixtures.wordCount(i)));
+            List<String> tags = Arrays.asList(TAGS[i % TAGS.length], TAGS[(i / 3) % TAGS.length]);
+            DiaryStore.putLabels(entry, tags, MOODS[(i / 7) % MOODS.length]);
+            entries.put(entry);
+        }
+        return entries;
+    }
+}
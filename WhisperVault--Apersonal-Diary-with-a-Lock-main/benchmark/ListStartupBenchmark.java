@@ -0,0 +1,84 @@
+// ListStartupBenchmark.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how long the diary list takes to get the data for its first screen.
+ * Compares reading every entry header from diary_entries.json (the old startup path)
+ * against reading the first page of the summary table.
+ *
+ * Runs on a plain JVM with org.json on the classpath:
+ * java com.example.madproject.ListStartupBenchmark [entryCount]
+ */
+public class ListStartupBenchmark {
+
+    private static final int DEFAULT_ENTRY_COUNT = 50_000;
+    private static final int FIRST_SCREEN = 30; // Same as DiaryActivity.PAGE_SIZE
+    private static final int RUNS = 7;
+
+    public static void main(String[] args) throws Exception {
+        int entryCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ENTRY_COUNT;
+        File filesDir = Files.createTempDirectory("diary-bench").toFile();
+        DiaryStore store = new DiaryStore(filesDir);
+
+        System.out.println("Generating " + entryCount + " entries...");
+        JSONArray entries = BenchmarkFixtures.generateEntries(store, entryCount);
+        addPhotos(entries);
+        store.writeEntries(entries);
+        store.getSummaryTable().rebuild(entries);
+
+        long[] headerTimes = new long[RUNS];
+        long[] summaryTimes = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            List<EntrySummary> fromHeaders = firstScreenFromHeaders(store);
+            headerTimes[run] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<EntrySummary> fromTable = store.getSummaryTable().readPage(0, FIRST_SCREEN);
+            summaryTimes[run] = System.nanoTime() - start;
+
+            if (fromHeaders.size() != fromTable.size()
+                    || fromHeaders.get(0).getUniqueId() != fromTable.get(0).getUniqueId()) {
+                throw new IllegalStateException("Summary table does not match entry headers");
+            }
+        }
+
+        long headerMedian = BenchmarkFixtures.median(headerTimes);
+        long summaryMedian = BenchmarkFixtures.median(summaryTimes);
+        System.out.println("Header file size:   " + new File(filesDir, DiaryStore.DIARY_FILE_NAME).length() / 1024 + " KB");
+        System.out.println("Summary table size: " + new File(filesDir, EntrySummaryTable.SUMMARY_FILE_NAME).length() / 1024 + " KB");
+        System.out.println("First screen from entry headers: " + headerMedian / 1_000_000.0 + " ms (median of " + RUNS + ")");
+        System.out.println("First screen from summary table: " + summaryMedian / 1_000_000.0 + " ms (median of " + RUNS + ")");
+        System.out.println("Speedup: " + (summaryMedian > 0 ? headerMedian / summaryMedian : 0) + "x");
+
+        BenchmarkFixtures.deleteRecursively(filesDir);
+    }
+
+    /**
+     * The old startup path: parse every header, then pick the newest entries.
+     */
+    private static List<EntrySummary> firstScreenFromHeaders(DiaryStore store) throws Exception {
+        JSONArray entries = store.readVerifiedEntries(); // From the file, as after a launch;
+        List<EntrySummary> page = new ArrayList<>();
+        for (int i = entries.length() - 1; i >= 0 && page.size() < FIRST_SCREEN; i--) {
+            page.add(EntrySummary.fromHeader(entries.getJSONObject(i)));
+        }
+        return page;
+    }
+
+    /**
+     * Gives every fifth entry a photo, so the summaries carry image URIs as they do in a real diary.
+     */
+    private static void addPhotos(JSONArray entries) throws Exception {
+        for (int i = 0; i < entries.length(); i += 5) {
+            entries.getJSONObject(i).put(DiaryStore.KEY_IMAGE_URI, "content://media/external/images/media/" + i);
+        }
+    }
+}
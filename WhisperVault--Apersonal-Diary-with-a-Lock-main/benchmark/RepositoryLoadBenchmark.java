@@ -0,0 +1,70 @@
+// RepositoryLoadBenchmark.java
+package com.example.madproject;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+
+/**
+ * Measures the entry operations the screens perform (save, update, delete, open the list)
+ * on a large encrypted diary, through the same DiaryLock and DiaryRepository the activities use.
+ *
+ * Runs on a plain JVM with org.json on the classpath:
+ * java com.example.madproject.RepositoryLoadBenchmark [entryCount]
+ */
+public class RepositoryLoadBenchmark {
+
+    private static final int DEFAULT_ENTRY_COUNT = 10_000;
+    private static final int FIRST_SCREEN = 30; // Same as DiaryActivity.PAGE_SIZE
+    private static final int RUNS = 7;
+
+    public static void main(String[] args) throws Exception {
+        int entryCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ENTRY_COUNT;
+        File filesDir = Files.createTempDirectory("diary-load").toFile();
+        DiaryStore store = new DiaryStore(filesDir);
+        DiaryLock diaryLock = new DiaryLock(new DiaryKeyManager(filesDir), store);
+        DiaryRepository repository = new DiaryRepository(store);
+
+        long start = System.nanoTime();
+        diaryLock.createPin(BenchmarkFixtures.PIN, false);
+        System.out.println("PIN setup: " + (System.nanoTime() - start) / 1_000_000.0 + " ms");
+
+        System.out.println("Generating " + entryCount + " entries...");
+        store.writeEntries(BenchmarkFixtures.generateEntries(store, entryCount));
+        repository.prepareList();
+
+        long[] saveTimes = new long[RUNS];
+        long[] updateTimes = new long[RUNS];
+        long[] deleteTimes = new long[RUNS];
+        long[] listTimes = new long[RUNS];
+        String text = "A new entry written during the benchmark.";
+        for (int run = 0; run < RUNS; run++) {
+            start = System.nanoTime();
+            long uniqueId = repository.createEntry(text, null, Collections.<String>emptyList(), null).getLong(DiaryStore.KEY_UNIQUE_ID);
+            saveTimes[run] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            repository.updateEntry(uniqueId, text + " Updated.", null, Collections.<String>emptyList(), null);
+            updateTimes[run] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            repository.prepareList();
+            repository.readPage(0, FIRST_SCREEN);
+            listTimes[run] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            if (!repository.deleteEntry(uniqueId)) {
+                throw new IllegalStateException("Entry " + uniqueId + " was not saved");
+            }
+            deleteTimes[run] = System.nanoTime() - start;
+        }
+
+        System.out.println("Header file size: " + new File(filesDir, DiaryStore.DIARY_FILE_NAME).length() / 1024 + " KB");
+        System.out.println("Save entry:   " + BenchmarkFixtures.median(saveTimes) / 1_000_000.0 + " ms (median of " + RUNS + ")");
+        System.out.println("Update entry: " + BenchmarkFixtures.median(updateTimes) / 1_000_000.0 + " ms (median of " + RUNS + ")");
+        System.out.println("Delete entry: " + BenchmarkFixtures.median(deleteTimes) / 1_000_000.0 + " ms (median of " + RUNS + ")");
+        System.out.println("Open list:    " + BenchmarkFixtures.median(listTimes) / 1_000_000.0 + " ms (median of " + RUNS + ")");
+
+        BenchmarkFixtures.deleteRecursively(filesDir);
+    }
+}
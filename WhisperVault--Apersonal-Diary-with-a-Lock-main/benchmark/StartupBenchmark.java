@@ -0,0 +1,177 @@
+// StartupBenchmark.java
+package com.example.madproject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Startup regression benchmark for the headless part of the unlock-to-first-entry path: checking the
+ * PIN, making sure the summary table is in sync and reading the first page of the list, timed with
+ * the StartupTrace.UNLOCK_TO_FIRST_ENTRY span the app uses.
+ *
+ * Cold runs each start a fresh JVM, so class loading and crypto provider setup are paid again, once
+ * without and once with StartupWarmup running while the PIN is "typed". Warm runs repeat the path in
+ * this JVM. Given a baseline file, the medians are compared with it and the benchmark fails if one got
+ * more than REGRESSION_TOLERANCE slower; without one, the baseline is written.
+ *
+ * Runs on a plain JVM with org.json on the classpath:
+ * java com.example.madproject.StartupBenchmark [entryCount] [baselineFile]
+ */
+public class StartupBenchmark {
+
+    private static final int DEFAULT_ENTRY_COUNT = 10_000;
+    private static final int FIRST_SCREEN = 30; // Same as DiaryActivity.PAGE_SIZE
+    private static final int COLD_RUNS = 7;
+    private static final int WARM_RUNS = 21;
+    private static final long PIN_ENTRY_MS = 1_000; // Time the user takes to type the PIN
+    private static final double REGRESSION_TOLERANCE = 1.25;
+    private static final long REGRESSION_SLACK_NANOS = 5_000_000; // Noise allowance for the short spans
+
+    private static final String CHILD_FLAG = "--child";
+    private static final String[] METRICS = {"cold", "coldWarmedUp", "warm"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals(CHILD_FLAG)) {
+            // One cold run in this fresh JVM; the result goes to stdout for the parent
+            System.out.println(unlockToFirstEntry(new File(args[1]), Boolean.parseBoolean(args[2])));
+            return;
+        }
+        int entryCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ENTRY_COUNT;
+        File baselineFile = args.length > 1 ? new File(args[1]) : null;
+
+        File filesDir = Files.createTempDirectory("diary-startup").toFile();
+        DiaryStore store = BenchmarkFixtures.createDiary(filesDir);
+        System.out.println("Generating " + entryCount + " entries...");
+        store.writeEntries(BenchmarkFixtures.generateEntries(store, entryCount));
+        new DiaryRepository(store).prepareList();
+
+        long[] medians = new long[METRICS.length];
+        medians[0] = BenchmarkFixtures.median(runChildren(filesDir, false));
+        medians[1] = BenchmarkFixtures.median(runChildren(filesDir, true));
+        long[] warmTimes = new long[WARM_RUNS];
+        for (int run = 0; run < WARM_RUNS; run++) {
+            warmTimes[run] = unlockToFirstEntry(filesDir, false);
+        }
+        medians[2] = BenchmarkFixtures.median(warmTimes);
+
+        System.out.println("Unlock to first entry, cold:                " + medians[0] / 1_000_000.0 + " ms (median of " + COLD_RUNS + ")");
+        System.out.println("Unlock to first entry, cold with warmup:    " + medians[1] / 1_000_000.0 + " ms (median of " + COLD_RUNS + ")");
+        System.out.println("Unlock to first entry, warm:                " + medians[2] / 1_000_000.0 + " ms (median of " + WARM_RUNS + ")");
+        BenchmarkFixtures.deleteRecursively(filesDir);
+
+        if (baselineFile != null) {
+            compareWithBaseline(baselineFile, medians);
+        }
+    }
+
+    /**
+     * Opens the diary the way the app does after a launch and times StartupTrace.UNLOCK_TO_FIRST_ENTRY.
+     * @param warmUp True to run StartupWarmup while the PIN is being typed, as MainActivity does.
+     */
+    private static long unlockToFirstEntry(File filesDir, boolean warmUp) throws Exception {
+        DiaryStore store = new DiaryStore(filesDir);
+        DiaryLock diaryLock = new DiaryLock(new DiaryKeyManager(filesDir), store);
+        DiaryRepository repository = new DiaryRepository(store);
+        if (warmUp) {
+            Thread warmup = new Thread(() -> StartupWarmup.run(filesDir), "StartupWarmup");
+            warmup.start();
+            Thread.sleep(PIN_ENTRY_MS);
+            warmup.join(); // Normally long done by the time the PIN is typed
+        }
+
+        StartupTrace.begin(StartupTrace.UNLOCK_TO_FIRST_ENTRY);
+        if (!diaryLock.unlock(BenchmarkFixtures.PIN)) {
+            throw new IllegalStateException("PIN was not accepted");
+        }
+        repository.prepareList();
+        if (repository.countEntries() > 0 && repository.readPage(0, FIRST_SCREEN).isEmpty()) {
+            throw new IllegalStateException("First page is empty");
+        }
+        return StartupTrace.end(StartupTrace.UNLOCK_TO_FIRST_ENTRY);
+    }
+
+    /**
+     * Runs COLD_RUNS fresh JVMs on this one's classpath, each doing one unlockToFirstEntry().
+     */
+    private static long[] runChildren(File filesDir, boolean warmUp) throws Exception {
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        long[] times = new long[COLD_RUNS];
+        for (int run = 0; run < COLD_RUNS; run++) {
+            Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    StartupBenchmark.class.getName(), CHILD_FLAG, filesDir.getPath(), String.valueOf(warmUp))
+                    .redirectErrorStream(true)
+                    .start();
+            List<String> output = new ArrayList<>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    output.add(line);
+                }
+            } finally {
+                reader.close();
+            }
+            if (child.waitFor() != 0 || output.isEmpty()) {
+                throw new IllegalStateException("Cold run failed: " + output);
+            }
+            times[run] = Long.parseLong(output.get(output.size() - 1).trim());
+        }
+        return times;
+    }
+
+    /**
+     * Fails if a median is more than REGRESSION_TOLERANCE times its baseline (plus some slack),
+     * or writes the baseline if there is none yet.
+     */
+    private static void compareWithBaseline(File baselineFile, long[] medians) throws IOException {
+        Properties baseline = new Properties();
+        if (!baselineFile.exists()) {
+            for (int i = 0; i < METRICS.length; i++) {
+                baseline.setProperty(METRICS[i], String.valueOf(medians[i]));
+            }
+            OutputStream out = new FileOutputStream(baselineFile);
+            try {
+                baseline.store(out, "StartupBenchmark medians in nanoseconds");
+            } finally {
+                out.close();
+            }
+            System.out.println("Baseline written to " + baselineFile);
+            return;
+        }
+
+        InputStream in = new FileInputStream(baselineFile);
+        try {
+            baseline.load(in);
+        } finally {
+            in.close();
+        }
+        List<String> regressions = new ArrayList<>();
+        for (int i = 0; i < METRICS.length; i++) {
+            String value = baseline.getProperty(METRICS[i]);
+            if (value == null) {
+                continue;
+            }
+            long allowed = (long) (Long.parseLong(value) * REGRESSION_TOLERANCE) + REGRESSION_SLACK_NANOS;
+            if (medians[i] > allowed) {
+                regressions.add(String.format(Locale.US, "%s: %.1f ms, baseline %.1f ms",
+                        METRICS[i], medians[i] / 1e6, Long.parseLong(value) / 1e6));
+            }
+        }
+        if (!regressions.isEmpty()) {
+            throw new IllegalStateException("Startup regressed: " + regressions);
+        }
+        System.out.println("No regression against " + baselineFile);
+    }
+}
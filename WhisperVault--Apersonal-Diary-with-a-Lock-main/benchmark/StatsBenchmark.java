@@ -0,0 +1,161 @@
+// StatsBenchmark.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Measures opening the insights (streaks, totals, heatmap, words per month) from the running totals
+ * against computing them from the entry headers, on a large encrypted diary. Fails if the totals
+ * disagree with the headers, including after entries were created, updated and deleted through
+ * DiaryRepository (which maintains them incrementally).
+ *
+ * Runs on a plain JVM with org.json on the classpath:
+ * java com.example.madproject.StatsBenchmark [entryCount]
+ */
+public class StatsBenchmark {
+
+    private static final int DEFAULT_ENTRY_COUNT = 10_000;
+    private static final int RUNS = 21;
+    private static final int QUERIES_PER_RUN = 100; // A single query is too short to time on its own
+    private static final int HEATMAP_DAYS = 12 * 7; // Same as DiaryActivity's heatmap
+
+    public static void main(String[] args) throws Exception {
+        int entryCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ENTRY_COUNT;
+        File filesDir = Files.createTempDirectory("diary-stats").toFile();
+        DiaryStore store = BenchmarkFixtures.createDiary(filesDir);
+        DiaryRepository repository = new DiaryRepository(store);
+
+        System.out.println("Generating " + entryCount + " entries...");
+        long lastTime = System.currentTimeMillis();
+        store.writeEntries(generateEntries(store, entryCount, lastTime));
+        long start = System.nanoTime();
+        repository.prepareList();
+        System.out.println("Build summary table, index and stats: " + (System.nanoTime() - start) / 1_000_000.0 + " ms");
+        System.out.println("Stats file size: " + new File(filesDir, DiaryStats.STATS_FILE_NAME).length() / 1024 + " KB, contributions "
+                + new File(filesDir, DiaryStats.CONTRIBUTIONS_FILE_NAME).length() / 1024 + " KB");
+
+        int today = DiaryStats.dayOf(lastTime);
+        long[] insightTimes = new long[RUNS];
+        long[] scanTimes = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            start = System.nanoTime();
+            for (int i = 0; i < QUERIES_PER_RUN; i++) {
+                readInsights(repository.getStats(), today);
+            }
+            insightTimes[run] = (System.nanoTime() - start) / QUERIES_PER_RUN;
+
+            start = System.nanoTime();
+            scanWordCount(store);
+            scanTimes[run] = System.nanoTime() - start;
+        }
+        DiaryStats stats = repository.getStats();
+        checkAgainstScan(repository, store);
+        System.out.println("Entries: " + stats.getEntryCount() + ", with photos: " + stats.getPhotoEntryCount()
+                + ", words: " + stats.getWordCount() + ", current streak: " + stats.getCurrentStreak(today)
+                + ", longest streak: " + stats.getLongestStreak() + ", months: " + stats.getWordsByMonth().size());
+        System.out.println("Insights from totals:   " + BenchmarkFixtures.median(insightTimes) / 1_000.0 + " us (median of " + RUNS + ")");
+        System.out.println("Scan all entry headers: " + BenchmarkFixtures.median(scanTimes) / 1_000_000.0 + " ms (median of " + RUNS + ")");
+
+        // Incremental maintenance through the repository
+        JSONArray entries = store.readEntries();
+        int streakBefore = stats.getCurrentStreak(DiaryStats.dayOf(System.currentTimeMillis()));
+        repository.createEntry("Written today, with a photo", "content://photo", Collections.<String>emptyList(), null);
+        long updatedId = entries.getJSONObject(3).getLong(DiaryStore.KEY_UNIQUE_ID);
+        repository.updateEntry(updatedId, "Much shorter now", null, Collections.<String>emptyList(), null);
+        repository.deleteEntry(entries.getJSONObject(5).getLong(DiaryStore.KEY_UNIQUE_ID));
+        checkAgainstScan(repository, store);
+        if (stats.getCurrentStreak(DiaryStats.dayOf(System.currentTimeMillis())) < Math.max(1, streakBefore)) {
+            throw new IllegalStateException("Writing today did not keep the streak going");
+        }
+        if (!repository.checkStats()) {
+            throw new IllegalStateException("Consistency check found the totals wrong");
+        }
+        System.out.println("Totals match a full scan after create, update and delete.");
+
+        // Changes live in memory until the flush; after it, a fresh process finds the totals in sync
+        repository.flush();
+        DiaryStore reopened = BenchmarkFixtures.openDiary(filesDir);
+        DiaryRepository reopenedRepository = new DiaryRepository(reopened);
+        if (reopenedRepository.prepareList()) {
+            throw new IllegalStateException("Totals were not in sync after the flush");
+        }
+        start = System.nanoTime();
+        reopenedRepository.getStats().getEntryCount(); // Reads only the totals, not the contributions
+        System.out.println("Cold load of the totals: " + (System.nanoTime() - start) / 1_000_000.0 + " ms");
+        checkAgainstScan(reopenedRepository, reopened);
+        System.out.println("Flushed totals are in sync after a restart.");
+
+        BenchmarkFixtures.deleteRecursively(filesDir);
+    }
+
+    /**
+     * Reads everything the insights dialog shows.
+     */
+    private static void readInsights(DiaryStats stats, int today) throws IOException {
+        stats.getEntryCount();
+        stats.getPhotoEntryCount();
+        stats.getWordCount();
+        stats.getCurrentStreak(today);
+        stats.getLongestStreak();
+        stats.getEntriesByDay(today - HEATMAP_DAYS + 1, today);
+        stats.getWordsByMonth();
+    }
+
+    /**
+     * Fails unless the totals match those counted from the headers.
+     */
+    private static void checkAgainstScan(DiaryRepository repository, DiaryStore store) throws Exception {
+        DiaryStats stats = repository.getStats();
+        long scanned = scanWordCount(store);
+        JSONArray entries = store.readEntries();
+        if (stats.getWordCount() != scanned || stats.getEntryCount() != entries.length()) {
+            throw new IllegalStateException("Totals say " + stats.getEntryCount() + " entries and " + stats.getWordCount()
+                    + " words, scan found " + entries.length() + " and " + scanned);
+        }
+        Map<String, Long> months = stats.getWordsByMonth();
+        long monthTotal = 0;
+        for (long words : months.values()) {
+            monthTotal += words;
+        }
+        if (monthTotal != scanned) {
+            throw new IllegalStateException("Words per month add up to " + monthTotal + ", scan found " + scanned);
+        }
+    }
+
+    /**
+     * Adds up the words of all entries the way it would be done without the totals.
+     */
+    private static long scanWordCount(DiaryStore store) throws Exception {
+        JSONArray entries = store.readVerifiedEntries(); // From the file, as a fresh process would;
+        long words = 0;
+        for (int i = 0; i < entries.length(); i++) {
+            words += DiaryStore.getWordCount(entries.getJSONObject(i));
+        }
+        return words;
+    }
+
+    /**
+     * Spreads the entries over about three years up to lastTime, some days with several entries and
+     * some with none, every fifth one with a photo.
+     */
+    private static JSONArray generateEntries(DiaryStore store, int count, long lastTime) throws Exception {
+        JSONArray entries = new JSONArray();
+        long step = 3 * 365 * 24 * 60 * 60 * 1000L / count;
+        for (int i = 0; i < count; i++) {
+            long uniqueId = lastTime - (count - i) * step - (i % 11 == 0 ? step / 2 : 0);
+            JSONObject entry = BenchmarkFixtures.newEntry(store, uniqueId, BenchmarkFixtures.text(BenchmarkFixtures.wordCount(i)));
+            if (i % 5 == 0) {
+                entry.put(DiaryStore.KEY_IMAGE_URI, "content://photo/" + i);
+            }
+            entries.put(entry);
+        }
+        return entries;
+    }
+}
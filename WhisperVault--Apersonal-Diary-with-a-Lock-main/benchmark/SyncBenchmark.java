@@ -0,0 +1,125 @@
+// SyncBenchmark.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Syncs two devices (two stores in temporary directories) through an InMemorySyncServer
+ * and prints the bandwidth and latency of each sync: first the initial copy of a large diary,
+ * then a small delta with conflicting edits on both sides. Fails if the devices end up different,
+ * or if a device's list (summary table, filter index and stats) no longer matches its entries.
+ *
+ * Runs on a plain JVM with org.json on the classpath:
+ * java com.example.madproject.SyncBenchmark [entryCount] [latencyMillis]
+ */
+public class SyncBenchmark {
+
+    private static final int DEFAULT_ENTRY_COUNT = 5_000;
+    private static final long DEFAULT_LATENCY_MS = 20;
+
+    public static void main(String[] args) throws Exception {
+        int entryCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ENTRY_COUNT;
+        long latencyMillis = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_LATENCY_MS;
+        InMemorySyncServer server = new InMemorySyncServer(latencyMillis);
+        RecordCipher frameCipher = SyncEngine.openFrameCipher(server, "benchmark pairing code");
+
+        File phoneDir = Files.createTempDirectory("diary-phone").toFile();
+        File tabletDir = Files.createTempDirectory("diary-tablet").toFile();
+        DiaryStore phone = BenchmarkFixtures.createDiary(phoneDir);
+        DiaryStore tablet = BenchmarkFixtures.createDiary(tabletDir);
+        SyncEngine phoneSync = new SyncEngine(phone, server, frameCipher);
+        SyncEngine tabletSync = new SyncEngine(tablet, server, frameCipher);
+
+        System.out.println("Generating " + entryCount + " entries on the phone...");
+        phone.writeEntries(generateEntries(phone, entryCount));
+        phone.getSummaryTable().rebuild(phone.readEntries());
+        long diaryBytes = new File(phoneDir, DiaryStore.DIARY_FILE_NAME).length();
+        System.out.println("Phone header file: " + diaryBytes / 1024 + " KB");
+
+        System.out.println("Initial sync, phone:  " + phoneSync.sync().describe());
+        System.out.println("Initial sync, tablet: " + tabletSync.sync().describe());
+        assertSame(phone, tablet);
+
+        // Small delta: a few edits on each side, some of them to the same entries
+        DiaryRepository phoneRepository = new DiaryRepository(phone);
+        DiaryRepository tabletRepository = new DiaryRepository(tablet);
+        tabletRepository.prepareList(); // The list is open while syncing, so pulls update it in place
+        JSONArray entries = phone.readEntries();
+        for (int i = 0; i < 10; i++) {
+            long uniqueId = entries.getJSONObject(i * 7).getLong(DiaryStore.KEY_UNIQUE_ID);
+            phoneRepository.updateEntry(uniqueId, "Edited on the phone " + i, null, Collections.<String>emptyList(), null);
+        }
+        for (int i = 0; i < 3; i++) {
+            long uniqueId = entries.getJSONObject(i * 7).getLong(DiaryStore.KEY_UNIQUE_ID);
+            tabletRepository.updateEntry(uniqueId, "Edited on the tablet " + i, null, Collections.<String>emptyList(), null); // Conflicts
+        }
+        phoneRepository.deleteEntry(entries.getJSONObject(1).getLong(DiaryStore.KEY_UNIQUE_ID));
+        tabletRepository.updateEntry(entries.getJSONObject(1).getLong(DiaryStore.KEY_UNIQUE_ID), "Edit racing a delete", null, Collections.<String>emptyList(), null);
+        for (int i = 0; i < 5; i++) {
+            phoneRepository.createEntry("New on the phone " + i, null, Collections.<String>emptyList(), null);
+            tabletRepository.createEntry("New on the tablet " + i, null, Collections.<String>emptyList(), null);
+        }
+
+        System.out.println("Delta sync, phone:  " + phoneSync.sync().describe());
+        System.out.println("Delta sync, tablet: " + tabletSync.sync().describe());
+        System.out.println("Delta sync, phone:  " + phoneSync.sync().describe());
+        assertSame(phone, tablet);
+        assertListMatches(phoneRepository);
+        assertListMatches(tabletRepository);
+        System.out.println("Devices converged: " + phone.readEntries().length() + " entries each. Server holds "
+                + server.getBytesStored() / 1024 + " KB.");
+
+        BenchmarkFixtures.deleteRecursively(phoneDir);
+        BenchmarkFixtures.deleteRecursively(tabletDir);
+    }
+
+    /**
+     * Fails unless both stores hold the same entries, with the same versions and texts.
+     */
+    private static void assertSame(DiaryStore a, DiaryStore b) throws Exception {
+        Map<Long, String> contentA = contentOf(a);
+        Map<Long, String> contentB = contentOf(b);
+        if (!contentA.equals(contentB)) {
+            throw new IllegalStateException("Devices differ: " + contentA.size() + " vs " + contentB.size() + " entries");
+        }
+    }
+
+    /**
+     * Fails unless the list was kept up to date by the syncs, without needing a rebuild.
+     */
+    private static void assertListMatches(DiaryRepository repository) throws Exception {
+        int entryCount = repository.getStore().readEntries().length();
+        if (!repository.getStore().getSummaryTable().isInSync() || repository.countEntries() != entryCount
+                || repository.getStats().getEntryCount() != entryCount || !repository.checkStats()) {
+            throw new IllegalStateException("List does not match the " + entryCount + " entries after syncing");
+        }
+    }
+
+    private static Map<Long, String> contentOf(DiaryStore store) throws Exception {
+        Map<Long, String> content = new TreeMap<>();
+        JSONArray entries = store.readEntries();
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            content.put(entry.getLong(DiaryStore.KEY_UNIQUE_ID), SyncEngine.modifiedAtOf(entry) + "/"
+                    + SyncEngine.modifiedByOf(entry) + "/" + store.readFullText(entry));
+        }
+        return content;
+    }
+
+    private static JSONArray generateEntries(DiaryStore store, int count) throws Exception {
+        JSONArray entries = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            int words = i % 100 == 0 ? 2_000 : BenchmarkFixtures.wordCount(i); // Some long, chunked entries
+            entries.put(BenchmarkFixtures.newEntry(store, BenchmarkFixtures.BASE_TIME + i * BenchmarkFixtures.ENTRY_INTERVAL_MS,
+                    BenchmarkFixtures.text(words)));
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,596 @@
+// BackupEngine.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Incremental, deduplicated snapshots of the diary in a backup directory, and point-in-time restore.
+ *
+ * A snapshot is the content of the diary (every entry's fields and full text, one line per entry in
+ * uniqueId order) cut into content-defined chunks: boundaries are picked by a rolling hash of the bytes
+ * themselves, so a new or changed entry only changes the chunks around it and the rest of the content
+ * cuts into the same chunks as before. Each chunk is stored once, named by the hash of its content, so
+ * a backup after one new entry writes a chunk or two and a small manifest.
+ *
+ * The diary's own files are not chunked: every save re-seals all entry headers with fresh IVs, which
+ * changes every byte of diary_entries.json. Chunks and manifests are compressed and then encrypted with
+ * a cipher derived from a backup passphrase and a random salt of the backup set (openBackupCipher()).
+ * Chunk names are hashed with a secret salt kept encrypted in the backup directory, so they do not
+ * reveal the content either.
+ *
+ * Layout of the backup directory:
+ * backup_kdf_salt.bin - the salt the backup cipher is derived with, not secret and so not encrypted;
+ * backup_salt.bin - the salt for chunk names;
+ * chunks/ab/cdef... - one chunk per file, named by its salted SHA-256;
+ * snapshots/[id].snap - the manifest of one snapshot, pointing to the chunks that list its chunks in order.
+ */
+public class BackupEngine {
+
+    static final String KDF_SALT_FILE_NAME = "backup_kdf_salt.bin";
+    static final String SALT_FILE_NAME = "backup_salt.bin";
+    static final String CHUNKS_DIR_NAME = "chunks";
+    static final String SNAPSHOTS_DIR_NAME = "snapshots";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    // Chunk boundaries fall on average every 8 KB past the minimum; chunks never exceed the maximum
+    static final int MIN_CHUNK_SIZE = 2 * 1024;
+    static final int MAX_CHUNK_SIZE = 64 * 1024;
+    private static final long BOUNDARY_MASK = 0xFFF8000000000000L; // Top 13 bits of the rolling hash
+
+    private static final int SALT_LENGTH = 32;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    // Header fields describing how the text is stored; a snapshot keeps the full text under "text" instead
+    private static final List<String> STORAGE_KEYS = Arrays.asList(
+            DiaryStore.KEY_TEXT, DiaryStore.KEY_PREVIEW, DiaryStore.KEY_WORD_COUNT, DiaryStore.KEY_TEXT_LENGTH,
+            DiaryStore.KEY_CHUNK_COUNT, DiaryStore.KEY_BODY_VERSION, DiaryStore.KEY_CHECKSUM, DiaryStore.KEY_BODY_CHECKSUM,
+            DiaryStore.KEY_SEALED);
+
+    // Random value the rolling hash adds per byte value. The seed is fixed so that every version of the
+    // app cuts the same content at the same places; changing it would make the next backup a full one.
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x5756_4741_5231L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * One snapshot, as recorded in its manifest.
+     */
+    public static class Snapshot {
+        private final long id;
+        private final int entryCount;
+        private final int chunkCount;
+        private final long contentBytes; // Size of the diary content, before chunking and compression
+        private final int newChunkCount; // Chunks that were not in the backup yet and had to be written
+        private final long newBytes; // Bytes written for those chunks
+
+        Snapshot(long id, int entryCount, int chunkCount, long contentBytes, int newChunkCount, long newBytes) {
+            this.id = id;
+            this.entryCount = entryCount;
+            this.chunkCount = chunkCount;
+            this.contentBytes = contentBytes;
+            this.newChunkCount = newChunkCount;
+            this.newBytes = newBytes;
+        }
+
+        /**
+         * Returns the ID of the snapshot, which is the time it was taken in milliseconds.
+         */
+        public long getId() {
+            return id;
+        }
+
+        public int getEntryCount() {
+            return entryCount;
+        }
+
+        public int getChunkCount() {
+            return chunkCount;
+        }
+
+        public long getContentBytes() {
+            return contentBytes;
+        }
+
+        public int getNewChunkCount() {
+            return newChunkCount;
+        }
+
+        public long getNewBytes() {
+            return newBytes;
+        }
+    }
+
+    private final DiaryStore store;
+    private final File backupDir;
+    private final File chunksDir;
+    private final File snapshotsDir;
+    private final RecordCipher backupCipher;
+
+    // Loaded on first use
+    private byte[] salt;
+
+    /**
+     * @param backupDir Directory holding the backups; created if needed. It may hold backups of this diary only.
+     * @param backupCipher Cipher from openBackupCipher().
+     */
+    public BackupEngine(DiaryStore store, File backupDir, RecordCipher backupCipher) {
+        if (!backupCipher.hasKeys()) {
+            throw new IllegalArgumentException("Backups must be encrypted");
+        }
+        this.store = store;
+        this.backupDir = backupDir;
+        this.chunksDir = new File(backupDir, CHUNKS_DIR_NAME);
+        this.snapshotsDir = new File(backupDir, SNAPSHOTS_DIR_NAME);
+        this.backupCipher = backupCipher;
+    }
+
+    /**
+     * Derives the cipher of the backup set in a directory from its passphrase, picking the set's
+     * random salt if the directory has no backup yet. Slow on purpose, so call it off the main thread.
+     */
+    public static RecordCipher openBackupCipher(File backupDir, String passphrase) throws IOException, GeneralSecurityException {
+        File saltFile = new File(backupDir, KDF_SALT_FILE_NAME);
+        byte[] kdfSalt;
+        if (saltFile.exists()) {
+            kdfSalt = readBytes(saltFile);
+        } else {
+            makeDirs(backupDir);
+            kdfSalt = DiaryKeyManager.newSalt();
+            writeAtomically(saltFile, kdfSalt);
+        }
+        return DiaryKeyManager.deriveBackupCipher(passphrase, kdfSalt);
+    }
+
+    /**
+     * Takes a snapshot of the whole diary, writing only the chunks the backup does not have yet.
+     * Saves wait while the entries are read; chunking and writing happen after that.
+     * Must be called from a background thread.
+     * @throws IOException if an entry body is damaged (run the IntegrityScanner first) or the backup cannot be written.
+     */
+    public synchronized Snapshot backup() throws IOException, JSONException {
+        List<String> lines = readContent();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (String line : lines) {
+            content.write(line.getBytes(StandardCharsets.UTF_8));
+            content.write('\n');
+        }
+        byte[] bytes = content.toByteArray();
+
+        makeDirs(chunksDir);
+        makeDirs(snapshotsDir);
+        byte[] chunkSalt = loadSalt();
+        long[] written = new long[2]; // New chunks, bytes written for them
+        List<String> chunkNames = storeChunks(chunkSalt, bytes, written);
+
+        // The chunk list is stored as chunks too: it changes in the same few places as the content,
+        // so consecutive snapshots share most of it and each manifest stays small
+        StringBuilder chunkList = new StringBuilder(chunkNames.size() * 65);
+        for (String name : chunkNames) {
+            chunkList.append(name).append('\n');
+        }
+        List<String> indexNames = storeChunks(chunkSalt, chunkList.toString().getBytes(StandardCharsets.UTF_8), written);
+
+        // The manifest goes last: until it exists, the chunks above belong to no snapshot and prune() removes them
+        long id = System.currentTimeMillis();
+        for (long existingId : listSnapshotIds()) {
+            id = Math.max(id, existingId + 1);
+        }
+        JSONObject manifest = new JSONObject();
+        manifest.put("version", SNAPSHOT_VERSION);
+        manifest.put("id", id);
+        manifest.put("entryCount", lines.size());
+        manifest.put("contentBytes", bytes.length);
+        manifest.put("chunkCount", chunkNames.size());
+        manifest.put("newChunkCount", written[0]);
+        manifest.put("newBytes", written[1]);
+        JSONArray index = new JSONArray();
+        for (String name : indexNames) {
+            index.put(name);
+        }
+        manifest.put("index", index);
+        byte[] rawManifest = manifest.toString().getBytes(StandardCharsets.UTF_8);
+        writeAtomically(getSnapshotFile(id), backupCipher.encrypt(compress(rawManifest, 0, rawManifest.length)));
+        return snapshotOf(manifest);
+    }
+
+    /**
+     * Returns all snapshots in the backup, oldest first.
+     */
+    public synchronized List<Snapshot> listSnapshots() throws IOException, JSONException {
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (long id : listSnapshotIds()) {
+            snapshots.add(snapshotOf(readManifest(id)));
+        }
+        return snapshots;
+    }
+
+    /**
+     * Puts the diary back into the state of a snapshot: entries that changed since are replaced,
+     * entries created since are deleted and deleted entries come back. Entries that did not change
+     * are left as they are, so a restore costs about what changed, plus one rewrite of the headers.
+     * The restored state counts as a new change, so SyncEngine sends it to the other devices.
+     * @return The number of entries that were replaced, deleted or brought back.
+     * @throws IOException if the snapshot does not exist or a chunk of it is missing or damaged;
+     *         the diary is left untouched in that case.
+     */
+    public synchronized int restore(long snapshotId) throws IOException, JSONException {
+        JSONObject manifest = readManifest(snapshotId);
+        byte[] chunkSalt = loadSalt();
+        ByteArrayOutputStream content = new ByteArrayOutputStream((int) manifest.optLong("contentBytes", 0));
+        for (String name : readChunkList(chunkSalt, manifest)) {
+            content.write(readChunk(chunkSalt, name));
+        }
+
+        // Parse everything before touching the diary
+        byte[] bytes = content.toByteArray();
+        List<JSONObject> entries = new ArrayList<>();
+        int lineStart = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                entries.add(new JSONObject(new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8)));
+                lineStart = i + 1;
+            }
+        }
+        if (entries.size() != manifest.optInt("entryCount", -1)) {
+            throw new IOException("Snapshot " + snapshotId + " is incomplete");
+        }
+        return new DiaryRepository(store).restoreEntries(entries);
+    }
+
+    /**
+     * Deletes all but the newest snapshots, then every chunk no remaining snapshot uses
+     * (including chunks left behind by a backup that was interrupted).
+     * @return The number of chunk files deleted.
+     */
+    public synchronized int prune(int keepLatest) throws IOException, JSONException {
+        List<Long> ids = listSnapshotIds();
+        for (int i = 0; i < ids.size() - keepLatest; i++) {
+            File snapshotFile = getSnapshotFile(ids.get(i));
+            if (!snapshotFile.delete()) {
+                throw new IOException("Could not delete " + snapshotFile.getName());
+            }
+        }
+
+        byte[] chunkSalt = loadSalt();
+        Set<String> usedNames = new HashSet<>();
+        for (long id : listSnapshotIds()) {
+            JSONObject manifest = readManifest(id);
+            usedNames.addAll(readChunkList(chunkSalt, manifest));
+            JSONArray index = manifest.optJSONArray("index");
+            for (int i = 0; i < index.length(); i++) {
+                usedNames.add(index.optString(i));
+            }
+        }
+        int deleted = 0;
+        File[] prefixDirs = chunksDir.listFiles();
+        for (File prefixDir : prefixDirs != null ? prefixDirs : new File[0]) {
+            File[] chunkFiles = prefixDir.listFiles();
+            for (File chunkFile : chunkFiles != null ? chunkFiles : new File[0]) {
+                if (!usedNames.contains(prefixDir.getName() + chunkFile.getName()) && chunkFile.delete()) {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Reads every entry with its full text, one canonical JSON line per entry in uniqueId order.
+     * Keys are inserted in sorted order so unchanged entries serialize to the same bytes every time.
+     */
+    private List<String> readContent() throws IOException, JSONException {
+        store.lockForUpdate();
+        try {
+            JSONArray entries = store.readEntries();
+            List<JSONObject> sorted = new ArrayList<>(entries.length());
+            for (int i = 0; i < entries.length(); i++) {
+                sorted.add(entries.getJSONObject(i));
+            }
+            Collections.sort(sorted, (a, b) -> Long.compare(
+                    a.optLong(DiaryStore.KEY_UNIQUE_ID), b.optLong(DiaryStore.KEY_UNIQUE_ID)));
+
+            List<String> lines = new ArrayList<>(sorted.size());
+            for (JSONObject entry : sorted) {
+                String text = store.readVerifiedText(entry);
+                if (text == null) {
+                    throw new IOException("The body of entry " + entry.getLong(DiaryStore.KEY_UNIQUE_ID) + " is damaged");
+                }
+                List<String> keys = new ArrayList<>();
+                Iterator<String> it = entry.keys();
+                while (it.hasNext()) {
+                    String key = it.next();
+                    if (!STORAGE_KEYS.contains(key)) {
+                        keys.add(key);
+                    }
+                }
+                keys.add(DiaryStore.KEY_TEXT);
+                Collections.sort(keys);
+                JSONObject line = new JSONObject();
+                for (String key : keys) {
+                    line.put(key, DiaryStore.KEY_TEXT.equals(key) ? text : entry.opt(key));
+                }
+                lines.add(line.toString());
+            }
+            return lines;
+        } finally {
+            store.unlockForUpdate();
+        }
+    }
+
+    /**
+     * Cuts data into content-defined chunks and writes the ones the backup does not have yet.
+     * @param written Incremented by the number of chunks written ([0]) and the bytes written for them ([1]).
+     * @return The names of all chunks, in order.
+     */
+    private List<String> storeChunks(byte[] chunkSalt, byte[] data, long[] written) throws IOException {
+        List<String> names = new ArrayList<>();
+        int start = 0;
+        while (start < data.length) {
+            int end = nextBoundary(data, start);
+            String name = chunkName(chunkSalt, data, start, end);
+            File chunkFile = getChunkFile(name);
+            if (!chunkFile.exists()) { // Also skips a chunk repeated earlier in the same data
+                byte[] stored = backupCipher.encrypt(compress(data, start, end - start));
+                makeDirs(chunkFile.getParentFile());
+                writeAtomically(chunkFile, stored);
+                written[0]++;
+                written[1] += stored.length;
+            }
+            names.add(name);
+            start = end;
+        }
+        return names;
+    }
+
+    /**
+     * Reads the names of a snapshot's content chunks from the chunks its manifest points to.
+     */
+    private List<String> readChunkList(byte[] chunkSalt, JSONObject manifest) throws IOException {
+        JSONArray index = manifest.optJSONArray("index");
+        if (index == null) {
+            throw new IOException("Snapshot " + manifest.optLong("id") + " has no chunk list");
+        }
+        StringBuilder chunkList = new StringBuilder();
+        for (int i = 0; i < index.length(); i++) {
+            chunkList.append(new String(readChunk(chunkSalt, index.optString(i)), StandardCharsets.UTF_8));
+        }
+        List<String> names = new ArrayList<>();
+        for (String name : chunkList.toString().split("\n")) {
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        if (names.size() != manifest.optInt("chunkCount", -1)) {
+            throw new IOException("The chunk list of snapshot " + manifest.optLong("id") + " is incomplete");
+        }
+        return names;
+    }
+
+    /**
+     * Returns the end of the chunk starting at start: the first position past MIN_CHUNK_SIZE where the
+     * rolling (gear) hash of the preceding bytes has its top bits clear, or MAX_CHUNK_SIZE, or the end.
+     * The hash shifts by one bit per byte, so it only depends on the last 64 bytes.
+     */
+    static int nextBoundary(byte[] data, int start) {
+        int end = Math.min(data.length, start + MAX_CHUNK_SIZE);
+        long hash = 0;
+        for (int i = start + MIN_CHUNK_SIZE; i < end; i++) {
+            hash = (hash << 1) + GEAR[data[i] & 0xFF];
+            if ((hash & BOUNDARY_MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    private static String chunkName(byte[] chunkSalt, byte[] data, int start, int end) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(chunkSalt);
+            digest.update(data, start, end - start);
+            return RecordCipher.toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Reads, decrypts and decompresses a chunk, checking that its content still matches its name.
+     */
+    private byte[] readChunk(byte[] chunkSalt, String name) throws IOException {
+        File chunkFile = getChunkFile(name);
+        if (!chunkFile.exists()) {
+            throw new IOException("Backup chunk " + name + " is missing");
+        }
+        byte[] chunk = decompress(decryptBackupFile(chunkFile));
+        if (!chunkName(chunkSalt, chunk, 0, chunk.length).equals(name)) {
+            throw new IOException("Backup chunk " + name + " is damaged");
+        }
+        return chunk;
+    }
+
+    private JSONObject readManifest(long id) throws IOException, JSONException {
+        File snapshotFile = getSnapshotFile(id);
+        if (!snapshotFile.exists()) {
+            throw new IOException("There is no snapshot " + id);
+        }
+        JSONObject manifest = new JSONObject(new String(decompress(decryptBackupFile(snapshotFile)), StandardCharsets.UTF_8));
+        if (manifest.optInt("version", 0) != SNAPSHOT_VERSION) {
+            throw new IOException("Snapshot " + id + " was written by a newer version of the app");
+        }
+        return manifest;
+    }
+
+    private static Snapshot snapshotOf(JSONObject manifest) {
+        return new Snapshot(manifest.optLong("id"), manifest.optInt("entryCount"), manifest.optInt("chunkCount"),
+                manifest.optLong("contentBytes"), manifest.optInt("newChunkCount"), manifest.optLong("newBytes"));
+    }
+
+    /**
+     * Returns the IDs of all snapshots, oldest first, from the manifest file names.
+     */
+    private List<Long> listSnapshotIds() {
+        List<Long> ids = new ArrayList<>();
+        String[] names = snapshotsDir.list();
+        for (String name : names != null ? names : new String[0]) {
+            if (name.endsWith(SNAPSHOT_SUFFIX)) {
+                try {
+                    ids.add(Long.parseLong(name.substring(0, name.length() - SNAPSHOT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not a manifest
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Returns the secret salt for chunk names, creating it with the first backup.
+     * @throws IOException if the passphrase does not match the one the backup was made with.
+     */
+    private byte[] loadSalt() throws IOException {
+        if (salt != null) {
+            return salt;
+        }
+        File saltFile = new File(backupDir, SALT_FILE_NAME);
+        if (saltFile.exists()) {
+            try {
+                salt = decryptBackupFile(saltFile);
+            } catch (DiaryLockedException e) {
+                throw e;
+            } catch (IOException e) {
+                throw new IOException("Wrong backup passphrase, or " + SALT_FILE_NAME + " is damaged", e);
+            }
+        } else {
+            makeDirs(backupDir);
+            byte[] newSalt = new byte[SALT_LENGTH];
+            RANDOM.nextBytes(newSalt);
+            writeAtomically(saltFile, backupCipher.encrypt(newSalt));
+            salt = newSalt;
+        }
+        return salt;
+    }
+
+    /**
+     * Decrypts a file of the backup, refusing files that are not encrypted.
+     */
+    private byte[] decryptBackupFile(File file) throws IOException {
+        byte[] record = readBytes(file);
+        if (RecordCipher.keyIdOf(record) == -1) {
+            throw new IOException(file.getName() + " is not encrypted");
+        }
+        return backupCipher.decrypt(record);
+    }
+
+    private File getChunkFile(String name) {
+        return new File(new File(chunksDir, name.substring(0, 2)), name.substring(2));
+    }
+
+    private File getSnapshotFile(long id) {
+        return new File(snapshotsDir, id + SNAPSHOT_SUFFIX);
+    }
+
+    private static byte[] compress(byte[] data, int offset, int length) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4 + 64);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater);
+            out.write(data, offset, length);
+            out.close();
+        } finally {
+            deflater.end();
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] data) throws IOException {
+        InputStream in = new InflaterInputStream(new ByteArrayInputStream(data));
+        try {
+            ByteArrayOutputStream raw = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                raw.write(buffer, 0, n);
+            }
+            return raw.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void makeDirs(File dir) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir.getName());
+        }
+    }
+
+    /**
+     * Writes a file via a temporary file and rename, so an interrupted backup never leaves a
+     * half-written chunk or manifest under its final name.
+     */
+    private static void writeAtomically(File file, byte[] content) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Could not replace " + file.getName());
+        }
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < content.length) {
+                int n = in.read(content, read, content.length - read);
+                if (n == -1) {
+                    throw new IOException("Unexpected end of " + file.getName());
+                }
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        return content;
+    }
+}
@@ -0,0 +1,537 @@
+// ChangeLog.java
+package com.example.madproject;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only log of the entries changed on this device, used by SyncEngine to send only what
+ * changed since the last sync. Every change gets a sequence number that only ever grows; the log
+ * records just the sequence number and the entry's unique ID, the entry itself is read from the
+ * store when it is sent.
+ *
+ * Nothing is logged until the first sync starts recording (startRecording()): until then no other
+ * device has a copy, and the first sync sends every entry anyway. After that the log only holds the
+ * changes not pushed yet, since every push drops the ones it sent.
+ *
+ * The sync state lives next to the log in diary_sync_state.json: this device's ID and the cursors
+ * (last sequence number pushed, last server position pulled). The tombstones of deleted entries,
+ * which keep an old copy of an entry arriving from another device from bringing it back, have their
+ * own append-only log, diary_tombstones.log, so a delete appends one record instead of rewriting all
+ * of them. Tombstones expire after TOMBSTONE_EXPIRY_MS.
+ */
+public class ChangeLog {
+
+    // File names for the log and the sync state
+    static final String LOG_FILE_NAME = "diary_changes.log";
+    static final String STATE_FILE_NAME = "diary_sync_state.json";
+    static final String TOMBSTONE_FILE_NAME = "diary_tombstones.log";
+
+    // One log record: sequence number and unique ID
+    private static final int RECORD_LENGTH = 16;
+
+    // Age after which a tombstone is dropped. A device that has not synced for longer than this can
+    // bring back an entry deleted elsewhere in the meantime.
+    static final long TOMBSTONE_EXPIRY_MS = TimeUnit.DAYS.toMillis(180);
+
+    // Kinds of tombstone log records
+    private static final byte TOMBSTONE_ADDED = 1; // uniqueId, modifiedAt, modifiedBy
+    private static final byte TOMBSTONE_REMOVED = 2; // uniqueId
+
+    // The tombstone log is rewritten once it holds this many more records than live tombstones
+    private static final int TOMBSTONE_COMPACT_SLACK = 256;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * An entry changed since some sequence number. Only the latest change per entry is kept.
+     */
+    public static class Change {
+        private final long seq;
+        private final long uniqueId;
+
+        Change(long seq, long uniqueId) {
+            this.seq = seq;
+            this.uniqueId = uniqueId;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public long getUniqueId() {
+            return uniqueId;
+        }
+    }
+
+    /**
+     * Marks a deleted entry with the version of its deletion.
+     */
+    public static class Tombstone {
+        private final long uniqueId;
+        private final long modifiedAt;
+        private final String modifiedBy;
+
+        public Tombstone(long uniqueId, long modifiedAt, String modifiedBy) {
+            this.uniqueId = uniqueId;
+            this.modifiedAt = modifiedAt;
+            this.modifiedBy = modifiedBy;
+        }
+
+        public long getUniqueId() {
+            return uniqueId;
+        }
+
+        public long getModifiedAt() {
+            return modifiedAt;
+        }
+
+        public String getModifiedBy() {
+            return modifiedBy;
+        }
+    }
+
+    private final File logFile;
+    private final File stateFile;
+    private final File tombstoneFile;
+
+    // Loaded on first use
+    private JSONObject state;
+    private long lastSeq;
+    private Map<Long, Tombstone> tombstones; // Null until the tombstone log is read
+    private int tombstoneRecords; // Records in the tombstone log, including superseded ones
+
+    /**
+     * @param filesDir The app's private files directory (Context.getFilesDir()).
+     */
+    public ChangeLog(File filesDir) {
+        this.logFile = new File(filesDir, LOG_FILE_NAME);
+        this.stateFile = new File(filesDir, STATE_FILE_NAME);
+        this.tombstoneFile = new File(filesDir, TOMBSTONE_FILE_NAME);
+    }
+
+    /**
+     * Returns the random ID of this device, created on first use.
+     */
+    public synchronized String getDeviceId() throws IOException {
+        load();
+        return state.optString("deviceId");
+    }
+
+    /**
+     * Records that an entry was created, updated or deleted, once recording has started.
+     * Call this before writing the change, so a crash in between at worst sends an unchanged entry.
+     * @return The sequence number of the change, or 0 if nothing is recorded yet.
+     */
+    public synchronized long append(long uniqueId) throws IOException {
+        if (!isRecording()) {
+            return 0;
+        }
+        appendAll(Collections.singletonList(uniqueId));
+        return lastSeq;
+    }
+
+    /**
+     * Returns true once changes and tombstones are recorded, see startRecording().
+     */
+    public synchronized boolean isRecording() throws IOException {
+        load();
+        return state.optBoolean("recording", false) || state.optBoolean("baseline", false);
+    }
+
+    /**
+     * Starts recording changes and tombstones. Called by the first sync, with the store's update lock
+     * held so that no save falls between this and reading the entries for appendBaseline().
+     */
+    public synchronized void startRecording() throws IOException {
+        putState("recording", true);
+    }
+
+    /**
+     * Returns the entries changed after the given sequence number, each once with its latest
+     * sequence number, ordered by that sequence number.
+     */
+    public synchronized List<Change> readSince(long seq) throws IOException {
+        load();
+        Map<Long, Long> latestSeqById = new HashMap<>();
+        for (long[] record : readRecords()) {
+            if (record[0] > seq) {
+                latestSeqById.put(record[1], record[0]);
+            }
+        }
+        List<Change> changes = new ArrayList<>(latestSeqById.size());
+        for (Map.Entry<Long, Long> entry : latestSeqById.entrySet()) {
+            changes.add(new Change(entry.getValue(), entry.getKey()));
+        }
+        Collections.sort(changes, (a, b) -> Long.compare(a.seq, b.seq));
+        return changes;
+    }
+
+    /**
+     * Returns true once every entry that existed before the log was started has been logged.
+     */
+    public synchronized boolean hasBaseline() throws IOException {
+        load();
+        return state.optBoolean("baseline", false);
+    }
+
+    /**
+     * Logs every given entry as changed, so the first sync sends entries written before sync existed.
+     */
+    public synchronized void appendBaseline(Collection<Long> uniqueIds) throws IOException {
+        appendAll(uniqueIds);
+        putState("baseline", true);
+    }
+
+    /**
+     * Returns the sequence number up to which changes have been sent to the server.
+     */
+    public synchronized long getPushedSeq() throws IOException {
+        load();
+        return state.optLong("pushedSeq", 0);
+    }
+
+    /**
+     * Advances the push cursor and drops the log records it covers.
+     */
+    public synchronized void setPushedSeq(long seq) throws IOException {
+        putState("pushedSeq", seq);
+        compact(seq);
+    }
+
+    /**
+     * Returns the server position up to which changes from other devices have been applied.
+     */
+    public synchronized long getPulledCursor() throws IOException {
+        load();
+        return state.optLong("pulledCursor", 0);
+    }
+
+    public synchronized void setPulledCursor(long cursor) throws IOException {
+        putState("pulledCursor", cursor);
+    }
+
+    /**
+     * Returns the tombstone of a deleted entry, or null if the entry was never deleted, was deleted
+     * before recording started, or its tombstone has expired.
+     */
+    public synchronized Tombstone getTombstone(long uniqueId) throws IOException {
+        loadTombstones();
+        Tombstone tombstone = tombstones.get(uniqueId);
+        return tombstone != null && !isExpired(tombstone, System.currentTimeMillis()) ? tombstone : null;
+    }
+
+    /**
+     * Adds and removes tombstones with one append to the tombstone log, once recording has started.
+     */
+    public synchronized void updateTombstones(Collection<Tombstone> added, Collection<Long> removed) throws IOException {
+        if (!isRecording()) {
+            return;
+        }
+        loadTombstones();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tombstoneFile, true)));
+        try {
+            for (Tombstone tombstone : added) {
+                writeTombstone(out, tombstone);
+                tombstones.put(tombstone.uniqueId, tombstone);
+                tombstoneRecords++;
+            }
+            for (long uniqueId : removed) {
+                if (tombstones.remove(uniqueId) != null) {
+                    out.writeByte(TOMBSTONE_REMOVED);
+                    out.writeLong(uniqueId);
+                    tombstoneRecords++;
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (tombstoneRecords > 2 * tombstones.size() + TOMBSTONE_COMPACT_SLACK) {
+            compactTombstones();
+        }
+    }
+
+    /**
+     * Reads the tombstone log on first use, cutting off a record torn by a crash mid-append and
+     * dropping expired tombstones. Tombstones kept in the sync state by older versions are moved over.
+     */
+    private void loadTombstones() throws IOException {
+        if (tombstones != null) {
+            return;
+        }
+        load();
+        Map<Long, Tombstone> loaded = new HashMap<>();
+        int records = 0;
+        long validLength = 0;
+        if (tombstoneFile.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(tombstoneFile)));
+            try {
+                while (true) {
+                    byte kind = in.readByte();
+                    long uniqueId = in.readLong();
+                    long recordLength = 1 + 8;
+                    if (kind == TOMBSTONE_ADDED) {
+                        long modifiedAt = in.readLong();
+                        byte[] modifiedBy = new byte[in.readUnsignedShort()];
+                        in.readFully(modifiedBy);
+                        loaded.put(uniqueId, new Tombstone(uniqueId, modifiedAt, new String(modifiedBy, StandardCharsets.UTF_8)));
+                        recordLength += 8 + 2 + modifiedBy.length;
+                    } else if (kind == TOMBSTONE_REMOVED) {
+                        loaded.remove(uniqueId);
+                    } else {
+                        throw new IOException(TOMBSTONE_FILE_NAME + " is damaged");
+                    }
+                    validLength += recordLength;
+                    records++;
+                }
+            } catch (EOFException e) {
+                // End of the log, or a torn last record
+            } finally {
+                in.close();
+            }
+            if (validLength != tombstoneFile.length()) {
+                RandomAccessFile file = new RandomAccessFile(tombstoneFile, "rw");
+                try {
+                    file.setLength(validLength);
+                } finally {
+                    file.close();
+                }
+            }
+        }
+        tombstones = loaded;
+        tombstoneRecords = records;
+
+        JSONObject legacy = state.optJSONObject("tombstones");
+        if (legacy != null) {
+            Iterator<String> ids = legacy.keys();
+            while (ids.hasNext()) {
+                String id = ids.next();
+                JSONObject value = legacy.optJSONObject(id);
+                if (value != null) {
+                    long uniqueId = Long.parseLong(id);
+                    tombstones.put(uniqueId, new Tombstone(uniqueId, value.optLong("at"), value.optString("by")));
+                }
+            }
+            compactTombstones(); // Before the state drops them, so a crash in between loses nothing
+            state.remove("tombstones");
+            writeState();
+        } else if (hasExpired()) {
+            compactTombstones();
+        }
+    }
+
+    private boolean hasExpired() {
+        long now = System.currentTimeMillis();
+        for (Tombstone tombstone : tombstones.values()) {
+            if (isExpired(tombstone, now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isExpired(Tombstone tombstone, long now) {
+        return now - tombstone.modifiedAt > TOMBSTONE_EXPIRY_MS;
+    }
+
+    /**
+     * Rewrites the tombstone log with one record per live tombstone, dropping expired ones.
+     */
+    private void compactTombstones() throws IOException {
+        long now = System.currentTimeMillis();
+        Iterator<Tombstone> it = tombstones.values().iterator();
+        while (it.hasNext()) {
+            if (isExpired(it.next(), now)) {
+                it.remove();
+            }
+        }
+        File tempFile = new File(tombstoneFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            for (Tombstone tombstone : tombstones.values()) {
+                writeTombstone(out, tombstone);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(tombstoneFile)) {
+            throw new IOException("Could not replace " + TOMBSTONE_FILE_NAME);
+        }
+        tombstoneRecords = tombstones.size();
+    }
+
+    private static void writeTombstone(DataOutputStream out, Tombstone tombstone) throws IOException {
+        byte[] modifiedBy = tombstone.modifiedBy.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(TOMBSTONE_ADDED);
+        out.writeLong(tombstone.uniqueId);
+        out.writeLong(tombstone.modifiedAt);
+        out.writeShort(modifiedBy.length);
+        out.write(modifiedBy);
+    }
+
+    private void appendAll(Collection<Long> uniqueIds) throws IOException {
+        load();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true)));
+        try {
+            for (long uniqueId : uniqueIds) {
+                out.writeLong(lastSeq + 1);
+                out.writeLong(uniqueId);
+                lastSeq++;
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the sync state and the position of the log on first use.
+     * A record torn by a crash mid-append is cut off.
+     */
+    private void load() throws IOException {
+        if (state != null) {
+            return;
+        }
+        JSONObject loaded = new JSONObject();
+        if (stateFile.exists()) {
+            try {
+                loaded = new JSONObject(new String(readBytes(stateFile), StandardCharsets.UTF_8));
+            } catch (JSONException e) {
+                throw new IOException(STATE_FILE_NAME + " is damaged: " + e.getMessage());
+            }
+        }
+
+        long validLength = logFile.length() - logFile.length() % RECORD_LENGTH;
+        if (validLength != logFile.length()) {
+            RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+        }
+
+        state = loaded;
+        lastSeq = state.optLong("pushedSeq", 0);
+        for (long[] record : readRecords()) {
+            lastSeq = Math.max(lastSeq, record[0]);
+        }
+        if (!state.has("deviceId")) {
+            byte[] deviceId = new byte[8];
+            RANDOM.nextBytes(deviceId);
+            putState("deviceId", RecordCipher.toHex(deviceId));
+        }
+    }
+
+    /**
+     * Reads all log records as {seq, uniqueId} pairs.
+     */
+    private List<long[]> readRecords() throws IOException {
+        List<long[]> records = new ArrayList<>();
+        if (!logFile.exists()) {
+            return records;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+        try {
+            while (true) {
+                records.add(new long[]{in.readLong(), in.readLong()});
+            }
+        } catch (EOFException e) {
+            return records; // End of the log
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Rewrites the log without the records up to the given sequence number.
+     */
+    private void compact(long upToSeq) throws IOException {
+        List<long[]> records = readRecords();
+        Iterator<long[]> it = records.iterator();
+        while (it.hasNext()) {
+            if (it.next()[0] <= upToSeq) {
+                it.remove();
+            }
+        }
+        File tempFile = new File(logFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            for (long[] record : records) {
+                out.writeLong(record[0]);
+                out.writeLong(record[1]);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(logFile)) {
+            throw new IOException("Could not replace " + LOG_FILE_NAME);
+        }
+    }
+
+    private void putState(String key, Object value) throws IOException {
+        load();
+        try {
+            state.put(key, value);
+        } catch (JSONException e) {
+            throw new IOException("Could not update " + STATE_FILE_NAME + ": " + e.getMessage());
+        }
+        writeState();
+    }
+
+    /**
+     * Writes the sync state via a temporary file and rename, so a crash never leaves it half-written.
+     */
+    private void writeState() throws IOException {
+        File tempFile = new File(stateFile.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(state.toString().getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(stateFile)) {
+            throw new IOException("Could not replace " + STATE_FILE_NAME);
+        }
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < content.length) {
+                int n = in.read(content, read, content.length - read);
+                if (n == -1) {
+                    break;
+                }
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        return content;
+    }
+}
@@ -0,0 +1,425 @@
+// DiaryKeyManager.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Envelope-key management for the diary.
+ * Records are encrypted with random AES data keys. The data keys are stored in diary_keys.json,
+ * each one wrapped (AES-GCM) under a key-encryption key derived from the PIN with PBKDF2.
+ * Changing the PIN therefore only re-wraps the data keys and never touches an entry.
+ *
+ * Normally there is exactly one data key. While ReKeyEngine is replacing it there are two:
+ * the new current key and the old one, which is kept until every record has been re-encrypted.
+ *
+ * Limit: a 4-digit PIN has only 10,000 values. Whoever gets a copy of diary_keys.json (a rooted
+ * device, or a platform backup) can try all of them offline. KDF_ITERATIONS makes each guess cost
+ * as much as an unlock, which takes that from a fraction of a second to minutes on a phone-class
+ * CPU, but a GPU still gets through 10,000 PINs quickly. The PIN keeps out someone holding the
+ * locked phone, not an attacker with the files; every extra digit multiplies their work by ten.
+ */
+public class DiaryKeyManager {
+
+    // File name for storing the wrapped data keys, and for the previous version while it is replaced
+    static final String KEY_FILE_NAME = "diary_keys.json";
+    private static final String BACKUP_FILE_NAME = "diary_keys.json.bak";
+
+    private static final String KDF_ALGORITHM = "PBKDF2WithHmacSHA256";
+    // PBKDF2-HMAC-SHA256 cost, as currently recommended for it; about half a second per unlock on a
+    // mid-range phone. Key files written with fewer iterations are upgraded on the next unlock.
+    private static final int KDF_ITERATIONS = 600_000;
+    private static final int SALT_LENGTH = 16;
+    private static final int KEY_BITS = 256;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Held across every read-modify-write of the key file. Static because PIN checks and re-keys
+    // run on different executors, each with its own DiaryKeyManager for the same file.
+    static final Object KEY_FILE_LOCK = new Object();
+
+    private final File keyFile;
+    private final File backupFile;
+
+    /**
+     * @param filesDir The app's private files directory (Context.getFilesDir()).
+     */
+    public DiaryKeyManager(File filesDir) {
+        this.keyFile = new File(filesDir, KEY_FILE_NAME);
+        this.backupFile = new File(filesDir, BACKUP_FILE_NAME);
+    }
+
+    /**
+     * Returns true if a PIN (and with it a data key) has been set up.
+     */
+    public boolean hasPin() {
+        return keyFile.exists();
+    }
+
+    /**
+     * Sets up the first PIN and generates the diary's data key.
+     * @param encryptExisting True if the diary already holds plaintext records that ReKeyEngine still
+     *                        has to encrypt (a diary from before encryption existed).
+     * @return A cipher holding the new data key.
+     */
+    public RecordCipher createPin(String pin, boolean encryptExisting) throws IOException, GeneralSecurityException {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        Map<Integer, SecretKey> dataKeys = new HashMap<>();
+        dataKeys.put(1, generateDataKey());
+        synchronized (KEY_FILE_LOCK) {
+            writeKeyFile(pin, salt, KDF_ITERATIONS, dataKeys, 1, encryptExisting);
+        }
+        return new RecordCipher(dataKeys, 1);
+    }
+
+    /**
+     * Unwraps the data keys with the given PIN. A key file from before the current KDF cost is
+     * re-wrapped with it on the way.
+     * @return A cipher holding all data keys, or null if the PIN is wrong.
+     */
+    public RecordCipher unlock(String pin) throws IOException, GeneralSecurityException {
+        synchronized (KEY_FILE_LOCK) {
+            JSONObject keyData = readKeyFile();
+            Map<Integer, SecretKey> dataKeys = unwrapAll(keyData, pin);
+            if (dataKeys == null) {
+                return null;
+            }
+            int currentKeyId = keyData.optInt("currentKeyId", 1);
+            if (keyData.optInt("iterations", KDF_ITERATIONS) < KDF_ITERATIONS) {
+                byte[] salt = new byte[SALT_LENGTH];
+                RANDOM.nextBytes(salt);
+                try {
+                    writeKeyFile(pin, salt, KDF_ITERATIONS, dataKeys, currentKeyId, keyData.optBoolean("reKeyPending", false));
+                } catch (IOException e) {
+                    // The old key file is still intact; the next unlock tries again
+                }
+            }
+            return new RecordCipher(dataKeys, currentKeyId);
+        }
+    }
+
+    /**
+     * Changes the PIN by re-wrapping every data key under a key derived from the new PIN (with a fresh salt).
+     * No entry is re-encrypted.
+     * @return False if the old PIN is wrong.
+     */
+    public boolean changePin(String oldPin, String newPin) throws IOException, GeneralSecurityException {
+        synchronized (KEY_FILE_LOCK) {
+            JSONObject keyData = readKeyFile();
+            Map<Integer, SecretKey> dataKeys = unwrapAll(keyData, oldPin);
+            if (dataKeys == null) {
+                return false;
+            }
+            byte[] salt = new byte[SALT_LENGTH];
+            RANDOM.nextBytes(salt);
+            writeKeyFile(newPin, salt, KDF_ITERATIONS, dataKeys, keyData.optInt("currentKeyId", 1),
+                    keyData.optBoolean("reKeyPending", false));
+            return true;
+        }
+    }
+
+    /**
+     * Generates a new data key and makes it the current one, keeping the old keys for reading.
+     * Used to start a full re-key; ReKeyEngine then moves every record over to the new key.
+     * @return A cipher holding the old keys and the new current key, or null if the PIN is wrong.
+     */
+    public RecordCipher addDataKey(String pin) throws IOException, GeneralSecurityException {
+        synchronized (KEY_FILE_LOCK) {
+            JSONObject keyData = readKeyFile();
+            Map<Integer, SecretKey> dataKeys = unwrapAll(keyData, pin);
+            if (dataKeys == null) {
+                return null;
+            }
+            int newKeyId = 1;
+            for (int keyId : dataKeys.keySet()) {
+                newKeyId = Math.max(newKeyId, keyId + 1);
+            }
+            dataKeys.put(newKeyId, generateDataKey());
+            writeKeyFile(pin, hexField(keyData, "salt"), keyData.optInt("iterations", KDF_ITERATIONS), dataKeys, newKeyId,
+                    keyData.optBoolean("reKeyPending", false));
+            return new RecordCipher(dataKeys, newKeyId);
+        }
+    }
+
+    /**
+     * Returns true if a re-key was started but has not finished: old data keys are still present,
+     * or plaintext records from before encryption still have to be encrypted.
+     */
+    public boolean isReKeyPending() throws IOException {
+        if (!hasPin()) {
+            return false;
+        }
+        JSONObject keyData;
+        synchronized (KEY_FILE_LOCK) {
+            keyData = readKeyFile();
+        }
+        JSONArray keys = keyData.optJSONArray("keys");
+        return keyData.optBoolean("reKeyPending", false) || (keys != null && keys.length() > 1);
+    }
+
+    /**
+     * Deletes every data key except the current one and clears the pending re-key, but only if the
+     * current key is still targetKeyId. If another re-key installed a newer key in the meantime, the
+     * records are not all under that key yet and nothing is dropped; that re-key's own run does it.
+     * Only call this once no record uses a key other than targetKeyId any more.
+     * @return False if the current key has changed and nothing was dropped.
+     */
+    public boolean dropRetiredKeys(int targetKeyId) throws IOException {
+        synchronized (KEY_FILE_LOCK) {
+            JSONObject keyData = readKeyFile();
+            int currentKeyId = keyData.optInt("currentKeyId", 1);
+            if (currentKeyId != targetKeyId) {
+                return false;
+            }
+            JSONArray keys = keyData.optJSONArray("keys");
+            JSONArray remainingKeys = new JSONArray();
+            for (int i = 0; i < keys.length(); i++) {
+                JSONObject key = keys.optJSONObject(i);
+                if (key != null && key.optInt("id", -1) == currentKeyId) {
+                    remainingKeys.put(key);
+                }
+            }
+            try {
+                keyData.put("keys", remainingKeys);
+                keyData.remove("reKeyPending");
+            } catch (JSONException e) {
+                throw new IOException("Could not update " + KEY_FILE_NAME + ": " + e.getMessage());
+            }
+            writeAtomically(keyData);
+            return true;
+        }
+    }
+
+    /**
+     * Derives the cipher that encrypts sync frames from a pairing code shared by the user's devices.
+     * It is independent of the PIN and the data keys, which differ from device to device. Uses the
+     * same KDF cost as the PIN, so a pairing code needs more than 4 digits to resist the server.
+     * @param salt Random salt of the pairing, kept by the sync server (see SyncEngine.openFrameCipher()).
+     */
+    public static RecordCipher deriveSyncCipher(String pairingCode, byte[] salt) throws GeneralSecurityException {
+        return new RecordCipher(Collections.singletonMap(1, deriveKek(pairingCode, checkSalt(salt), KDF_ITERATIONS)), 1);
+    }
+
+    /**
+     * Derives the cipher that encrypts backups from a backup passphrase. Like the sync cipher it does not
+     * depend on the PIN or the data keys, so a backup can still be restored after a PIN change or re-key.
+     * The backup lives outside the app's storage, so the passphrase should be longer than a PIN.
+     * @param salt Random salt of the backup set, kept with it (see BackupEngine.openBackupCipher()).
+     */
+    public static RecordCipher deriveBackupCipher(String passphrase, byte[] salt) throws GeneralSecurityException {
+        return new RecordCipher(Collections.singletonMap(1, deriveKek(passphrase, checkSalt(salt), KDF_ITERATIONS)), 1);
+    }
+
+    /**
+     * Returns a new random salt for deriveSyncCipher() or deriveBackupCipher().
+     */
+    static byte[] newSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    private static byte[] checkSalt(byte[] salt) {
+        if (salt == null || salt.length < SALT_LENGTH) {
+            throw new IllegalArgumentException("Salt must be at least " + SALT_LENGTH + " random bytes");
+        }
+        return salt;
+    }
+
+    /**
+     * Runs PBKDF2 and AES-GCM once on throwaway inputs, so the providers are loaded and initialized
+     * before the first PIN check of the process instead of during it. See StartupWarmup.
+     */
+    static void warmUpCrypto() throws GeneralSecurityException {
+        byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv); // Also seeds the generator
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, deriveKek("0000", new byte[SALT_LENGTH], 1), new GCMParameterSpec(TAG_BITS, iv));
+        cipher.doFinal(new byte[1]);
+    }
+
+    /**
+     * Unwraps all data keys in the key file with the given PIN.
+     * @return The data keys by ID, or null if the PIN is wrong.
+     */
+    private Map<Integer, SecretKey> unwrapAll(JSONObject keyData, String pin) throws IOException, GeneralSecurityException {
+        SecretKey kek = deriveKek(pin, hexField(keyData, "salt"), keyData.optInt("iterations", KDF_ITERATIONS));
+        JSONArray keys = keyData.optJSONArray("keys");
+        if (keys == null) {
+            throw new IOException(KEY_FILE_NAME + " has no keys");
+        }
+        Map<Integer, SecretKey> dataKeys = new HashMap<>();
+        for (int i = 0; i < keys.length(); i++) {
+            JSONObject key = keys.optJSONObject(i);
+            if (key == null) {
+                throw new IOException(KEY_FILE_NAME + " is damaged");
+            }
+            int keyId = key.optInt("id", -1);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, kek, new GCMParameterSpec(TAG_BITS, hexField(key, "iv")));
+            cipher.updateAAD(String.valueOf(keyId).getBytes(StandardCharsets.UTF_8));
+            try {
+                dataKeys.put(keyId, new SecretKeySpec(cipher.doFinal(hexField(key, "wrapped")), "AES"));
+            } catch (AEADBadTagException e) {
+                return null; // Wrong PIN
+            }
+        }
+        return dataKeys;
+    }
+
+    /**
+     * Wraps all data keys under a key derived from the PIN and replaces the key file.
+     */
+    private void writeKeyFile(String pin, byte[] salt, int iterations, Map<Integer, SecretKey> dataKeys, int currentKeyId,
+                              boolean reKeyPending) throws IOException, GeneralSecurityException {
+        SecretKey kek = deriveKek(pin, salt, iterations);
+        try {
+            JSONArray keys = new JSONArray();
+            for (Map.Entry<Integer, SecretKey> dataKey : dataKeys.entrySet()) {
+                byte[] iv = new byte[IV_LENGTH];
+                RANDOM.nextBytes(iv);
+                Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                cipher.init(Cipher.ENCRYPT_MODE, kek, new GCMParameterSpec(TAG_BITS, iv));
+                cipher.updateAAD(String.valueOf(dataKey.getKey()).getBytes(StandardCharsets.UTF_8));
+
+                JSONObject key = new JSONObject();
+                key.put("id", dataKey.getKey().intValue());
+                key.put("iv", RecordCipher.toHex(iv));
+                key.put("wrapped", RecordCipher.toHex(cipher.doFinal(dataKey.getValue().getEncoded())));
+                keys.put(key);
+            }
+
+            JSONObject keyData = new JSONObject();
+            keyData.put("version", 1);
+            keyData.put("kdf", KDF_ALGORITHM);
+            keyData.put("iterations", iterations);
+            keyData.put("salt", RecordCipher.toHex(salt));
+            keyData.put("currentKeyId", currentKeyId);
+            keyData.put("keys", keys);
+            if (reKeyPending) {
+                keyData.put("reKeyPending", true);
+            }
+            writeAtomically(keyData);
+        } catch (JSONException e) {
+            throw new IOException("Could not build " + KEY_FILE_NAME + ": " + e.getMessage());
+        }
+    }
+
+    private static SecretKey deriveKek(String pin, byte[] salt, int iterations) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(pin.toCharArray(), salt, iterations, KEY_BITS);
+        try {
+            byte[] kek = SecretKeyFactory.getInstance(KDF_ALGORITHM).generateSecret(spec).getEncoded();
+            return new SecretKeySpec(kek, "AES");
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static SecretKey generateDataKey() throws GeneralSecurityException {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(KEY_BITS, RANDOM);
+        return generator.generateKey();
+    }
+
+    private static byte[] hexField(JSONObject object, String name) throws IOException {
+        String hex = object.optString(name, null);
+        if (hex == null) {
+            throw new IOException(KEY_FILE_NAME + " is missing \"" + name + "\"");
+        }
+        return RecordCipher.fromHex(hex);
+    }
+
+    /**
+     * Reads the key file, or its backup if an update of it was cut off and left it unreadable.
+     */
+    private JSONObject readKeyFile() throws IOException {
+        try {
+            return parseKeyFile(keyFile);
+        } catch (IOException e) {
+            if (!backupFile.exists()) {
+                throw e;
+            }
+            return parseKeyFile(backupFile);
+        }
+    }
+
+    private static JSONObject parseKeyFile(File file) throws IOException {
+        try {
+            return new JSONObject(new String(readBytes(file), StandardCharsets.UTF_8));
+        } catch (JSONException e) {
+            throw new IOException(file.getName() + " is damaged: " + e.getMessage());
+        }
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < content.length) {
+                int n = in.read(content, read, content.length - read);
+                if (n == -1) {
+                    throw new IOException("Unexpected end of " + file.getName());
+                }
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        return content;
+    }
+
+    /**
+     * Writes the key file via a temporary file and rename (see DurableFiles), so an interrupted PIN
+     * change leaves either the old or the new key file, never a broken one. Every record depends on
+     * this file, so the previous version is also kept as a backup until the new one has been read
+     * back from disk.
+     */
+    private void writeAtomically(JSONObject keyData) throws IOException {
+        byte[] content;
+        try {
+            content = keyData.toString(2).getBytes(StandardCharsets.UTF_8);
+        } catch (JSONException e) {
+            throw new IOException("Could not serialize " + KEY_FILE_NAME + ": " + e.getMessage());
+        }
+        if (keyFile.exists()) {
+            File tempBackup = new File(backupFile.getPath() + ".tmp");
+            DurableFiles.write(tempBackup, readBytes(keyFile));
+            DurableFiles.replace(tempBackup, backupFile);
+        }
+        File tempFile = new File(keyFile.getPath() + ".tmp");
+        DurableFiles.write(tempFile, content);
+        DurableFiles.replace(tempFile, keyFile);
+        if (!Arrays.equals(content, readBytes(keyFile))) {
+            throw new IOException(KEY_FILE_NAME + " did not read back as written; " + backupFile.getName() + " is kept");
+        }
+        if (backupFile.exists() && !backupFile.delete()) {
+            throw new IOException("Could not delete " + backupFile.getName());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+// DiaryLock.java
+package com.example.madproject;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+/**
+ * The PIN side of the diary: setting up, checking and changing the PIN, and re-keying.
+ * Wraps DiaryKeyManager and hands the unlocked data keys to the shared DiaryStore.
+ *
+ * Every method here may be slow (key derivation, re-encryption), so callers on Android
+ * must run them off the main thread.
+ */
+public class DiaryLock {
+
+    private final DiaryKeyManager keyManager;
+    private final DiaryStore store;
+
+    /**
+     * @param filesDir The app's private files directory (Context.getFilesDir()).
+     */
+    public DiaryLock(File filesDir) {
+        this(new DiaryKeyManager(filesDir), DiaryStore.getInstance(filesDir));
+    }
+
+    public DiaryLock(DiaryKeyManager keyManager, DiaryStore store) {
+        this.keyManager = keyManager;
+        this.store = store;
+    }
+
+    /**
+     * Returns true if a PIN has been set up.
+     */
+    public boolean hasPin() {
+        return keyManager.hasPin();
+    }
+
+    /**
+     * Sets up the first PIN and unlocks the diary with the new data key.
+     * @param encryptExisting True if the diary holds plaintext entries from before encryption
+     *                        (e.g. the PIN is migrated from an older version); see reKey().
+     */
+    public void createPin(String pin, boolean encryptExisting) throws IOException, GeneralSecurityException {
+        synchronized (DiaryKeyManager.KEY_FILE_LOCK) {
+            store.setCipher(keyManager.createPin(pin, encryptExisting));
+        }
+    }
+
+    /**
+     * Checks the PIN and unlocks the diary.
+     * @return False if the PIN is wrong.
+     */
+    public boolean unlock(String pin) throws IOException, GeneralSecurityException {
+        // The store's cipher is swapped under the key file lock too, so it never goes back to
+        // keys older than the ones a concurrent PIN change just installed
+        synchronized (DiaryKeyManager.KEY_FILE_LOCK) {
+            RecordCipher cipher = keyManager.unlock(pin);
+            if (cipher == null) {
+                return false;
+            }
+            store.setCipher(cipher);
+            return true;
+        }
+    }
+
+    /**
+     * Changes the PIN. With reKey, a fresh data key also becomes current and the diary is unlocked with it;
+     * the records are only moved over to it by reKey().
+     * @return False if the current PIN is wrong.
+     */
+    public boolean changePin(String currentPin, String newPin, boolean reKey) throws IOException, GeneralSecurityException {
+        synchronized (DiaryKeyManager.KEY_FILE_LOCK) {
+            if (!keyManager.changePin(currentPin, newPin)) {
+                return false;
+            }
+            if (reKey) {
+                store.setCipher(keyManager.addDataKey(newPin));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns true if reKey() still has work to do (a re-key was started or interrupted).
+     */
+    public boolean isReKeyPending() throws IOException {
+        return keyManager.isReKeyPending();
+    }
+
+    /**
+     * Moves every record to the current data key. The diary must be unlocked.
+     * Safe to call again after an interruption; it continues where it stopped.
+     */
+    public ReKeyEngine.Result reKey() throws IOException, JSONException {
+        return new ReKeyEngine(store, keyManager).run(Runtime.getRuntime().availableProcessors());
+    }
+}
@@ -0,0 +1,17 @@
+// DiaryLockedException.java
+package com.example.madproject;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a record is encrypted under a data key that has not been unlocked.
+ * Unlike other read errors this does not mean the record is damaged.
+ */
+public class DiaryLockedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DiaryLockedException(String message) {
+        super(message);
+    }
+}
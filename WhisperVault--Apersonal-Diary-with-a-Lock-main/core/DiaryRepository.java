@@ -0,0 +1,373 @@
+// DiaryRepository.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Entry operations used by the screens: creating, updating and deleting entries and paging
+ * through the list. Keeps the entry headers, the entry bodies and the summary table consistent,
+ * so the activities only deal with views.
+ *
+ * Every change is stamped with a version ("modifiedAt", "modifiedBy") and recorded in the store's
+ * ChangeLog, so SyncEngine can send it to the user's other devices.
+ */
+public class DiaryRepository {
+
+    // Format of the "timestamp" shown on the detail screen
+    private static final String TIMESTAMP_PATTERN = "yyyy-MM-dd HH:mm";
+
+    private final DiaryStore store;
+
+    public DiaryRepository(DiaryStore store) {
+        this.store = store;
+    }
+
+    public DiaryStore getStore() {
+        return store;
+    }
+
+    /**
+     * Makes sure the summary table matches the entry headers, rebuilding it if it does not
+     * (first run after an upgrade, or a save interrupted by a crash).
+     * @return True if the table had to be rebuilt.
+     */
+    public boolean prepareList() throws IOException, JSONException {
+        EntrySummaryTable summaryTable = store.getSummaryTable();
+        if (summaryTable.isInSync()) {
+            return false;
+        }
+        summaryTable.rebuild(store.readEntries());
+        return true;
+    }
+
+    /**
+     * Writes the list's summary table, filter index and stats to disk if they have changes kept in memory.
+     * Call it from a background thread when the app goes to the background; a process that dies
+     * before the flush only costs a rebuild in prepareList().
+     */
+    public void flush() throws IOException {
+        store.lockForUpdate();
+        try {
+            store.getSummaryTable().flush();
+        } finally {
+            store.unlockForUpdate();
+        }
+    }
+
+    /**
+     * Returns the number of entries in the list.
+     */
+    public int countEntries() throws IOException {
+        return store.getSummaryTable().count();
+    }
+
+    /**
+     * Reads one page of the list, newest first.
+     */
+    public List<EntrySummary> readPage(int offset, int limit) throws IOException {
+        return store.getSummaryTable().readPage(offset, limit);
+    }
+
+    /**
+     * Returns the entries matching a list filter, e.g. "tag:travel AND mood:happy AND 2024".
+     * See EntryFilterIndex.query() for the terms. Call prepareList() first.
+     */
+    public EntryFilterIndex.Match filterEntries(String filter) throws IOException {
+        return store.getSummaryTable().getFilterIndex().query(filter);
+    }
+
+    /**
+     * Reads one page of the entries matching a filter, newest first.
+     */
+    public List<EntrySummary> readPage(int offset, int limit, EntryFilterIndex.Match filter) throws IOException {
+        return store.getSummaryTable().readPage(offset, limit, filter);
+    }
+
+    /**
+     * Returns the tags in use, with the number of entries that have each.
+     */
+    public Map<String, Integer> countTags() throws IOException {
+        return store.getSummaryTable().getFilterIndex().countLabels(EntryFilterIndex.TAG_PREFIX);
+    }
+
+    /**
+     * Returns the running totals for the insights screen. Call prepareList() first.
+     */
+    public DiaryStats getStats() {
+        return store.getSummaryTable().getStats();
+    }
+
+    /**
+     * Compares the stats with totals recomputed from the entry headers, and rebuilds them if they differ.
+     * Reads every header, so it is meant for a background thread. The comparison runs without holding
+     * off saves; only if it fails is it repeated under the update lock, since a save made meanwhile
+     * can also explain the difference.
+     * @return True if the stats were correct.
+     */
+    public boolean checkStats() throws IOException, JSONException {
+        if (getStats().verify(summarize(store.readEntries()))) {
+            return true;
+        }
+        store.lockForUpdate();
+        try {
+            List<EntrySummary> summaries = summarize(store.readEntries());
+            DiaryStats stats = getStats();
+            if (stats.verify(summaries)) {
+                return true;
+            }
+            stats.rebuild(summaries);
+            return false;
+        } finally {
+            store.unlockForUpdate();
+        }
+    }
+
+    private static List<EntrySummary> summarize(JSONArray entries) throws JSONException {
+        List<EntrySummary> summaries = new ArrayList<>(entries.length());
+        for (int i = 0; i < entries.length(); i++) {
+            summaries.add(EntrySummary.fromHeader(entries.getJSONObject(i)));
+        }
+        return summaries;
+    }
+
+    /**
+     * Returns the header of the entry with the given unique ID, or null if there is none.
+     */
+    public JSONObject findEntry(long uniqueId) throws IOException, JSONException {
+        return store.findEntry(uniqueId);
+    }
+
+    /**
+     * Creates a new entry dated now.
+     * @param imageUri URI of the attached image, or null.
+     * @param tags User-typed tags; normalized with DiaryStore.normalizeLabel().
+     * @param mood User-typed mood, or null.
+     * @return The header of the new entry.
+     */
+    public JSONObject createEntry(String text, String imageUri, List<String> tags, String mood) throws IOException, JSONException {
+        store.lockForUpdate();
+        try {
+            return createEntryLocked(text, imageUri, tags, mood);
+        } finally {
+            store.unlockForUpdate();
+        }
+    }
+
+    private JSONObject createEntryLocked(String text, String imageUri, List<String> tags, String mood) throws IOException, JSONException {
+        JSONArray entries = store.readEntries();
+        long now = System.currentTimeMillis();
+
+        // The creation time doubles as the unique ID; bump it if another entry was saved in the same millisecond
+        long uniqueId = now;
+        for (int i = 0; i < entries.length(); i++) {
+            uniqueId = Math.max(uniqueId, entries.getJSONObject(i).getLong(DiaryStore.KEY_UNIQUE_ID) + 1);
+        }
+
+        JSONObject newEntry = new JSONObject();
+        newEntry.put(DiaryStore.KEY_UNIQUE_ID, uniqueId);
+        newEntry.put(DiaryStore.KEY_TIMESTAMP, new SimpleDateFormat(TIMESTAMP_PATTERN, Locale.getDefault()).format(new Date(now)));
+        store.putText(newEntry, text); // Inline for short texts, chunk files for long ones
+        if (imageUri != null) {
+            newEntry.put(DiaryStore.KEY_IMAGE_URI, imageUri);
+        }
+        DiaryStore.putLabels(newEntry, tags, mood);
+        stampVersion(newEntry, now);
+
+        store.getChangeLog().append(uniqueId);
+        entries.put(newEntry);
+        store.writeEntries(entries);
+        store.getSummaryTable().put(EntrySummary.fromHeader(newEntry)); // Keep the list's summary table and filter index in sync
+        return newEntry;
+    }
+
+    /**
+     * Replaces the text, image, tags and mood of an entry.
+     * @param imageUri URI of the attached image, or null to remove it.
+     * @param tags User-typed tags, empty to remove them.
+     * @param mood User-typed mood, or null to remove it.
+     * @return The updated header, or null if there is no entry with that ID.
+     */
+    public JSONObject updateEntry(long uniqueId, String text, String imageUri, List<String> tags, String mood) throws IOException, JSONException {
+        store.lockForUpdate();
+        try {
+            return updateEntryLocked(uniqueId, text, imageUri, tags, mood);
+        } finally {
+            store.unlockForUpdate();
+        }
+    }
+
+    private JSONObject updateEntryLocked(long uniqueId, String text, String imageUri, List<String> tags, String mood) throws IOException, JSONException {
+        JSONArray entries = store.readEntries();
+        JSONObject updatedHeader = null;
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            if (entry.getLong(DiaryStore.KEY_UNIQUE_ID) == uniqueId) {
+                store.putText(entry, text); // Rewrites chunks and preview as needed
+                if (imageUri != null) {
+                    entry.put(DiaryStore.KEY_IMAGE_URI, imageUri);
+                } else {
+                    entry.remove(DiaryStore.KEY_IMAGE_URI);
+                }
+                DiaryStore.putLabels(entry, tags, mood);
+                stampVersion(entry, SyncEngine.modifiedAtOf(entry) + 1);
+                updatedHeader = entry;
+            }
+        }
+        if (updatedHeader == null) {
+            return null;
+        }
+        store.getChangeLog().append(uniqueId);
+        store.writeEntries(entries);
+        store.getSummaryTable().put(EntrySummary.fromHeader(updatedHeader));
+        return updatedHeader;
+    }
+
+    /**
+     * Deletes an entry together with its body.
+     * @return False if there is no entry with that ID.
+     */
+    public boolean deleteEntry(long uniqueId) throws IOException, JSONException {
+        store.lockForUpdate();
+        try {
+            return deleteEntryLocked(uniqueId);
+        } finally {
+            store.unlockForUpdate();
+        }
+    }
+
+    private boolean deleteEntryLocked(long uniqueId) throws IOException, JSONException {
+        JSONArray entries = store.readEntries();
+        JSONArray remainingEntries = new JSONArray();
+        JSONObject deletedEntry = null;
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            if (entry.getLong(DiaryStore.KEY_UNIQUE_ID) != uniqueId) {
+                remainingEntries.put(entry);
+            } else {
+                deletedEntry = entry;
+            }
+        }
+        if (deletedEntry == null) {
+            return false;
+        }
+
+        // The tombstone keeps older copies from other devices from bringing the entry back
+        ChangeLog changeLog = store.getChangeLog();
+        long deletedAt = Math.max(System.currentTimeMillis(), SyncEngine.modifiedAtOf(deletedEntry) + 1);
+        changeLog.updateTombstones(Collections.singletonList(
+                new ChangeLog.Tombstone(uniqueId, deletedAt, changeLog.getDeviceId())), Collections.<Long>emptyList());
+        changeLog.append(uniqueId);
+        store.writeEntries(remainingEntries); // Also removes the body chunks once the header is gone
+        store.getSummaryTable().remove(uniqueId);
+        return true;
+    }
+
+    /**
+     * Replaces all entries with the given ones (from a BackupEngine snapshot, each with its full
+     * text under "text"). Entries whose version matches the local one are kept as they are; the others
+     * are rewritten, and local entries missing from the list are deleted. Every rewritten, restored or
+     * deleted entry gets a new version, so sync sends the restored state to the other devices.
+     * @return The number of entries that were rewritten, restored or deleted.
+     */
+    int restoreEntries(List<JSONObject> restoredEntries) throws IOException, JSONException {
+        store.lockForUpdate();
+        try {
+            return restoreEntriesLocked(restoredEntries);
+        } finally {
+            store.unlockForUpdate();
+        }
+    }
+
+    private int restoreEntriesLocked(List<JSONObject> restoredEntries) throws IOException, JSONException {
+        JSONArray entries = store.readEntries();
+        Map<Long, JSONObject> localById = new HashMap<>();
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            localById.put(entry.getLong(DiaryStore.KEY_UNIQUE_ID), entry);
+        }
+
+        ChangeLog changeLog = store.getChangeLog();
+        JSONArray newEntries = new JSONArray();
+        List<Long> removedTombstones = new ArrayList<>();
+        int changed = 0;
+        for (JSONObject restored : restoredEntries) {
+            long uniqueId = restored.getLong(DiaryStore.KEY_UNIQUE_ID);
+            JSONObject local = localById.remove(uniqueId);
+            if (local != null && SyncEngine.modifiedAtOf(local) == SyncEngine.modifiedAtOf(restored)
+                    && SyncEngine.modifiedByOf(local).equals(SyncEngine.modifiedByOf(restored))) {
+                newEntries.put(local); // Unchanged since the snapshot
+                continue;
+            }
+
+            // The new version must beat the local one, or the tombstone if the entry was deleted since
+            long minimumAt = 0;
+            if (local != null) {
+                minimumAt = SyncEngine.modifiedAtOf(local) + 1;
+            } else {
+                ChangeLog.Tombstone tombstone = changeLog.getTombstone(uniqueId);
+                if (tombstone != null) {
+                    minimumAt = tombstone.getModifiedAt() + 1;
+                    removedTombstones.add(uniqueId);
+                }
+            }
+            String text = restored.optString(DiaryStore.KEY_TEXT);
+            restored.remove(DiaryStore.KEY_TEXT);
+            store.putText(restored, text);
+            stampVersion(restored, minimumAt);
+            changeLog.append(uniqueId);
+            newEntries.put(restored);
+            changed++;
+        }
+
+        // Whatever is left was created after the snapshot
+        List<ChangeLog.Tombstone> addedTombstones = new ArrayList<>();
+        for (JSONObject deleted : localById.values()) {
+            long uniqueId = deleted.getLong(DiaryStore.KEY_UNIQUE_ID);
+            long deletedAt = Math.max(System.currentTimeMillis(), SyncEngine.modifiedAtOf(deleted) + 1);
+            addedTombstones.add(new ChangeLog.Tombstone(uniqueId, deletedAt, changeLog.getDeviceId()));
+            changeLog.append(uniqueId);
+            changed++;
+        }
+
+        if (changed > 0) {
+            changeLog.updateTombstones(addedTombstones, removedTombstones);
+            store.writeEntries(newEntries); // Also removes the bodies of deleted and replaced entries
+            store.getSummaryTable().rebuild(newEntries); // Many entries may have changed at once
+        }
+        return changed;
+    }
+
+    /**
+     * Splits tags typed into a text field, separated by commas.
+     */
+    public static List<String> splitTags(String typed) {
+        List<String> tags = new ArrayList<>();
+        for (String tag : typed.split(",")) {
+            if (!tag.trim().isEmpty()) {
+                tags.add(tag.trim());
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * Sets the entry's sync version to now (or to minimumAt, if that is later), made on this device.
+     * The minimum keeps a local edit newer than a version received from a device whose clock is ahead.
+     */
+    private void stampVersion(JSONObject entry, long minimumAt) throws IOException, JSONException {
+        entry.put(DiaryStore.KEY_MODIFIED_AT, Math.max(System.currentTimeMillis(), minimumAt));
+        entry.put(DiaryStore.KEY_MODIFIED_BY, store.getChangeLog().getDeviceId());
+    }
+}
@@ -0,0 +1,494 @@
+// DiaryStats.java
+package com.example.madproject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Running totals for the insights screen: entries, words and entries with a photo per day, kept in
+ * int arrays indexed by day number, plus writing streaks and words per month computed from them.
+ * The screen never reads an entry, so it opens in the same time whatever the size of the diary.
+ *
+ * Every entry's contribution (its day, word count and whether it has a photo) is remembered, so
+ * EntrySummaryTable's put() and remove() can take it back out and add the new one in constant time.
+ * Its rebuild() recomputes everything from the summaries, and verify() checks the totals against them.
+ *
+ * The totals are stored in diary_stats.bin and the contributions in diary_stats_entries.bin, both
+ * SidecarFiles sealed with the diary's RecordCipher like the filter index. The insights screen only
+ * needs the totals, so the contributions, which grow with the number of entries, are only read by
+ * the first put(), remove() or verify().
+ */
+public class DiaryStats {
+
+    // File name for storing the totals
+    static final String STATS_FILE_NAME = "diary_stats.bin";
+
+    // File name for storing each entry's contribution
+    static final String CONTRIBUTIONS_FILE_NAME = "diary_stats_entries.bin";
+
+    private static final int MAGIC = 0x57564453; // "WVDS"
+    private static final int VERSION = 2; // 2: contributions moved to their own file
+    private static final int CONTRIBUTIONS_MAGIC = 0x57564445; // "WVDE"
+    private static final int CONTRIBUTIONS_VERSION = 1;
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int MIN_DAYS = 64; // Initial length of the day arrays
+
+    private final SidecarFile statsFile;
+    private final SidecarFile contributionsFile;
+    private volatile RecordCipher cipher = RecordCipher.NONE;
+
+    // Loaded on first use; null while not loaded
+    private int[] entriesByDay; // Index 0 is firstDay
+    private int[] wordsByDay;
+    private int[] photosByDay; // Entries with an image
+    private int firstDay;
+
+    private int entryCount;
+    private long wordCount;
+    private int photoCount;
+
+    // Loaded on the first change or check; null while not loaded
+    private Map<Long, Long> contributionById; // See pack()
+
+    /**
+     * @param filesDir The app's private files directory (Context.getFilesDir()).
+     */
+    public DiaryStats(File filesDir) {
+        this.statsFile = new SidecarFile(new File(filesDir, STATS_FILE_NAME), MAGIC, VERSION);
+        this.contributionsFile = new SidecarFile(new File(filesDir, CONTRIBUTIONS_FILE_NAME),
+                CONTRIBUTIONS_MAGIC, CONTRIBUTIONS_VERSION);
+    }
+
+    /**
+     * Sets the cipher used to seal and unseal the totals. Called by EntrySummaryTable.setCipher().
+     */
+    void setCipher(RecordCipher cipher) {
+        this.cipher = cipher;
+    }
+
+    /**
+     * Returns true if the totals exist and reflect the current entry headers.
+     */
+    public synchronized boolean isInSync() {
+        return statsFile.isInSync() && contributionsFile.isInSync();
+    }
+
+    /**
+     * Returns the day number of a time: days since 1970-01-01 in the device's time zone.
+     */
+    public static int dayOf(long epochTime) {
+        return (int) Math.floorDiv(epochTime + TimeZone.getDefault().getOffset(epochTime), DAY_MILLIS);
+    }
+
+    public synchronized int getEntryCount() throws IOException {
+        load();
+        return entryCount;
+    }
+
+    public synchronized long getWordCount() throws IOException {
+        load();
+        return wordCount;
+    }
+
+    /**
+     * Returns the number of entries with an image.
+     */
+    public synchronized int getPhotoEntryCount() throws IOException {
+        load();
+        return photoCount;
+    }
+
+    /**
+     * Returns the number of days in a row with at least one entry, up to today. A streak is not
+     * broken until a whole day passes without writing, so it also counts if the last entry was yesterday.
+     * @param today Day number of today, see dayOf().
+     */
+    public synchronized int getCurrentStreak(int today) throws IOException {
+        load();
+        int day = entriesOn(today) > 0 ? today : today - 1;
+        int streak = 0;
+        while (entriesOn(day) > 0) {
+            streak++;
+            day--;
+        }
+        return streak;
+    }
+
+    /**
+     * Returns the longest run of days in a row with at least one entry.
+     */
+    public synchronized int getLongestStreak() throws IOException {
+        load();
+        int longest = 0;
+        int streak = 0;
+        for (int count : entriesByDay) {
+            streak = count > 0 ? streak + 1 : 0;
+            longest = Math.max(longest, streak);
+        }
+        return longest;
+    }
+
+    /**
+     * Returns the number of entries written on each day from fromDay to toDay (both included),
+     * for the activity heatmap.
+     */
+    public synchronized int[] getEntriesByDay(int fromDay, int toDay) throws IOException {
+        load();
+        return range(entriesByDay, fromDay, toDay);
+    }
+
+    /**
+     * Returns the number of words written on each day from fromDay to toDay (both included).
+     */
+    public synchronized int[] getWordsByDay(int fromDay, int toDay) throws IOException {
+        load();
+        return range(wordsByDay, fromDay, toDay);
+    }
+
+    /**
+     * Returns the number of words written per month, keyed "yyyy-MM", for the months with entries.
+     */
+    public synchronized Map<String, Long> getWordsByMonth() throws IOException {
+        load();
+        Map<String, Long> words = new TreeMap<>();
+        // Day numbers already include the time zone offset, so read them back as UTC dates
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        String month = null;
+        int nextMonthDay = Integer.MIN_VALUE; // First day of the month after the current one
+        long sum = 0;
+        for (int i = 0; i < entriesByDay.length; i++) {
+            if (entriesByDay[i] == 0) {
+                continue;
+            }
+            int day = firstDay + i;
+            if (day >= nextMonthDay) {
+                // Only look up the calendar when a new month starts
+                if (month != null) {
+                    words.put(month, sum);
+                }
+                calendar.setTimeInMillis(day * DAY_MILLIS);
+                month = String.format(Locale.US, "%04d-%02d", calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1);
+                calendar.set(Calendar.DAY_OF_MONTH, 1);
+                calendar.add(Calendar.MONTH, 1);
+                nextMonthDay = (int) Math.floorDiv(calendar.getTimeInMillis(), DAY_MILLIS);
+                sum = 0;
+            }
+            sum += wordsByDay[i];
+        }
+        if (month != null) {
+            words.put(month, sum);
+        }
+        return words;
+    }
+
+    /**
+     * Replaces all totals with ones computed from the given summaries.
+     */
+    public synchronized void rebuild(List<EntrySummary> summaries) throws IOException {
+        resetLocked();
+        for (EntrySummary summary : summaries) {
+            addLocked(summary.getUniqueId(), pack(summary));
+        }
+        writeTotals();
+        writeContributions();
+    }
+
+    /**
+     * Checks the totals against ones computed from the given summaries.
+     * @return True if every total and every day matches.
+     */
+    public synchronized boolean verify(List<EntrySummary> summaries) throws IOException {
+        load();
+        loadContributions();
+        DiaryStats expected = new DiaryStats(statsFile.getFile().getParentFile());
+        expected.resetLocked();
+        for (EntrySummary summary : summaries) {
+            expected.addLocked(summary.getUniqueId(), pack(summary));
+        }
+        if (expected.entryCount != entryCount || expected.wordCount != wordCount || expected.photoCount != photoCount
+                || !expected.contributionById.equals(contributionById)) {
+            return false;
+        }
+        int from = Math.min(firstDay, expected.firstDay);
+        int to = Math.max(firstDay + entriesByDay.length, expected.firstDay + expected.entriesByDay.length);
+        for (int day = from; day < to; day++) {
+            int slot = day - firstDay;
+            int expectedSlot = day - expected.firstDay;
+            if (valueAt(entriesByDay, slot) != valueAt(expected.entriesByDay, expectedSlot)
+                    || valueAt(wordsByDay, slot) != valueAt(expected.wordsByDay, expectedSlot)
+                    || valueAt(photosByDay, slot) != valueAt(expected.photosByDay, expectedSlot)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Marks the totals as about to change. Called through EntrySummaryTable.markPending().
+     */
+    synchronized void markPending() throws IOException {
+        boolean totalsUpToDate = statsFile.markPending();
+        if (!contributionsFile.markPending() || !totalsUpToDate) {
+            dropLoaded();
+        }
+    }
+
+    /**
+     * Counts an entry, replacing what was counted for the same unique ID.
+     * Does nothing if the totals are stale; they will be rebuilt on the next load instead.
+     */
+    public void put(EntrySummary summary) throws IOException {
+        update(Collections.singletonList(summary), Collections.<Long>emptySet());
+    }
+
+    /**
+     * Takes an entry out of the totals.
+     * Does nothing if the totals are stale; they will be rebuilt on the next load instead.
+     */
+    public void remove(long uniqueId) throws IOException {
+        update(Collections.<EntrySummary>emptyList(), Collections.singleton(uniqueId));
+    }
+
+    /**
+     * Applies every change of one write of the entry headers, see EntrySummaryTable.update().
+     * Does nothing if the totals are stale; they will be rebuilt on the next load instead.
+     */
+    public synchronized void update(List<EntrySummary> summaries, Collection<Long> removedIds) throws IOException {
+        if (!beginChange()) {
+            return;
+        }
+        for (long uniqueId : removedIds) {
+            removeLocked(uniqueId);
+        }
+        for (EntrySummary summary : summaries) {
+            removeLocked(summary.getUniqueId());
+            addLocked(summary.getUniqueId(), pack(summary));
+        }
+        statsFile.changed();
+        contributionsFile.changed();
+    }
+
+    /**
+     * Writes the changes kept in memory to the file, which is clean again afterwards.
+     * Called through EntrySummaryTable.flush().
+     */
+    synchronized void flush() throws IOException {
+        if (statsFile.needsFlush()) {
+            writeTotals();
+        }
+        if (contributionsFile.needsFlush()) {
+            writeContributions();
+        }
+    }
+
+    /**
+     * Loads what put() and remove() change, or drops it if either file is stale.
+     * @return False if the change is to be skipped; the totals are then rebuilt on the next load.
+     */
+    private boolean beginChange() throws IOException {
+        if (!statsFile.beginChange() || !contributionsFile.beginChange()) {
+            dropLoaded(); // Whatever is in memory is out of date too
+            return false;
+        }
+        load();
+        loadContributions();
+        return true;
+    }
+
+    private void dropLoaded() {
+        entriesByDay = null;
+        contributionById = null;
+    }
+
+    /**
+     * Packs what an entry adds to the totals into one long: the day in the high 32 bits, then the
+     * word count, then whether it has an image in the lowest bit. The day is kept rather than
+     * recomputed on removal, so a change of time zone cannot take it off the wrong day.
+     */
+    private static long pack(EntrySummary summary) {
+        return ((long) dayOf(summary.getEpochTime()) << 32)
+                | ((long) summary.getWordCount() << 1)
+                | (summary.hasAttachment() ? 1 : 0);
+    }
+
+    private void addLocked(long uniqueId, long contribution) {
+        int slot = slotOf((int) (contribution >> 32));
+        int words = (int) ((contribution & 0xFFFFFFFFL) >>> 1);
+        int photo = (int) (contribution & 1);
+        entriesByDay[slot]++;
+        wordsByDay[slot] += words;
+        photosByDay[slot] += photo;
+        entryCount++;
+        wordCount += words;
+        photoCount += photo;
+        contributionById.put(uniqueId, contribution);
+    }
+
+    private void removeLocked(long uniqueId) {
+        Long contribution = contributionById.remove(uniqueId);
+        if (contribution == null) {
+            return;
+        }
+        int slot = (int) (contribution >> 32) - firstDay;
+        int words = (int) ((contribution & 0xFFFFFFFFL) >>> 1);
+        int photo = (int) (contribution & 1);
+        entriesByDay[slot]--;
+        wordsByDay[slot] -= words;
+        photosByDay[slot] -= photo;
+        entryCount--;
+        wordCount -= words;
+        photoCount -= photo;
+    }
+
+    private void resetLocked() {
+        entriesByDay = new int[0];
+        wordsByDay = new int[0];
+        photosByDay = new int[0];
+        firstDay = 0;
+        contributionById = new HashMap<>();
+        entryCount = 0;
+        wordCount = 0;
+        photoCount = 0;
+    }
+
+    /**
+     * Returns the array index of a day, growing the arrays at either end if the day is outside them.
+     * They grow at least by their own length, so adding days one at a time stays cheap.
+     */
+    private int slotOf(int day) {
+        int length = entriesByDay.length;
+        if (length == 0) {
+            firstDay = day;
+            growTo(0, MIN_DAYS);
+        } else if (day < firstDay) {
+            int shift = Math.max(firstDay - day, length);
+            growTo(shift, length + shift);
+            firstDay -= shift;
+        } else if (day - firstDay >= length) {
+            growTo(0, Math.max(day - firstDay + 1, length * 2));
+        }
+        return day - firstDay;
+    }
+
+    private void growTo(int shift, int length) {
+        entriesByDay = grown(entriesByDay, shift, length);
+        wordsByDay = grown(wordsByDay, shift, length);
+        photosByDay = grown(photosByDay, shift, length);
+    }
+
+    private static int[] grown(int[] counts, int shift, int length) {
+        int[] result = new int[length];
+        System.arraycopy(counts, 0, result, shift, counts.length);
+        return result;
+    }
+
+    private int entriesOn(int day) {
+        return valueAt(entriesByDay, day - firstDay);
+    }
+
+    private static int valueAt(int[] counts, int slot) {
+        return slot >= 0 && slot < counts.length ? counts[slot] : 0;
+    }
+
+    private int[] range(int[] counts, int fromDay, int toDay) {
+        int[] result = new int[Math.max(0, toDay - fromDay + 1)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = valueAt(counts, fromDay + i - firstDay);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the totals into memory on first use.
+     * @throws IOException if the file is missing or stale; prepareList() rebuilds it.
+     */
+    private void load() throws IOException {
+        if (entriesByDay != null) {
+            return;
+        }
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(cipher.decrypt(statsFile.readSealed())));
+        int loadedFirstDay = payload.readInt();
+        int length = payload.readInt();
+        int[] loadedEntries = new int[length];
+        int[] loadedWords = new int[length];
+        int[] loadedPhotos = new int[length];
+        for (int i = 0; i < length; i++) {
+            loadedEntries[i] = payload.readInt();
+            loadedWords[i] = payload.readInt();
+            loadedPhotos[i] = payload.readInt();
+        }
+
+        firstDay = loadedFirstDay;
+        wordsByDay = loadedWords;
+        photosByDay = loadedPhotos;
+        entryCount = payload.readInt();
+        wordCount = payload.readLong();
+        photoCount = payload.readInt();
+        entriesByDay = loadedEntries;
+    }
+
+    /**
+     * Reads the contributions into memory on first use.
+     */
+    private void loadContributions() throws IOException {
+        if (contributionById != null) {
+            return;
+        }
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(cipher.decrypt(contributionsFile.readSealed())));
+        int count = payload.readInt();
+        Map<Long, Long> loadedContributions = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            loadedContributions.put(payload.readLong(), payload.readLong());
+        }
+        contributionById = loadedContributions;
+    }
+
+    /**
+     * Seals the totals and replaces their file. The result is always clean.
+     */
+    private void writeTotals() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeInt(firstDay);
+        payload.writeInt(entriesByDay.length);
+        for (int i = 0; i < entriesByDay.length; i++) {
+            payload.writeInt(entriesByDay[i]);
+            payload.writeInt(wordsByDay[i]);
+            payload.writeInt(photosByDay[i]);
+        }
+        payload.writeInt(entryCount);
+        payload.writeLong(wordCount);
+        payload.writeInt(photoCount);
+        payload.flush();
+        statsFile.writeSealed(cipher.encrypt(bytes.toByteArray()));
+    }
+
+    /**
+     * Seals the contributions and replaces their file. The result is always clean.
+     */
+    private void writeContributions() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeInt(contributionById.size());
+        for (Map.Entry<Long, Long> entry : contributionById.entrySet()) {
+            payload.writeLong(entry.getKey());
+            payload.writeLong(entry.getValue());
+        }
+        payload.flush();
+        contributionsFile.writeSealed(cipher.encrypt(bytes.toByteArray()));
+    }
+}
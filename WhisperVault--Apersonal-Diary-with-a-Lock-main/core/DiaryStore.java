@@ -0,0 +1,1289 @@
+// DiaryStore.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Helper class that owns the on-disk layout of the diary.
+ * Entry headers (uniqueId, timestamp, preview, word count, imageUri) are kept in diary_entries.json.
+ * Short entry texts stay inline in the header, long ones are split into chunk files under entry_bodies/
+ * so that the list never has to read an entry body to render a row.
+ *
+ * Every header carries a CRC32 "checksum" over its own fields, and chunked bodies a "bodyChecksum".
+ * Records that fail to parse or verify are moved to diary_quarantine.json instead of failing the
+ * whole load. All file access goes through one lock, so IntegrityScanner can stay out of the way of
+ * reads and writes made by the activities.
+ *
+ * Once unlocked with a RecordCipher, every header is stored sealed: only "uniqueId" stays readable,
+ * all other fields are encrypted into "sealed". Body chunk files and the quarantine file are encrypted
+ * as a whole. Records written before encryption existed are still read as plaintext.
+ */
+public class DiaryStore {
+
+    // File name for storing diary entry headers (JSON format)
+    static final String DIARY_FILE_NAME = "diary_entries.json";
+
+    // File collecting damaged records that were removed from the diary
+    static final String QUARANTINE_FILE_NAME = "diary_quarantine.json";
+
+    // Directory holding the chunk files of long entry bodies
+    private static final String BODIES_DIR_NAME = "entry_bodies";
+
+    // Texts longer than this (in chars) are moved out of the header into chunk files
+    static final int INLINE_TEXT_LIMIT = 4 * 1024;
+
+    // Size of one body chunk in chars
+    static final int CHUNK_SIZE = 16 * 1024;
+
+    // Number of chars kept in the header as the list preview
+    static final int PREVIEW_LENGTH = 280;
+
+    // Longest tag or mood in chars. The sidecar files store labels with writeUTF(), which fails past
+    // 65535 bytes; this keeps labels far below that and short enough to show in a row.
+    static final int MAX_LABEL_LENGTH = 64;
+
+    // JSON keys of an entry header
+    static final String KEY_UNIQUE_ID = "uniqueId";
+    static final String KEY_TIMESTAMP = "timestamp";
+    static final String KEY_TEXT = "text";
+    static final String KEY_IMAGE_URI = "imageUri";
+    static final String KEY_PREVIEW = "preview";
+    static final String KEY_WORD_COUNT = "wordCount";
+    static final String KEY_TEXT_LENGTH = "textLength";
+    static final String KEY_CHUNK_COUNT = "chunkCount";
+    static final String KEY_CHECKSUM = "checksum";
+    static final String KEY_BODY_CHECKSUM = "bodyChecksum";
+    static final String KEY_SEALED = "sealed";
+    static final String KEY_MODIFIED_AT = "modifiedAt"; // Version of the entry for sync, see SyncEngine
+    static final String KEY_MODIFIED_BY = "modifiedBy"; // Device ID of the last change
+    static final String KEY_TAGS = "tags"; // Array of normalized labels, see normalizeLabel()
+    static final String KEY_MOOD = "mood"; // Single normalized label
+    static final String KEY_BODY_VERSION = "bodyVersion"; // Names the chunk files of the current body
+
+    // Headers sealed per fork-join task when the whole diary is re-encrypted
+    private static final int SEAL_BATCH_SIZE = 256;
+
+    /**
+     * Receives an entry body piece by piece while it is being read from disk.
+     */
+    public interface ChunkListener {
+        void onChunk(String chunk);
+    }
+
+    /**
+     * One header as it is stored in the diary file, together with its plain fields.
+     * A header whose fields are unchanged is written back in this form instead of being sealed again,
+     * unless it is plaintext or under a retired key.
+     */
+    private static class StoredHeader {
+        final JSONObject entry; // The plain header; never handed out, callers get copies
+        final String sealed; // The "sealed" field, null for a header stored as plaintext
+        final String json; // The stored form as written to the diary file, null if it must be sealed again
+
+        StoredHeader(JSONObject entry, String sealed, String json) {
+            this.entry = entry;
+            this.sealed = sealed;
+            this.json = json;
+        }
+    }
+
+    private static DiaryStore instance;
+
+    private final File diaryFile;
+    private final File bodiesDir;
+    private final File quarantineFile;
+    private final EntrySummaryTable summaryTable;
+    private final ChangeLog changeLog;
+
+    // Guards all file access. Background work only takes it when no foreground I/O happened recently.
+    private final ReentrantLock ioLock = new ReentrantLock();
+    private volatile long lastForegroundIoAt; // System.nanoTime() of the last lock taken by a foreground caller
+
+    // Stored form of every header last read or written, by uniqueId in file order. Only valid for
+    // storedHeadersCipher. While the diary file still has storedHeadersLength and storedHeadersModified,
+    // the map mirrors it completely and readEntries() does not read the file. Guarded by ioLock.
+    private Map<Long, StoredHeader> storedHeaders = new LinkedHashMap<>();
+    private RecordCipher storedHeadersCipher;
+    private long storedHeadersLength = -1;
+    private long storedHeadersModified;
+
+    // Repairs made while reading, waiting to be shown to the user
+    private IntegrityReport pendingRepairs;
+
+    // Data keys of the unlocked diary; NONE until MainActivity has verified the PIN
+    private volatile RecordCipher cipher = RecordCipher.NONE;
+
+    /**
+     * Returns the store shared by all activities, so they use the same I/O lock.
+     * @param filesDir The app's private files directory (Context.getFilesDir()).
+     */
+    public static synchronized DiaryStore getInstance(File filesDir) {
+        if (instance == null) {
+            instance = new DiaryStore(filesDir);
+        }
+        return instance;
+    }
+
+    /**
+     * @param filesDir The app's private files directory (Context.getFilesDir()).
+     */
+    public DiaryStore(File filesDir) {
+        this.diaryFile = new File(filesDir, DIARY_FILE_NAME);
+        this.bodiesDir = new File(filesDir, BODIES_DIR_NAME);
+        this.quarantineFile = new File(filesDir, QUARANTINE_FILE_NAME);
+        this.summaryTable = new EntrySummaryTable(filesDir);
+        this.changeLog = new ChangeLog(filesDir);
+    }
+
+    /**
+     * Hands the store the data keys unwrapped with the user's PIN.
+     */
+    public void setCipher(RecordCipher cipher) {
+        this.cipher = cipher;
+        summaryTable.setCipher(cipher);
+    }
+
+    RecordCipher getCipher() {
+        return cipher;
+    }
+
+    /**
+     * Returns true once the PIN has been verified in this process. Activities opened without it
+     * (e.g. after the process was killed in the background) must send the user back to MainActivity.
+     */
+    public boolean isUnlocked() {
+        return cipher.hasKeys();
+    }
+
+    /**
+     * Returns the summary table used by the list. Callers that write entries through
+     * writeEntries() must follow up with a put() or remove() on this table.
+     */
+    public EntrySummaryTable getSummaryTable() {
+        return summaryTable;
+    }
+
+    /**
+     * Returns the log of local changes that SyncEngine sends to other devices.
+     * Callers that change entries must append to it (DiaryRepository does).
+     */
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    /**
+     * Reads all entry headers from the diary file.
+     * If the file cannot be parsed as a whole, every record that still parses on its own is salvaged.
+     * Records that do not parse or whose checksum does not match are moved to quarantine, the diary
+     * file is rewritten without them, and the repair is reported through takeRepairReport().
+     * As long as the file is unchanged since this store last read or wrote it, the headers are taken
+     * from memory instead; damage done to the file after that is found by IntegrityScanner.
+     * @return JSONArray of entry headers, empty if the file does not exist or is empty.
+     * @throws IOException if the file cannot be read.
+     * @throws JSONException if the repaired file cannot be written.
+     */
+    public JSONArray readEntries() throws IOException, JSONException {
+        lockIo();
+        try {
+            if (storedHeadersCipher == cipher && storedHeadersLength == diaryFile.length()
+                    && storedHeadersModified == diaryFile.lastModified()) {
+                JSONArray entries = new JSONArray();
+                for (StoredHeader header : storedHeaders.values()) {
+                    entries.put(copyWithout(header.entry));
+                }
+                return entries;
+            }
+            return readVerifiedEntries();
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    /**
+     * Like readEntries(), but always reads and verifies the diary file.
+     */
+    JSONArray readVerifiedEntries() throws IOException, JSONException {
+        lockIo();
+        try {
+            if (!diaryFile.exists()) {
+                return new JSONArray();
+            }
+            String json = readFile(diaryFile);
+            if (json.trim().isEmpty()) {
+                return new JSONArray(); // Return empty array if file is empty
+            }
+
+            IntegrityReport report = new IntegrityReport();
+            JSONArray entries;
+            boolean salvaged = false;
+            try {
+                entries = new JSONArray(json);
+            } catch (JSONException e) {
+                entries = salvageEntries(json, report);
+                salvaged = true;
+            }
+
+            RecordCipher currentCipher = cipher;
+            Map<Long, StoredHeader> previousHeaders = storedHeadersCipher == currentCipher
+                    ? storedHeaders : Collections.<Long, StoredHeader>emptyMap();
+            Map<Long, StoredHeader> readHeaders = new LinkedHashMap<>();
+            JSONArray verifiedEntries = new JSONArray();
+            for (int i = 0; i < entries.length(); i++) {
+                JSONObject entry = entries.optJSONObject(i);
+                if (entry == null || !entry.has(KEY_UNIQUE_ID)) {
+                    quarantine(String.valueOf(entries.opt(i)), "Not an entry record", report);
+                } else if (!verifyHeader(entry)) {
+                    quarantine(entry.toString(), "Header checksum mismatch", report);
+                } else {
+                    try {
+                        verifiedEntries.put(unseal(entry, currentCipher, previousHeaders, readHeaders));
+                    } catch (DiaryLockedException e) {
+                        throw e; // Not damage, the key is simply not available
+                    } catch (IOException | JSONException e) {
+                        quarantine(entry.toString(), "Sealed fields unreadable", report);
+                    }
+                }
+            }
+            report.addChecked(entries.length());
+            if (salvaged) {
+                report.addSalvaged(verifiedEntries.length());
+            }
+
+            // Kept for the next write; only a complete copy of the file may stand in for reading it
+            storedHeaders = readHeaders;
+            storedHeadersCipher = currentCipher;
+            storedHeadersLength = -1;
+            if (readHeaders.size() == verifiedEntries.length() && !report.hasRepairs()) {
+                storedHeadersLength = diaryFile.length();
+                storedHeadersModified = diaryFile.lastModified();
+            }
+
+            if (report.hasRepairs()) {
+                // Persist the cleaned diary so the damage is only reported once
+                writeEntries(verifiedEntries);
+                summaryTable.rebuild(verifiedEntries);
+                addPendingRepairs(report);
+            }
+            return verifiedEntries;
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the repairs made since the last call, or null if nothing had to be repaired.
+     */
+    public synchronized IntegrityReport takeRepairReport() {
+        IntegrityReport report = pendingRepairs;
+        pendingRepairs = null;
+        return report;
+    }
+
+    private synchronized void addPendingRepairs(IntegrityReport report) {
+        if (pendingRepairs == null) {
+            pendingRepairs = new IntegrityReport();
+        }
+        pendingRepairs.merge(report);
+    }
+
+    /**
+     * Finds a single entry header by its unique ID.
+     * @return The entry header, or null if no entry has that ID.
+     */
+    public JSONObject findEntry(long uniqueId) throws IOException, JSONException {
+        JSONArray entries = readEntries(); // Takes the I/O lock itself
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            if (entry.getLong(KEY_UNIQUE_ID) == uniqueId) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes all entry headers to the diary file.
+     * The array is written to a temporary file first and then renamed, so a crash mid-write
+     * never leaves a half-written diary behind. The summary table is marked pending first.
+     * Headers whose fields did not change since they were last read or written keep their stored
+     * form; only new and changed ones are sealed again, with a fresh checksum. readEntries() has
+     * already dropped any header that did not verify, so this never blesses a damaged record.
+     * @param entries The JSONArray of entry headers to write.
+     * @throws IOException if the file cannot be written.
+     * @throws JSONException if the array cannot be serialized.
+     */
+    public void writeEntries(JSONArray entries) throws IOException, JSONException {
+        lockIo();
+        try {
+            RecordCipher currentCipher = cipher;
+            Map<Long, StoredHeader> previousHeaders = storedHeadersCipher == currentCipher
+                    ? storedHeaders : Collections.<Long, StoredHeader>emptyMap();
+            StoredHeader[] stored = new StoredHeader[entries.length()];
+            for (int i = 0; i < stored.length; i++) {
+                JSONObject entry = entries.getJSONObject(i);
+                StoredHeader previous = previousHeaders.get(entry.getLong(KEY_UNIQUE_ID));
+                stored[i] = previous != null && previous.json != null && sameFields(entry, previous.entry)
+                        ? previous : seal(entry, currentCipher);
+            }
+            writeStoredEntries(stored, currentCipher);
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    /**
+     * Re-seals every entry header under the current data key, sealing in parallel on the given pool.
+     * Used by ReKeyEngine. Holds the I/O lock for the whole rewrite so no save can slip in between.
+     * @return The number of bytes written.
+     */
+    long resealEntries(ForkJoinPool pool) throws IOException, JSONException {
+        lockIo();
+        try {
+            final RecordCipher currentCipher = cipher;
+            final JSONArray entries = readEntries();
+            final StoredHeader[] stored = new StoredHeader[entries.length()];
+            final IOException[] failure = new IOException[1];
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    sealRange(entries, stored, 0, stored.length, currentCipher, failure);
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            writeStoredEntries(stored, currentCipher);
+            summaryTable.rebuild(entries); // Summaries are sealed per record as well
+            return diaryFile.length();
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    /**
+     * Seals entries[from, to) into stored, splitting the range into fork-join subtasks.
+     */
+    private void sealRange(final JSONArray entries, final StoredHeader[] stored, final int from, final int to,
+                           final RecordCipher currentCipher, final IOException[] failure) {
+        if (to - from <= SEAL_BATCH_SIZE) {
+            try {
+                for (int i = from; i < to; i++) {
+                    stored[i] = seal(entries.getJSONObject(i), currentCipher);
+                }
+            } catch (IOException e) {
+                failure[0] = e;
+            } catch (JSONException e) {
+                failure[0] = new IOException("Could not seal entry: " + e.getMessage());
+            }
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        RecursiveAction.invokeAll(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                sealRange(entries, stored, from, middle, currentCipher, failure);
+            }
+        }, new RecursiveAction() {
+            @Override
+            protected void compute() {
+                sealRange(entries, stored, middle, to, currentCipher, failure);
+            }
+        });
+    }
+
+    /**
+     * Writes the stored headers to the diary file and keeps them for the next read and write.
+     * The file is compact JSON: it is rewritten on every save, so every byte counts.
+     */
+    private void writeStoredEntries(StoredHeader[] stored, RecordCipher sealedWith) throws IOException {
+        int length = 2;
+        for (StoredHeader header : stored) {
+            length += header.json.length() + 1;
+        }
+        StringBuilder json = new StringBuilder(length);
+        json.append('[');
+        for (int i = 0; i < stored.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(stored[i].json);
+        }
+        json.append(']');
+        summaryTable.markPending();
+        storedHeadersLength = -1; // The file may hold either version until the rename is done
+        File tempFile = new File(diaryFile.getPath() + ".tmp");
+        DurableFiles.write(tempFile, json.toString().getBytes(StandardCharsets.UTF_8));
+        DurableFiles.replace(tempFile, diaryFile);
+        Map<Long, StoredHeader> writtenHeaders = new LinkedHashMap<>();
+        for (StoredHeader header : stored) {
+            writtenHeaders.put(header.entry.optLong(KEY_UNIQUE_ID), header);
+        }
+        deleteReplacedChunks(storedHeaders, writtenHeaders);
+        storedHeaders = writtenHeaders;
+        storedHeadersCipher = sealedWith;
+        if (writtenHeaders.size() == stored.length) {
+            storedHeadersLength = diaryFile.length();
+            storedHeadersModified = diaryFile.lastModified();
+        }
+    }
+
+    /**
+     * Deletes the chunk files that the headers before a write pointed to and the headers after it no
+     * longer do: bodies replaced by putText() and bodies of removed entries. Only called once the new
+     * headers are in place, so a crash never leaves a header pointing to deleted chunks. Chunks missed
+     * here (e.g. of a body written by a save that failed) are removed by IntegrityScanner with findOrphanedChunks().
+     */
+    private void deleteReplacedChunks(Map<Long, StoredHeader> before, Map<Long, StoredHeader> after) {
+        for (Map.Entry<Long, StoredHeader> header : before.entrySet()) {
+            JSONObject previous = header.getValue().entry;
+            if (!isChunked(previous)) {
+                continue;
+            }
+            StoredHeader current = after.get(header.getKey());
+            if (current == null || !isChunked(current.entry)
+                    || current.entry.optLong(KEY_BODY_VERSION, 0) != previous.optLong(KEY_BODY_VERSION, 0)) {
+                deleteChunksFrom(header.getKey(), previous.optLong(KEY_BODY_VERSION, 0), 0);
+            }
+        }
+    }
+
+    /**
+     * Builds the stored form of a header: with keys, everything but "uniqueId" is encrypted into
+     * "sealed"; without keys the fields are copied as they are. The checksum covers the stored form,
+     * so damage can be detected without the key.
+     */
+    private static StoredHeader seal(JSONObject entry, RecordCipher currentCipher) throws IOException, JSONException {
+        JSONObject stored = new JSONObject();
+        String sealed = null;
+        stored.put(KEY_UNIQUE_ID, entry.getLong(KEY_UNIQUE_ID));
+        if (currentCipher.hasKeys()) {
+            JSONObject payload = copyWithout(entry, KEY_UNIQUE_ID, KEY_CHECKSUM);
+            sealed = RecordCipher.toHex(currentCipher.encrypt(payload.toString().getBytes(StandardCharsets.UTF_8)));
+            stored.put(KEY_SEALED, sealed);
+        } else {
+            stored = copyWithout(entry, KEY_CHECKSUM);
+        }
+        stored.put(KEY_CHECKSUM, checksumOf(stored));
+        return new StoredHeader(copyWithout(entry, KEY_CHECKSUM), sealed, stored.toString());
+    }
+
+    /**
+     * Turns a verified stored header back into a plain one, decrypting its sealed fields if it has any.
+     * A header sealed exactly as in previousHeaders is not decrypted again. Every header is added to
+     * readHeaders; those already in the form the next write would give them are kept as they are by it.
+     */
+    private static JSONObject unseal(JSONObject stored, RecordCipher currentCipher, Map<Long, StoredHeader> previousHeaders,
+                                     Map<Long, StoredHeader> readHeaders) throws IOException, JSONException {
+        long uniqueId = stored.getLong(KEY_UNIQUE_ID);
+        String json = stored.has(KEY_CHECKSUM) ? stored.toString() : null; // Headers without one get one on the next write
+        stored.remove(KEY_CHECKSUM);
+        if (!stored.has(KEY_SEALED)) {
+            // Written before encryption existed, or without keys. Reused only while there are no keys,
+            // otherwise the next write has to seal it.
+            readHeaders.put(uniqueId, new StoredHeader(copyWithout(stored), null, currentCipher.hasKeys() ? null : json));
+            return stored;
+        }
+        String sealedHex = stored.getString(KEY_SEALED);
+        StoredHeader previous = previousHeaders.get(uniqueId);
+        if (previous != null && sealedHex.equals(previous.sealed)) {
+            readHeaders.put(uniqueId, previous);
+            return copyWithout(previous.entry);
+        }
+        byte[] sealed = RecordCipher.fromHex(sealedHex);
+        JSONObject entry = new JSONObject(new String(currentCipher.decrypt(sealed), StandardCharsets.UTF_8));
+        entry.put(KEY_UNIQUE_ID, uniqueId);
+        readHeaders.put(uniqueId, new StoredHeader(copyWithout(entry), sealedHex,
+                currentCipher.needsReencryption(sealed) ? null : json));
+        return entry;
+    }
+
+    /**
+     * Returns true if two headers have the same fields with equal values. Headers handed out by
+     * readEntries() share their values with the kept ones, so unchanged fields compare cheaply.
+     */
+    private static boolean sameFields(JSONObject entry, JSONObject other) {
+        if (entry.length() != other.length()) {
+            return false;
+        }
+        Iterator<String> it = entry.keys();
+        while (it.hasNext()) {
+            String key = it.next();
+            Object value = entry.opt(key);
+            if (value == null || !value.equals(other.opt(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static JSONObject copyWithout(JSONObject source, String... excludedKeys) throws JSONException {
+        List<String> excluded = Arrays.asList(excludedKeys);
+        JSONObject copy = new JSONObject();
+        Iterator<String> it = source.keys();
+        while (it.hasNext()) {
+            String key = it.next();
+            if (!excluded.contains(key)) {
+                copy.put(key, source.opt(key));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Returns every file that holds a whole encrypted record: body chunks and the quarantine file.
+     * Entry headers and summaries are sealed per record inside their own files instead.
+     */
+    List<File> listRecordFiles() {
+        List<File> files = new ArrayList<>();
+        File[] chunkFiles = bodiesDir.listFiles();
+        if (chunkFiles != null) {
+            for (File chunkFile : chunkFiles) {
+                if (!chunkFile.getName().endsWith(".tmp")) { // Skip files being replaced right now
+                    files.add(chunkFile);
+                }
+            }
+        }
+        if (quarantineFile.exists()) {
+            files.add(quarantineFile);
+        }
+        return files;
+    }
+
+    /**
+     * Re-encrypts one record file under the current data key, unless it already is.
+     * The file is read and replaced under the I/O lock, but decrypted and encrypted outside of it,
+     * so ReKeyEngine can work on many files in parallel. If the file changed in the meantime
+     * (a save always writes under the current key) the result is thrown away and the file re-checked.
+     * @return The number of bytes re-encrypted, 0 if the file was already under the current key.
+     */
+    long reencryptFile(File file) throws IOException {
+        while (true) {
+            byte[] original;
+            lockIo();
+            try {
+                if (!file.exists()) {
+                    return 0;
+                }
+                original = readBytes(file);
+            } finally {
+                ioLock.unlock();
+            }
+
+            RecordCipher currentCipher = cipher;
+            if (!currentCipher.needsReencryption(original)) {
+                return 0;
+            }
+            byte[] reencrypted = currentCipher.encrypt(currentCipher.decrypt(original));
+
+            lockIo();
+            try {
+                if (file.exists() && Arrays.equals(original, readBytes(file))) {
+                    File tempFile = new File(file.getPath() + ".tmp");
+                    DurableFiles.write(tempFile, reencrypted);
+                    DurableFiles.replace(tempFile, file);
+                    return original.length;
+                }
+            } finally {
+                ioLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Stores the given text for an entry and updates its header accordingly.
+     * The header always receives the preview, word count and text length.
+     * Short texts are kept inline under "text", long texts are written to chunk files under a new
+     * "bodyVersion", next to the chunks the stored header still points to. Those are only deleted by
+     * writeEntries() once the new header has replaced it, so a crash in between loses nothing.
+     * Must be called after "uniqueId" has been put into the header.
+     * @param entry The entry header to update.
+     * @param text The full entry text.
+     */
+    public void putText(JSONObject entry, String text) throws IOException, JSONException {
+        long uniqueId = entry.getLong(KEY_UNIQUE_ID);
+        int chunkCount = 0;
+        lockIo();
+        try {
+            if (text.length() > INLINE_TEXT_LIMIT) {
+                long bodyVersion = System.currentTimeMillis();
+                while (getChunkFile(uniqueId, bodyVersion, 0).exists()) {
+                    bodyVersion++; // Never overwrite chunks a header may point to
+                }
+                chunkCount = writeChunks(uniqueId, bodyVersion, text);
+                entry.remove(KEY_TEXT);
+                entry.put(KEY_BODY_VERSION, bodyVersion);
+                entry.put(KEY_BODY_CHECKSUM, crcOf(text));
+            } else {
+                entry.put(KEY_TEXT, text);
+                entry.remove(KEY_BODY_VERSION);
+                entry.remove(KEY_BODY_CHECKSUM);
+            }
+        } finally {
+            ioLock.unlock();
+        }
+
+        entry.put(KEY_PREVIEW, makePreview(text));
+        entry.put(KEY_WORD_COUNT, countWords(text));
+        entry.put(KEY_TEXT_LENGTH, text.length());
+        entry.put(KEY_CHUNK_COUNT, chunkCount);
+    }
+
+    /**
+     * Reads an entry's text and hands it to the listener chunk by chunk, in order.
+     * Inline texts are delivered as a single chunk.
+     * @param entry The entry header.
+     * @param listener Receives the text pieces.
+     * @throws IOException if a chunk file is missing or cannot be read.
+     */
+    public void readText(JSONObject entry, ChunkListener listener) throws IOException, JSONException {
+        int chunkCount = entry.optInt(KEY_CHUNK_COUNT, 0);
+        if (chunkCount == 0) {
+            listener.onChunk(entry.optString(KEY_TEXT, ""));
+            return;
+        }
+        long uniqueId = entry.getLong(KEY_UNIQUE_ID);
+        long bodyVersion = entry.optLong(KEY_BODY_VERSION, 0);
+        for (int i = 0; i < chunkCount; i++) {
+            String chunk;
+            lockIo(); // Taken per chunk so saves are never blocked behind a whole body
+            try {
+                File chunkFile = getChunkFile(uniqueId, bodyVersion, i);
+                if (!chunkFile.exists()) {
+                    throw new IOException("Missing chunk " + i + " of entry " + uniqueId);
+                }
+                chunk = readRecord(chunkFile);
+            } finally {
+                ioLock.unlock();
+            }
+            listener.onChunk(chunk);
+        }
+    }
+
+    /**
+     * Reads an entry's complete text into memory.
+     * @param entry The entry header.
+     * @return The full entry text.
+     */
+    public String readFullText(JSONObject entry) throws IOException, JSONException {
+        final StringBuilder text = new StringBuilder(entry.optInt(KEY_TEXT_LENGTH, 0));
+        readText(entry, text::append);
+        return text.toString();
+    }
+
+    /**
+     * Reads an entry's complete text and checks it against the header's "bodyChecksum".
+     * @return The full entry text, or null if it does not match the header, e.g. because the entry
+     *         was saved again while it was being read.
+     */
+    String readVerifiedText(JSONObject entry) throws IOException, JSONException {
+        String text;
+        try {
+            text = readFullText(entry);
+        } catch (DiaryLockedException e) {
+            throw e;
+        } catch (IOException e) {
+            if (isChunked(entry) && !getChunkFile(entry.getLong(KEY_UNIQUE_ID), entry.optLong(KEY_BODY_VERSION, 0), 0).exists()) {
+                return null; // The body was replaced by a save after the header was read
+            }
+            throw e;
+        }
+        if (isChunked(entry) && entry.has(KEY_BODY_CHECKSUM) && crcOf(text) != entry.optLong(KEY_BODY_CHECKSUM, -1)) {
+            return null;
+        }
+        return text;
+    }
+
+    /**
+     * Checks a chunked body against the header's "bodyChecksum".
+     * Inline texts are covered by the header checksum and always pass here.
+     * @return False if a chunk is missing, unreadable or the checksum does not match.
+     * @throws DiaryLockedException if the body cannot be checked because its data key is not available.
+     */
+    public boolean verifyBody(JSONObject entry) throws DiaryLockedException {
+        if (!hasBodyChecksum(entry)) {
+            return true;
+        }
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < entry.optInt(KEY_CHUNK_COUNT, 0); i++) {
+            if (checksumChunk(entry, i, crc) < 0) {
+                return false;
+            }
+        }
+        return crc.getValue() == entry.optLong(KEY_BODY_CHECKSUM, -1);
+    }
+
+    /**
+     * Returns true if the entry has a chunked body with a "bodyChecksum" to verify it against.
+     */
+    static boolean hasBodyChecksum(JSONObject entry) {
+        return isChunked(entry) && entry.has(KEY_BODY_CHECKSUM);
+    }
+
+    /**
+     * Adds one chunk of a chunked body to a running checksum, so that IntegrityScanner can verify a
+     * long body a chunk at a time. After the last chunk the checksum is comparable to "bodyChecksum".
+     * @return The length of the chunk in chars, or -1 if it is missing or cannot be read.
+     * @throws DiaryLockedException if the chunk's data key is not available.
+     */
+    int checksumChunk(JSONObject entry, int index, CRC32 crc) throws DiaryLockedException {
+        String chunk;
+        lockIo();
+        try {
+            chunk = readRecord(getChunkFile(entry.optLong(KEY_UNIQUE_ID, 0), entry.optLong(KEY_BODY_VERSION, 0), index));
+        } catch (DiaryLockedException e) {
+            throw e;
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            ioLock.unlock();
+        }
+        byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+        crc.update(bytes, 0, bytes.length);
+        return chunk.length();
+    }
+
+    /**
+     * Moves the entries with the given IDs to quarantine if their body still fails to verify.
+     * Bodies are re-checked under the lock because the entry may have been edited since it was scanned.
+     * Chunk files are left in place so the text can still be recovered by hand.
+     * @return What was quarantined.
+     */
+    public IntegrityReport quarantineDamagedBodies(List<Long> uniqueIds) throws IOException, JSONException {
+        IntegrityReport report = new IntegrityReport();
+        lockIo();
+        try {
+            JSONArray entries = readEntries();
+            JSONArray remainingEntries = new JSONArray();
+            for (int i = 0; i < entries.length(); i++) {
+                JSONObject entry = entries.getJSONObject(i);
+                if (uniqueIds.contains(entry.getLong(KEY_UNIQUE_ID)) && !verifyBody(entry)) {
+                    quarantine(entry.toString(), "Body missing or checksum mismatch", report);
+                    storedHeaders.remove(entry.getLong(KEY_UNIQUE_ID)); // So writeEntries() keeps its chunks
+                } else {
+                    remainingEntries.put(entry);
+                }
+            }
+            if (report.hasRepairs()) {
+                writeEntries(remainingEntries);
+                summaryTable.rebuild(remainingEntries);
+            }
+        } finally {
+            ioLock.unlock();
+        }
+        return report;
+    }
+
+    /**
+     * Reads the diary file as stored, without verifying or unsealing anything and without taking the
+     * I/O lock. The file is only ever replaced by a rename, so this always sees one complete version.
+     * Used by IntegrityScanner, which then checks the records a slice at a time with verifyStoredEntry().
+     * @throws JSONException if the file does not parse as a whole; readVerifiedEntries() salvages it.
+     */
+    JSONArray readStoredEntries() throws IOException, JSONException {
+        String json;
+        try {
+            json = readFile(diaryFile);
+        } catch (FileNotFoundException e) {
+            return new JSONArray(); // No entries yet
+        }
+        return json.trim().isEmpty() ? new JSONArray() : new JSONArray(json);
+    }
+
+    /**
+     * Checks one record returned by readStoredEntries(): its checksum, and that its sealed fields decrypt.
+     * Changes nothing; damaged records are repaired by readVerifiedEntries().
+     * @return The plain header, or null if the record is damaged.
+     * @throws DiaryLockedException if the record is sealed under a data key that is not available.
+     */
+    JSONObject verifyStoredEntry(Object record) throws DiaryLockedException {
+        if (!(record instanceof JSONObject) || !((JSONObject) record).has(KEY_UNIQUE_ID)
+                || !verifyHeader((JSONObject) record)) {
+            return null;
+        }
+        try {
+            return unseal(copyWithout((JSONObject) record), cipher, Collections.<Long, StoredHeader>emptyMap(),
+                    new HashMap<Long, StoredHeader>());
+        } catch (DiaryLockedException e) {
+            throw e;
+        } catch (IOException | JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the files in the bodies directory that no header points to, such as the body of a save
+     * that failed or was cut off by a crash before its header was written, and temporary files left
+     * behind the same way. Chunks of quarantined entries are kept so their text can still be recovered
+     * by hand. The directory is listed before the headers are read, so a save that lands in between
+     * has its header read too. Pass the files to deleteOrphanedChunk() a few at a time.
+     */
+    List<File> findOrphanedChunks() throws IOException, JSONException {
+        List<File> orphans = new ArrayList<>();
+        File[] files = bodiesDir.listFiles();
+        if (files == null || files.length == 0) {
+            return orphans;
+        }
+        Set<String> referenced = new HashSet<>();
+        Set<String> quarantinedIds;
+        lockIo();
+        try {
+            JSONArray entries = readEntries();
+            for (int i = 0; i < entries.length(); i++) {
+                JSONObject entry = entries.getJSONObject(i);
+                long uniqueId = entry.getLong(KEY_UNIQUE_ID);
+                for (int chunk = 0; chunk < entry.optInt(KEY_CHUNK_COUNT, 0); chunk++) {
+                    referenced.add(getChunkFile(uniqueId, entry.optLong(KEY_BODY_VERSION, 0), chunk).getName());
+                }
+            }
+            quarantinedIds = readQuarantinedIds();
+        } finally {
+            ioLock.unlock();
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!referenced.contains(name) && !quarantinedIds.contains(name.substring(0, Math.max(0, name.indexOf('_'))))) {
+                orphans.add(file);
+            }
+        }
+        return orphans;
+    }
+
+    /**
+     * Deletes one file returned by findOrphanedChunks().
+     * @return False if it was gone already or could not be deleted.
+     */
+    boolean deleteOrphanedChunk(File file) {
+        lockIo();
+        try {
+            return file.delete();
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the unique IDs (as strings) of the quarantined records that still parse far enough to have one.
+     */
+    private Set<String> readQuarantinedIds() throws IOException {
+        Set<String> ids = new HashSet<>();
+        if (!quarantineFile.exists()) {
+            return ids;
+        }
+        try {
+            JSONArray quarantined = new JSONArray(readRecord(quarantineFile));
+            for (int i = 0; i < quarantined.length(); i++) {
+                JSONObject record = quarantined.optJSONObject(i);
+                try {
+                    ids.add(String.valueOf(new JSONObject(record.optString("raw")).getLong(KEY_UNIQUE_ID)));
+                } catch (JSONException | NullPointerException e) {
+                    // A fragment without an ID has no chunks to keep
+                }
+            }
+        } catch (JSONException e) {
+            throw new IOException("Could not read " + quarantineFile.getName() + ": " + e.getMessage());
+        }
+        return ids;
+    }
+
+    /**
+     * Takes the I/O lock for background work, but only if no foreground caller used the store
+     * within the last quietMillis and nobody holds the lock right now. Never blocks.
+     * Must be paired with unlockBackground().
+     */
+    boolean tryLockBackground(long quietMillis) {
+        if (System.nanoTime() - lastForegroundIoAt < quietMillis * 1_000_000L) {
+            return false;
+        }
+        return ioLock.tryLock();
+    }
+
+    void unlockBackground() {
+        ioLock.unlock();
+    }
+
+    /**
+     * Holds the I/O lock across a read-modify-write of the entry headers, so that no other
+     * save, delete or sync can slip in between. Must be paired with unlockForUpdate().
+     */
+    void lockForUpdate() {
+        lockIo();
+    }
+
+    void unlockForUpdate() {
+        ioLock.unlock();
+    }
+
+    /**
+     * Takes the I/O lock. Calls made outside a background section count as foreground I/O.
+     */
+    private void lockIo() {
+        if (!ioLock.isHeldByCurrentThread()) {
+            lastForegroundIoAt = System.nanoTime();
+        }
+        ioLock.lock();
+    }
+
+    /**
+     * Returns the list preview of an entry.
+     * Entries saved before previews existed fall back to their inline text.
+     */
+    public static String getPreview(JSONObject entry) {
+        if (entry.has(KEY_PREVIEW)) {
+            return entry.optString(KEY_PREVIEW, "");
+        }
+        return makePreview(entry.optString(KEY_TEXT, ""));
+    }
+
+    /**
+     * Returns the word count of an entry, computing it from the inline text for older entries.
+     */
+    public static int getWordCount(JSONObject entry) {
+        if (entry.has(KEY_WORD_COUNT)) {
+            return entry.optInt(KEY_WORD_COUNT, 0);
+        }
+        return countWords(entry.optString(KEY_TEXT, ""));
+    }
+
+    /**
+     * Returns true if the preview of an entry is shorter than its full text.
+     */
+    public static boolean isPreviewTruncated(JSONObject entry) {
+        int textLength = entry.has(KEY_TEXT_LENGTH)
+                ? entry.optInt(KEY_TEXT_LENGTH, 0)
+                : entry.optString(KEY_TEXT, "").length();
+        return textLength > getPreview(entry).length();
+    }
+
+    /**
+     * Returns the tags of an entry, empty for entries saved before tags existed. Tags longer than
+     * MAX_LABEL_LENGTH (from a header synced from an older version) are cut like normalizeLabel() does.
+     */
+    public static List<String> getTags(JSONObject entry) {
+        List<String> tags = new ArrayList<>();
+        JSONArray array = entry.optJSONArray(KEY_TAGS);
+        for (int i = 0; array != null && i < array.length(); i++) {
+            String tag = array.optString(i, null);
+            if (tag != null && !tag.isEmpty()) {
+                tag = limitLabel(tag);
+                if (!tags.contains(tag)) {
+                    tags.add(tag);
+                }
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * Sets the tags and mood of an entry, normalizing them with normalizeLabel().
+     * Duplicate and empty tags are dropped; an empty mood removes it.
+     */
+    public static void putLabels(JSONObject entry, List<String> tags, String mood) throws JSONException {
+        Set<String> normalizedTags = new LinkedHashSet<>();
+        for (String tag : tags) {
+            String normalized = normalizeLabel(tag);
+            if (!normalized.isEmpty()) {
+                normalizedTags.add(normalized);
+            }
+        }
+        if (normalizedTags.isEmpty()) {
+            entry.remove(KEY_TAGS);
+        } else {
+            JSONArray array = new JSONArray();
+            for (String tag : normalizedTags) {
+                array.put(tag);
+            }
+            entry.put(KEY_TAGS, array);
+        }
+        String normalizedMood = mood != null ? normalizeLabel(mood) : "";
+        if (normalizedMood.isEmpty()) {
+            entry.remove(KEY_MOOD);
+        } else {
+            entry.put(KEY_MOOD, normalizedMood);
+        }
+    }
+
+    /**
+     * Turns a user-typed tag or mood into its stored form: lower case, without a leading '#',
+     * with inner whitespace replaced by '-' so it can be used as one term of a list filter,
+     * and at most MAX_LABEL_LENGTH chars.
+     */
+    static String normalizeLabel(String label) {
+        String normalized = label.trim().toLowerCase(Locale.ROOT);
+        while (normalized.startsWith("#")) {
+            normalized = normalized.substring(1).trim();
+        }
+        return limitLabel(normalized.replaceAll("\\s+", "-"));
+    }
+
+    /**
+     * Cuts a label down to MAX_LABEL_LENGTH chars without splitting a surrogate pair.
+     */
+    static String limitLabel(String label) {
+        if (label.length() <= MAX_LABEL_LENGTH) {
+            return label;
+        }
+        return label.substring(0, safeSplitIndex(label, MAX_LABEL_LENGTH));
+    }
+
+    /**
+     * Returns true if the entry's text is stored in chunk files rather than inline.
+     */
+    public static boolean isChunked(JSONObject entry) {
+        return entry.optInt(KEY_CHUNK_COUNT, 0) > 0;
+    }
+
+    /**
+     * Cuts a text down to PREVIEW_LENGTH chars without splitting a surrogate pair.
+     */
+    static String makePreview(String text) {
+        if (text.length() <= PREVIEW_LENGTH) {
+            return text;
+        }
+        return text.substring(0, safeSplitIndex(text, PREVIEW_LENGTH));
+    }
+
+    /**
+     * Counts whitespace-separated words in a text.
+     */
+    static int countWords(CharSequence text) {
+        int words = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                inWord = false;
+            } else if (!inWord) {
+                inWord = true;
+                words++;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Splits a long text into CHUNK_SIZE pieces and writes each one to its own file.
+     * @return The number of chunks written.
+     */
+    private int writeChunks(long uniqueId, long bodyVersion, String text) throws IOException {
+        if (!bodiesDir.exists() && !bodiesDir.mkdirs()) {
+            throw new IOException("Could not create " + bodiesDir.getName());
+        }
+        int chunkCount = 0;
+        int start = 0;
+        while (start < text.length()) {
+            int end = safeSplitIndex(text, Math.min(start + CHUNK_SIZE, text.length()));
+            writeRecord(getChunkFile(uniqueId, bodyVersion, chunkCount), text.substring(start, end));
+            chunkCount++;
+            start = end;
+        }
+        return chunkCount;
+    }
+
+    /**
+     * Deletes the chunk files of one body of an entry starting at the given index.
+     */
+    private void deleteChunksFrom(long uniqueId, long bodyVersion, int firstIndex) {
+        for (int i = firstIndex; ; i++) {
+            File chunkFile = getChunkFile(uniqueId, bodyVersion, i);
+            if (!chunkFile.exists() || !chunkFile.delete()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the header's checksum matches its fields. Headers written before
+     * checksums existed have none and pass; they are sealed on the next write.
+     */
+    static boolean verifyHeader(JSONObject entry) {
+        return !entry.has(KEY_CHECKSUM) || entry.optLong(KEY_CHECKSUM, -1) == checksumOf(entry);
+    }
+
+    /**
+     * Computes the CRC32 of a header over all its fields except the checksum itself,
+     * in sorted key order so the result does not depend on JSON field order.
+     */
+    static long checksumOf(JSONObject entry) {
+        List<String> keys = new ArrayList<>();
+        Iterator<String> it = entry.keys();
+        while (it.hasNext()) {
+            String key = it.next();
+            if (!KEY_CHECKSUM.equals(key)) {
+                keys.add(key);
+            }
+        }
+        Collections.sort(keys);
+        StringBuilder canonical = new StringBuilder();
+        for (String key : keys) {
+            canonical.append(key).append('=').append(entry.opt(key)).append('\n');
+        }
+        return crcOf(canonical.toString());
+    }
+
+    private static long crcOf(String text) {
+        CRC32 crc = new CRC32();
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    /**
+     * Recovers the entry records of a diary file that no longer parses as a whole (for example
+     * after a truncated write). Top-level objects are cut out by matching braces outside of strings
+     * and parsed one by one; fragments that still do not parse go to quarantine.
+     */
+    private JSONArray salvageEntries(String json, IntegrityReport report) throws IOException {
+        JSONArray entries = new JSONArray();
+        int depth = 0;
+        int objectStart = -1;
+        boolean inString = false;
+        boolean escaped = false;
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{') {
+                if (depth == 0) {
+                    objectStart = i;
+                }
+                depth++;
+            } else if (c == '}' && depth > 0) {
+                depth--;
+                if (depth == 0) {
+                    String fragment = json.substring(objectStart, i + 1);
+                    try {
+                        entries.put(new JSONObject(fragment));
+                    } catch (JSONException e) {
+                        quarantine(fragment, "Unparseable record", report);
+                    }
+                    objectStart = -1;
+                }
+            }
+        }
+        if (objectStart >= 0) {
+            quarantine(json.substring(objectStart), "Truncated record", report);
+        }
+        return entries;
+    }
+
+    /**
+     * Appends a damaged record to the quarantine file and notes it in the report.
+     */
+    private void quarantine(String raw, String reason, IntegrityReport report) throws IOException {
+        JSONArray quarantined = new JSONArray();
+        try {
+            if (quarantineFile.exists()) {
+                try {
+                    quarantined = new JSONArray(readRecord(quarantineFile));
+                } catch (JSONException e) {
+                    // Keep the unreadable quarantine file aside rather than overwriting it
+                    File brokenFile = new File(quarantineFile.getPath() + "." + System.currentTimeMillis());
+                    if (!quarantineFile.renameTo(brokenFile)) {
+                        throw new IOException("Could not move aside " + quarantineFile.getName());
+                    }
+                }
+            }
+            JSONObject record = new JSONObject();
+            record.put("quarantinedAt", System.currentTimeMillis());
+            record.put("reason", reason);
+            record.put("raw", raw);
+            quarantined.put(record);
+            writeRecord(quarantineFile, quarantined.toString(4));
+        } catch (JSONException e) {
+            throw new IOException("Could not update " + quarantineFile.getName() + ": " + e.getMessage());
+        }
+        report.addQuarantined(reason + ": " + (raw.length() > 80 ? raw.substring(0, 80) + "..." : raw));
+    }
+
+    /**
+     * Returns the file of one chunk of a body. Bodies written before "bodyVersion" existed have version 0.
+     */
+    private File getChunkFile(long uniqueId, long bodyVersion, int index) {
+        if (bodyVersion == 0) {
+            return new File(bodiesDir, uniqueId + "_" + index + ".txt");
+        }
+        return new File(bodiesDir, uniqueId + "_" + bodyVersion + "_" + index + ".txt");
+    }
+
+    /**
+     * Moves a split index back by one if it would separate a surrogate pair.
+     */
+    private static int safeSplitIndex(String text, int index) {
+        if (index > 0 && index < text.length() && Character.isHighSurrogate(text.charAt(index - 1))) {
+            return index - 1;
+        }
+        return index;
+    }
+
+    /**
+     * Reads a whole-file record, decrypting it if it is encrypted.
+     */
+    private String readRecord(File file) throws IOException {
+        return new String(cipher.decrypt(readBytes(file)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a whole-file record, encrypted under the current data key if the diary is unlocked.
+     * Written to a temporary file and renamed (see DurableFiles), so a crash leaves either the old or the new record.
+     */
+    private void writeRecord(File file, String content) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        DurableFiles.write(tempFile, cipher.encrypt(content.getBytes(StandardCharsets.UTF_8)));
+        DurableFiles.replace(tempFile, file);
+    }
+
+    private static String readFile(File file) throws IOException {
+        return new String(readBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        byte[] content;
+        try {
+            content = new byte[(int) in.getChannel().size()]; // Size of the file opened, even if it is replaced meanwhile
+            int read = 0;
+            while (read < content.length) {
+                int n = in.read(content, read, content.length - read);
+                if (n == -1) {
+                    throw new IOException("Unexpected end of " + file.getName());
+                }
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        return content;
+    }
+}
@@ -0,0 +1,66 @@
+// DurableFiles.java
+package com.example.madproject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Temporary-file-and-rename writes that also survive a power loss. On ext4 and f2fs the rename can
+ * reach the disk before the data it points to, leaving an empty or truncated file under the real
+ * name; so the temporary file is forced to disk before the rename, and the directory after it.
+ *
+ * Used for the files that cannot be rebuilt from others: the key file, the diary file and the
+ * record files (body chunks and quarantine).
+ */
+final class DurableFiles {
+
+    private DurableFiles() {
+    }
+
+    /**
+     * Writes a file and forces its content to disk before returning.
+     */
+    static void write(File file, byte[] content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Renames a file written with write() over the target, then forces the directory entry to disk.
+     */
+    static void replace(File tempFile, File file) throws IOException {
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Could not replace " + file.getName());
+        }
+        syncDirectory(file.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Forces a directory's entries to disk where the platform allows opening a directory; elsewhere
+     * the rename is still atomic, only not yet durable when this returns.
+     */
+    static void syncDirectory(File directory) {
+        if (directory == null) {
+            return;
+        }
+        try {
+            FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException | RuntimeException | LinkageError e) {
+            // Directories cannot be opened here (or java.nio.file is missing on older API levels)
+        }
+    }
+}
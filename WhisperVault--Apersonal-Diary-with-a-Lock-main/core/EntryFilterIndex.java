@@ -0,0 +1,366 @@
+// EntryFilterIndex.java
+package com.example.madproject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Bitmap indexes over the entries' tags, moods and years, so the list can answer filters like
+ * "tag:travel AND mood:happy AND 2024" by intersecting RoaringBitmaps instead of reading entries.
+ *
+ * Every entry gets a small int ordinal, and every tag, mood and year a bitmap of the ordinals of its
+ * entries. Once loaded the index stays in memory. EntrySummaryTable's put() and remove() maintain it
+ * incrementally, touching only the bitmaps of the changed entry, and its rebuild() rebuilds it.
+ *
+ * The index is stored in diary_filter_index.bin, a SidecarFile like the summary table, sealed as one
+ * record with the diary's RecordCipher since tags and moods are as private as the entries themselves.
+ */
+public class EntryFilterIndex {
+
+    // File name for storing the index
+    static final String INDEX_FILE_NAME = "diary_filter_index.bin";
+
+    private static final int MAGIC = 0x57564649; // "WVFI"
+    private static final int VERSION = 1;
+
+    // Prefixes of the index keys, which are also the prefixes of the filter terms
+    static final String TAG_PREFIX = "tag:";
+    static final String MOOD_PREFIX = "mood:";
+    static final String YEAR_PREFIX = "year:";
+
+    private static final long FREE_ORDINAL = 0; // Never a unique ID
+
+    private static final Pattern TERM_SEPARATOR = Pattern.compile("\\s+");
+    private static final Pattern YEAR_TERM = Pattern.compile("\\d{4}");
+
+    /**
+     * The entries matching a filter. Reflects the index at the time of the query, including which
+     * entry each ordinal stood for then, so a later change cannot make it match a different entry.
+     */
+    public static class Match {
+        private final RoaringBitmap ordinals; // Null if the filter had no terms
+        private final Map<Long, Integer> ordinalById; // As at the time of the query, never changed
+
+        private Match(RoaringBitmap ordinals, Map<Long, Integer> ordinalById) {
+            this.ordinals = ordinals;
+            this.ordinalById = ordinalById;
+        }
+
+        /**
+         * Returns true if the filter has no terms, so every entry matches.
+         */
+        public boolean matchesAll() {
+            return ordinals == null;
+        }
+
+        public boolean contains(long uniqueId) {
+            if (ordinals == null) {
+                return true;
+            }
+            Integer ordinal = ordinalById.get(uniqueId);
+            return ordinal != null && ordinals.contains(ordinal);
+        }
+
+        /**
+         * Returns the number of matching entries, or -1 if every entry matches.
+         */
+        public int count() {
+            return ordinals != null ? ordinals.getCardinality() : -1;
+        }
+    }
+
+    private final SidecarFile indexFile;
+    private volatile RecordCipher cipher = RecordCipher.NONE;
+
+    // Loaded on first use; null while not loaded
+    private long[] uniqueIds; // By ordinal, FREE_ORDINAL where the entry was removed
+    private int ordinalCount;
+    private Map<Long, Integer> ordinalById;
+    private boolean ordinalByIdShared; // Handed to a Match, so it is copied before the next change
+    private Map<String, RoaringBitmap> bitmaps; // By index key, e.g. "tag:travel"
+    private List<Integer> freeOrdinals;
+
+    // Computes the year of an entry's time, in the device's time zone
+    private final Calendar calendar = Calendar.getInstance();
+
+    /**
+     * @param filesDir The app's private files directory (Context.getFilesDir()).
+     */
+    public EntryFilterIndex(File filesDir) {
+        this.indexFile = new SidecarFile(new File(filesDir, INDEX_FILE_NAME), MAGIC, VERSION);
+    }
+
+    /**
+     * Sets the cipher used to seal and unseal the index. Called by EntrySummaryTable.setCipher().
+     */
+    void setCipher(RecordCipher cipher) {
+        this.cipher = cipher;
+    }
+
+    /**
+     * Returns true if the index exists and reflects the current entry headers.
+     */
+    public synchronized boolean isInSync() {
+        return indexFile.isInSync();
+    }
+
+    /**
+     * Returns the entries matching all terms of a filter. Terms are separated by spaces and an
+     * optional "AND": "tag:travel", "#travel" or just "travel" for a tag, "mood:happy" for a mood,
+     * "2024" or "year:2024" for the year the entry was written.
+     */
+    public synchronized Match query(String filter) throws IOException {
+        load();
+        RoaringBitmap result = null;
+        for (String term : TERM_SEPARATOR.split(filter.trim())) {
+            if (term.isEmpty() || term.equalsIgnoreCase("AND")) {
+                continue;
+            }
+            RoaringBitmap bitmap = bitmaps.get(keyOfTerm(term));
+            if (bitmap == null) {
+                result = new RoaringBitmap(); // Nothing has this label
+                break;
+            }
+            result = result == null ? bitmap.copy() : RoaringBitmap.and(result, bitmap);
+        }
+        if (result == null) {
+            return new Match(null, null);
+        }
+        ordinalByIdShared = true;
+        return new Match(result, ordinalById);
+    }
+
+    /**
+     * Returns the labels in use with the given prefix (e.g. TAG_PREFIX) and how many entries have each.
+     */
+    public synchronized Map<String, Integer> countLabels(String prefix) throws IOException {
+        load();
+        Map<String, Integer> counts = new TreeMap<>();
+        for (Map.Entry<String, RoaringBitmap> entry : bitmaps.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                counts.put(entry.getKey().substring(prefix.length()), entry.getValue().getCardinality());
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Replaces the whole index with one built from the given summaries.
+     */
+    public synchronized void rebuild(List<EntrySummary> summaries) throws IOException {
+        uniqueIds = new long[Math.max(16, summaries.size())];
+        ordinalCount = 0;
+        ordinalById = new HashMap<>();
+        ordinalByIdShared = false;
+        bitmaps = new TreeMap<>();
+        freeOrdinals = new ArrayList<>();
+        for (EntrySummary summary : summaries) {
+            addLocked(summary);
+        }
+        writeAll();
+    }
+
+    /**
+     * Marks the index as about to change. Called through EntrySummaryTable.markPending().
+     */
+    synchronized void markPending() throws IOException {
+        if (!indexFile.markPending()) {
+            uniqueIds = null;
+        }
+    }
+
+    /**
+     * Indexes an entry, replacing what was indexed for the same unique ID.
+     * Does nothing if the index is stale; it will be rebuilt on the next load instead.
+     */
+    public void put(EntrySummary summary) throws IOException {
+        update(Collections.singletonList(summary), Collections.<Long>emptySet());
+    }
+
+    /**
+     * Removes an entry from the index.
+     * Does nothing if the index is stale; it will be rebuilt on the next load instead.
+     */
+    public void remove(long uniqueId) throws IOException {
+        update(Collections.<EntrySummary>emptyList(), Collections.singleton(uniqueId));
+    }
+
+    /**
+     * Applies every change of one write of the entry headers, see EntrySummaryTable.update().
+     * Does nothing if the index is stale; it will be rebuilt on the next load instead.
+     */
+    public synchronized void update(List<EntrySummary> summaries, Collection<Long> removedIds) throws IOException {
+        if (!indexFile.beginChange()) {
+            uniqueIds = null; // Whatever is in memory is out of date too
+            return;
+        }
+        load();
+        for (long uniqueId : removedIds) {
+            removeLocked(uniqueId);
+        }
+        for (EntrySummary summary : summaries) {
+            removeLocked(summary.getUniqueId());
+            addLocked(summary);
+        }
+        indexFile.changed();
+    }
+
+    /**
+     * Writes the changes kept in memory to the file, which is clean again afterwards.
+     * Called through EntrySummaryTable.flush().
+     */
+    synchronized void flush() throws IOException {
+        if (indexFile.needsFlush()) {
+            writeAll();
+        }
+    }
+
+    private void addLocked(EntrySummary summary) {
+        int ordinal;
+        if (!freeOrdinals.isEmpty()) {
+            ordinal = freeOrdinals.remove(freeOrdinals.size() - 1);
+        } else {
+            if (ordinalCount == uniqueIds.length) {
+                uniqueIds = Arrays.copyOf(uniqueIds, ordinalCount * 2);
+            }
+            ordinal = ordinalCount++;
+        }
+        uniqueIds[ordinal] = summary.getUniqueId();
+        ordinalsForUpdate().put(summary.getUniqueId(), ordinal);
+
+        for (String tag : summary.getTags()) {
+            bitmapFor(TAG_PREFIX + tag).add(ordinal);
+        }
+        if (summary.hasMood()) {
+            bitmapFor(MOOD_PREFIX + summary.getMood()).add(ordinal);
+        }
+        calendar.setTimeInMillis(summary.getEpochTime());
+        bitmapFor(YEAR_PREFIX + calendar.get(Calendar.YEAR)).add(ordinal);
+    }
+
+    /**
+     * Clears an entry's ordinal from every bitmap. The number of distinct labels is small,
+     * so this is cheaper than remembering which bitmaps each entry is in.
+     */
+    private void removeLocked(long uniqueId) {
+        if (!ordinalById.containsKey(uniqueId)) {
+            return;
+        }
+        int ordinal = ordinalsForUpdate().remove(uniqueId);
+        Iterator<RoaringBitmap> it = bitmaps.values().iterator();
+        while (it.hasNext()) {
+            RoaringBitmap bitmap = it.next();
+            bitmap.remove(ordinal);
+            if (bitmap.isEmpty()) {
+                it.remove(); // Label no longer used by any entry
+            }
+        }
+        uniqueIds[ordinal] = FREE_ORDINAL;
+        freeOrdinals.add(ordinal);
+    }
+
+    /**
+     * Returns ordinalById for changing, copying it first if a Match still refers to it.
+     */
+    private Map<Long, Integer> ordinalsForUpdate() {
+        if (ordinalByIdShared) {
+            ordinalById = new HashMap<>(ordinalById);
+            ordinalByIdShared = false;
+        }
+        return ordinalById;
+    }
+
+    private RoaringBitmap bitmapFor(String key) {
+        RoaringBitmap bitmap = bitmaps.get(key);
+        if (bitmap == null) {
+            bitmap = new RoaringBitmap();
+            bitmaps.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    private static String keyOfTerm(String term) {
+        String lower = term.toLowerCase(Locale.ROOT);
+        if (lower.startsWith(TAG_PREFIX)) {
+            return TAG_PREFIX + DiaryStore.normalizeLabel(term.substring(TAG_PREFIX.length()));
+        } else if (lower.startsWith(MOOD_PREFIX)) {
+            return MOOD_PREFIX + DiaryStore.normalizeLabel(term.substring(MOOD_PREFIX.length()));
+        } else if (lower.startsWith(YEAR_PREFIX)) {
+            return YEAR_PREFIX + term.substring(YEAR_PREFIX.length()).trim();
+        } else if (YEAR_TERM.matcher(lower).matches()) {
+            return YEAR_PREFIX + lower;
+        }
+        return TAG_PREFIX + DiaryStore.normalizeLabel(term);
+    }
+
+    /**
+     * Reads the index into memory on first use.
+     * @throws IOException if the file is missing or stale; prepareList() rebuilds it.
+     */
+    private void load() throws IOException {
+        if (uniqueIds != null) {
+            return;
+        }
+        byte[] sealed = indexFile.readSealed();
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(cipher.decrypt(sealed)));
+        int count = payload.readInt();
+        long[] loadedIds = new long[Math.max(16, count)];
+        Map<Long, Integer> loadedOrdinals = new HashMap<>();
+        List<Integer> loadedFree = new ArrayList<>();
+        for (int ordinal = 0; ordinal < count; ordinal++) {
+            loadedIds[ordinal] = payload.readLong();
+            if (loadedIds[ordinal] == FREE_ORDINAL) {
+                loadedFree.add(ordinal);
+            } else {
+                loadedOrdinals.put(loadedIds[ordinal], ordinal);
+            }
+        }
+        Map<String, RoaringBitmap> loadedBitmaps = new TreeMap<>();
+        int bitmapCount = payload.readInt();
+        for (int i = 0; i < bitmapCount; i++) {
+            loadedBitmaps.put(payload.readUTF(), RoaringBitmap.readFrom(payload));
+        }
+
+        ordinalCount = count;
+        ordinalById = loadedOrdinals;
+        ordinalByIdShared = false;
+        bitmaps = loadedBitmaps;
+        freeOrdinals = loadedFree;
+        uniqueIds = loadedIds;
+    }
+
+    /**
+     * Seals the index and replaces the file with it. The result is always clean.
+     */
+    private void writeAll() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeInt(ordinalCount);
+        for (int ordinal = 0; ordinal < ordinalCount; ordinal++) {
+            payload.writeLong(uniqueIds[ordinal]);
+        }
+        payload.writeInt(bitmaps.size());
+        for (Map.Entry<String, RoaringBitmap> entry : bitmaps.entrySet()) {
+            payload.writeUTF(entry.getKey());
+            entry.getValue().writeTo(payload);
+        }
+        payload.flush();
+        indexFile.writeSealed(cipher.encrypt(bytes.toByteArray()));
+    }
+}
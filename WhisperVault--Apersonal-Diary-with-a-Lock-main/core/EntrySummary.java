@@ -0,0 +1,95 @@
+// EntrySummary.java
+package com.example.madproject;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact, read-only view of a diary entry holding just what the list needs to draw a row.
+ */
+public class EntrySummary {
+
+    private final long uniqueId;
+    private final long epochTime; // Creation time in milliseconds since the epoch
+    private final String preview;
+    private final boolean previewTruncated;
+    private final int wordCount;
+    private final String thumbnailKey; // Image shown in the row (the entry's image URI), or null
+    private final List<String> tags; // Normalized, see DiaryStore.normalizeLabel()
+    private final String mood; // Normalized, or null
+
+    public EntrySummary(long uniqueId, long epochTime, String preview, boolean previewTruncated,
+                        int wordCount, String thumbnailKey, List<String> tags, String mood) {
+        this.uniqueId = uniqueId;
+        this.epochTime = epochTime;
+        this.preview = preview;
+        this.previewTruncated = previewTruncated;
+        this.wordCount = wordCount;
+        this.thumbnailKey = thumbnailKey;
+        this.tags = Collections.unmodifiableList(new ArrayList<>(tags));
+        this.mood = mood;
+    }
+
+    /**
+     * Builds a summary from an entry header.
+     * The unique ID doubles as the creation time, since it is taken from System.currentTimeMillis() on save.
+     */
+    public static EntrySummary fromHeader(JSONObject entry) throws JSONException {
+        long uniqueId = entry.getLong(DiaryStore.KEY_UNIQUE_ID);
+        String imageUri = entry.optString(DiaryStore.KEY_IMAGE_URI, null);
+        String mood = entry.optString(DiaryStore.KEY_MOOD, null);
+        return new EntrySummary(
+                uniqueId,
+                uniqueId,
+                DiaryStore.getPreview(entry),
+                DiaryStore.isPreviewTruncated(entry),
+                DiaryStore.getWordCount(entry),
+                imageUri != null && !imageUri.isEmpty() ? imageUri : null,
+                DiaryStore.getTags(entry),
+                mood != null && !mood.isEmpty() ? DiaryStore.limitLabel(mood) : null);
+    }
+
+    public long getUniqueId() {
+        return uniqueId;
+    }
+
+    public long getEpochTime() {
+        return epochTime;
+    }
+
+    public String getPreview() {
+        return preview;
+    }
+
+    public boolean isPreviewTruncated() {
+        return previewTruncated;
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    public boolean hasAttachment() {
+        return thumbnailKey != null;
+    }
+
+    public String getThumbnailKey() {
+        return thumbnailKey;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public boolean hasMood() {
+        return mood != null;
+    }
+
+    public String getMood() {
+        return mood;
+    }
+}
@@ -0,0 +1,422 @@
+// EntrySummaryTable.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Separately stored table of entry summaries, kept newest first in a compact binary file.
+ * The list reads only the first page of this file to draw its first screen, without
+ * parsing diary_entries.json or touching any entry body.
+ *
+ * The file's state byte and whole-file rewrites are handled by SidecarFile. Once a put() or remove()
+ * needs it, the table is kept in memory, still sealed, and only the changed record is sealed again.
+ * The file is rewritten by flush(), which the activities call when they go to the background.
+ *
+ * The unique ID and time of each record are stored in the clear so pages can be skipped without
+ * decrypting them; the preview, thumbnail key, tags and mood are sealed per record with the diary's
+ * RecordCipher.
+ *
+ * The table owns the EntryFilterIndex used to filter the list and the DiaryStats shown on the
+ * insights screen, and keeps them in step: put(), remove(), update(), rebuild() and markPending() are
+ * passed on.
+ */
+public class EntrySummaryTable {
+
+    // File name for storing the summary table
+    static final String SUMMARY_FILE_NAME = "diary_summaries.bin";
+
+    private static final int MAGIC = 0x57565354; // "WVST"
+    private static final int VERSION = 3; // 2: preview and thumbnail key sealed per record, 3: tags and mood
+
+    /**
+     * One record of the table as stored: the plaintext unique ID and time, and the sealed rest.
+     */
+    private static class StoredSummary {
+        final long uniqueId;
+        final long epochTime;
+        final byte[] sealed;
+
+        StoredSummary(long uniqueId, long epochTime, byte[] sealed) {
+            this.uniqueId = uniqueId;
+            this.epochTime = epochTime;
+            this.sealed = sealed;
+        }
+    }
+
+    // Newest first, ties broken by unique ID
+    private static final Comparator<StoredSummary> NEWEST_FIRST = (a, b) -> {
+        int byTime = Long.compare(b.epochTime, a.epochTime);
+        return byTime != 0 ? byTime : Long.compare(b.uniqueId, a.uniqueId);
+    };
+
+    private final SidecarFile summaryFile;
+    private final EntryFilterIndex filterIndex;
+    private final DiaryStats stats;
+    private volatile RecordCipher cipher = RecordCipher.NONE;
+
+    // The whole table, newest first, once a put() or remove() has loaded it; null before
+    private List<StoredSummary> records;
+
+    /**
+     * @param filesDir The app's private files directory (Context.getFilesDir()).
+     */
+    public EntrySummaryTable(File filesDir) {
+        this.summaryFile = new SidecarFile(new File(filesDir, SUMMARY_FILE_NAME), MAGIC, VERSION);
+        this.filterIndex = new EntryFilterIndex(filesDir);
+        this.stats = new DiaryStats(filesDir);
+    }
+
+    /**
+     * Sets the cipher used to seal and unseal summaries. Called by DiaryStore.setCipher().
+     */
+    void setCipher(RecordCipher cipher) {
+        this.cipher = cipher;
+        filterIndex.setCipher(cipher);
+        stats.setCipher(cipher);
+    }
+
+    /**
+     * Returns the tag, mood and year index kept in step with this table.
+     */
+    public EntryFilterIndex getFilterIndex() {
+        return filterIndex;
+    }
+
+    /**
+     * Returns the per-day totals kept in step with this table.
+     */
+    public DiaryStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Returns true if the table, its filter index and its stats exist and reflect the current entry headers.
+     */
+    public boolean isInSync() {
+        return isTableInSync() && filterIndex.isInSync() && stats.isInSync();
+    }
+
+    private synchronized boolean isTableInSync() {
+        return summaryFile.isInSync();
+    }
+
+    /**
+     * Returns the number of summaries in the table, or 0 if the table does not exist.
+     */
+    public synchronized int count() throws IOException {
+        if (records != null) {
+            return records.size();
+        }
+        if (!summaryFile.getFile().exists()) {
+            return 0;
+        }
+        DataInputStream in = summaryFile.openForReading();
+        try {
+            return in.readInt();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads one page of summaries, newest first.
+     * Only the records up to offset + limit are read; the rest of the file is never touched.
+     * @param offset Number of summaries to skip.
+     * @param limit Maximum number of summaries to return.
+     */
+    public synchronized List<EntrySummary> readPage(int offset, int limit) throws IOException {
+        List<EntrySummary> page = new ArrayList<>();
+        if (records != null) {
+            int end = Math.min(records.size(), offset + limit);
+            for (int i = Math.max(0, offset); i < end; i++) {
+                page.add(unsealSummary(records.get(i)));
+            }
+            return page;
+        }
+        if (!summaryFile.getFile().exists()) {
+            return page;
+        }
+        DataInputStream in = summaryFile.openForReading();
+        try {
+            int count = in.readInt();
+            int end = Math.min(count, offset + limit);
+            for (int i = 0; i < end; i++) {
+                if (i < offset) {
+                    skipSummary(in); // Skipped records are never decrypted
+                } else {
+                    page.add(readSummary(in));
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return page;
+    }
+
+    /**
+     * Reads one page of the summaries matching a filter, newest first.
+     * Records that do not match are skipped by their plaintext unique ID without being decrypted.
+     * @param offset Number of matching summaries to skip.
+     * @param limit Maximum number of summaries to return.
+     */
+    public synchronized List<EntrySummary> readPage(int offset, int limit, EntryFilterIndex.Match filter) throws IOException {
+        if (filter.matchesAll()) {
+            return readPage(offset, limit);
+        }
+        List<EntrySummary> page = new ArrayList<>();
+        if (filter.count() <= offset) {
+            return page;
+        }
+        if (records != null) {
+            int matched = 0;
+            for (int i = 0; i < records.size() && page.size() < limit; i++) {
+                StoredSummary record = records.get(i);
+                if (filter.contains(record.uniqueId) && matched++ >= offset) {
+                    page.add(unsealSummary(record));
+                }
+            }
+            return page;
+        }
+        if (!summaryFile.getFile().exists()) {
+            return page;
+        }
+        DataInputStream in = summaryFile.openForReading();
+        try {
+            int count = in.readInt();
+            int matched = 0;
+            for (int i = 0; i < count && page.size() < limit; i++) {
+                long uniqueId = in.readLong();
+                if (!filter.contains(uniqueId) || matched++ < offset) {
+                    skipSummaryAfterId(in);
+                } else {
+                    page.add(readSummaryAfterId(in, uniqueId));
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return page;
+    }
+
+    /**
+     * Replaces the whole table with summaries built from the given entry headers.
+     * Used on first run after an upgrade and whenever the table is found out of sync.
+     */
+    public void rebuild(JSONArray entries) throws IOException, JSONException {
+        List<EntrySummary> summaries = new ArrayList<>(entries.length());
+        for (int i = 0; i < entries.length(); i++) {
+            summaries.add(EntrySummary.fromHeader(entries.getJSONObject(i)));
+        }
+        synchronized (this) {
+            List<StoredSummary> rebuilt = new ArrayList<>(summaries.size());
+            for (EntrySummary summary : summaries) {
+                rebuilt.add(sealSummary(summary));
+            }
+            Collections.sort(rebuilt, NEWEST_FIRST);
+            writeAll(rebuilt);
+            records = rebuilt;
+        }
+        filterIndex.rebuild(summaries);
+        stats.rebuild(summaries);
+    }
+
+    /**
+     * Marks the table as about to change. Called by DiaryStore before it rewrites the entry headers.
+     */
+    void markPending() throws IOException {
+        synchronized (this) {
+            if (!summaryFile.markPending()) {
+                records = null;
+            }
+        }
+        filterIndex.markPending();
+        stats.markPending();
+    }
+
+    /**
+     * Inserts a summary, or replaces the one with the same unique ID.
+     * Does nothing if the table is stale; it will be rebuilt on the next load instead.
+     */
+    public void put(EntrySummary summary) throws IOException {
+        update(Collections.singletonList(summary), Collections.<Long>emptySet());
+    }
+
+    /**
+     * Removes the summary with the given unique ID.
+     * Does nothing if the table is stale; it will be rebuilt on the next load instead.
+     */
+    public void remove(long uniqueId) throws IOException {
+        update(Collections.<EntrySummary>emptyList(), Collections.singleton(uniqueId));
+    }
+
+    /**
+     * Applies every change of one write of the entry headers that changed several entries: inserts
+     * or replaces the given summaries and removes the given unique IDs. Only the changed records are
+     * sealed, and the table is walked once however many there are.
+     * Does nothing if the table is stale; it will be rebuilt on the next load instead.
+     */
+    public void update(List<EntrySummary> summaries, Collection<Long> removedIds) throws IOException {
+        filterIndex.update(summaries, removedIds);
+        stats.update(summaries, removedIds);
+        synchronized (this) {
+            if (!summaryFile.beginChange()) {
+                return;
+            }
+            List<StoredSummary> table = load();
+            Set<Long> replacedIds = new HashSet<>(removedIds);
+            for (EntrySummary summary : summaries) {
+                replacedIds.add(summary.getUniqueId());
+            }
+            removeByIds(table, replacedIds);
+            for (EntrySummary summary : summaries) {
+                StoredSummary record = sealSummary(summary);
+                int index = Collections.binarySearch(table, record, NEWEST_FIRST);
+                table.add(index < 0 ? -index - 1 : index, record);
+            }
+            summaryFile.changed();
+        }
+    }
+
+    /**
+     * Writes the changes kept in memory to the file, and those of the filter index and the stats;
+     * all are clean again afterwards. Called with the store's I/O lock held (see
+     * DiaryRepository.flush()), so no change is half done.
+     */
+    public void flush() throws IOException {
+        synchronized (this) {
+            if (summaryFile.needsFlush()) {
+                writeAll(records);
+            }
+        }
+        filterIndex.flush();
+        stats.flush();
+    }
+
+    /**
+     * Returns the table in memory, reading it (without decrypting anything) on first use.
+     */
+    private List<StoredSummary> load() throws IOException {
+        if (records != null) {
+            return records;
+        }
+        List<StoredSummary> loaded = new ArrayList<>();
+        if (summaryFile.getFile().exists()) {
+            DataInputStream in = summaryFile.openForReading();
+            try {
+                for (int i = in.readInt(); i > 0; i--) {
+                    long uniqueId = in.readLong();
+                    long epochTime = in.readLong();
+                    byte[] sealed = new byte[in.readInt()];
+                    in.readFully(sealed);
+                    loaded.add(new StoredSummary(uniqueId, epochTime, sealed));
+                }
+            } finally {
+                in.close();
+            }
+        }
+        records = loaded;
+        return records;
+    }
+
+    private static void removeByIds(List<StoredSummary> records, Set<Long> uniqueIds) {
+        Iterator<StoredSummary> it = records.iterator();
+        while (it.hasNext()) {
+            if (uniqueIds.contains(it.next().uniqueId)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Replaces the file with the given records. The result is always clean.
+     */
+    private void writeAll(List<StoredSummary> summaries) throws IOException {
+        summaryFile.writeAll(out -> {
+            out.writeInt(summaries.size());
+            for (StoredSummary summary : summaries) {
+                out.writeLong(summary.uniqueId);
+                out.writeLong(summary.epochTime);
+                out.writeInt(summary.sealed.length);
+                out.write(summary.sealed);
+            }
+        });
+    }
+
+    private EntrySummary readSummary(DataInputStream in) throws IOException {
+        return readSummaryAfterId(in, in.readLong());
+    }
+
+    private EntrySummary readSummaryAfterId(DataInputStream in, long uniqueId) throws IOException {
+        long epochTime = in.readLong();
+        byte[] sealed = new byte[in.readInt()];
+        in.readFully(sealed);
+        return unsealSummary(new StoredSummary(uniqueId, epochTime, sealed));
+    }
+
+    private EntrySummary unsealSummary(StoredSummary record) throws IOException {
+        long uniqueId = record.uniqueId;
+        long epochTime = record.epochTime;
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(cipher.decrypt(record.sealed)));
+        String preview = payload.readUTF();
+        boolean previewTruncated = payload.readBoolean();
+        int wordCount = payload.readInt();
+        String thumbnailKey = payload.readBoolean() ? payload.readUTF() : null;
+        List<String> tags = new ArrayList<>();
+        for (int i = payload.readInt(); i > 0; i--) {
+            tags.add(payload.readUTF());
+        }
+        String mood = payload.readBoolean() ? payload.readUTF() : null;
+        return new EntrySummary(uniqueId, epochTime, preview, previewTruncated, wordCount, thumbnailKey, tags, mood);
+    }
+
+    private static void skipSummary(DataInputStream in) throws IOException {
+        in.readLong(); // Unique ID
+        skipSummaryAfterId(in);
+    }
+
+    private static void skipSummaryAfterId(DataInputStream in) throws IOException {
+        in.readLong(); // Epoch time
+        int sealedLength = in.readInt();
+        if (in.skipBytes(sealedLength) != sealedLength) {
+            throw new IOException("Summary table is truncated");
+        }
+    }
+
+    private StoredSummary sealSummary(EntrySummary summary) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeUTF(summary.getPreview());
+        payload.writeBoolean(summary.isPreviewTruncated());
+        payload.writeInt(summary.getWordCount());
+        payload.writeBoolean(summary.hasAttachment());
+        if (summary.hasAttachment()) {
+            payload.writeUTF(summary.getThumbnailKey());
+        }
+        payload.writeInt(summary.getTags().size());
+        for (String tag : summary.getTags()) {
+            payload.writeUTF(tag);
+        }
+        payload.writeBoolean(summary.hasMood());
+        if (summary.hasMood()) {
+            payload.writeUTF(summary.getMood());
+        }
+        payload.flush();
+        return new StoredSummary(summary.getUniqueId(), summary.getEpochTime(), cipher.encrypt(bytes.toByteArray()));
+    }
+}
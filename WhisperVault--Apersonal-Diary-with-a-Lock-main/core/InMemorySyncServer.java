@@ -0,0 +1,96 @@
+// InMemorySyncServer.java
+package com.example.madproject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-process stand-in for the sync server, for benchmarks and for trying sync between two
+ * stores on one machine. Optionally waits a fixed time per call to imitate network latency.
+ */
+public class InMemorySyncServer implements SyncTransport {
+
+    private static class StoredFrame {
+        final String deviceId;
+        final byte[] frame;
+
+        StoredFrame(String deviceId, byte[] frame) {
+            this.deviceId = deviceId;
+            this.frame = frame;
+        }
+    }
+
+    private final List<StoredFrame> frames = new ArrayList<>(); // Server position = index + 1
+    private final long latencyMillis;
+    private long bytesStored;
+    private byte[] pairingSalt;
+
+    public InMemorySyncServer() {
+        this(0);
+    }
+
+    /**
+     * @param latencyMillis Time every push and pull waits before it is answered.
+     */
+    public InMemorySyncServer(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    public byte[] pairingSalt(byte[] proposedSalt) throws IOException {
+        simulateLatency();
+        synchronized (this) {
+            if (pairingSalt == null) {
+                pairingSalt = proposedSalt.clone();
+            }
+            return pairingSalt.clone();
+        }
+    }
+
+    @Override
+    public void push(String deviceId, List<byte[]> pushedFrames) throws IOException {
+        simulateLatency();
+        synchronized (this) {
+            for (byte[] frame : pushedFrames) {
+                frames.add(new StoredFrame(deviceId, frame.clone()));
+                bytesStored += frame.length;
+            }
+        }
+    }
+
+    @Override
+    public Pull pull(String deviceId, long cursor, int maxFrames) throws IOException {
+        simulateLatency();
+        synchronized (this) {
+            List<byte[]> result = new ArrayList<>();
+            int position = (int) Math.min(cursor, frames.size());
+            while (position < frames.size() && result.size() < maxFrames) {
+                StoredFrame stored = frames.get(position++);
+                if (!stored.deviceId.equals(deviceId)) { // A device never gets its own frames back
+                    result.add(stored.frame.clone());
+                }
+            }
+            return new Pull(result, position, position < frames.size());
+        }
+    }
+
+    /**
+     * Returns the total size of all frames the server holds.
+     */
+    public synchronized long getBytesStored() {
+        return bytesStored;
+    }
+
+    private void simulateLatency() throws IOException {
+        if (latencyMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the server");
+        }
+    }
+}
@@ -0,0 +1,75 @@
+// IntegrityReport.java
+package com.example.madproject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of checking the diary for damaged records, either while loading or during a background scan.
+ */
+public class IntegrityReport {
+
+    private int recordsChecked; // Records whose header (and body, during a scan) was verified
+    private int recordsSalvaged; // Records recovered from a diary file that could not be parsed as a whole
+    private final List<String> quarantined = new ArrayList<>(); // One line per record moved to quarantine
+
+    void addChecked(int count) {
+        recordsChecked += count;
+    }
+
+    void addSalvaged(int count) {
+        recordsSalvaged += count;
+    }
+
+    void addQuarantined(String description) {
+        quarantined.add(description);
+    }
+
+    /**
+     * Adds the counts and quarantine lines of another report to this one.
+     */
+    void merge(IntegrityReport other) {
+        recordsChecked += other.recordsChecked;
+        recordsSalvaged += other.recordsSalvaged;
+        quarantined.addAll(other.quarantined);
+    }
+
+    public int getRecordsChecked() {
+        return recordsChecked;
+    }
+
+    public int getRecordsSalvaged() {
+        return recordsSalvaged;
+    }
+
+    public int getQuarantinedCount() {
+        return quarantined.size();
+    }
+
+    public List<String> getQuarantined() {
+        return quarantined;
+    }
+
+    /**
+     * Returns true if anything was salvaged or quarantined, i.e. the user should be told.
+     */
+    public boolean hasRepairs() {
+        return recordsSalvaged > 0 || !quarantined.isEmpty();
+    }
+
+    /**
+     * Returns a short, user-readable description of what was repaired.
+     */
+    public String describe() {
+        StringBuilder message = new StringBuilder();
+        if (recordsSalvaged > 0) {
+            message.append(recordsSalvaged).append(recordsSalvaged == 1 ? " entry was" : " entries were")
+                    .append(" recovered from a damaged diary file. ");
+        }
+        if (!quarantined.isEmpty()) {
+            message.append(quarantined.size()).append(quarantined.size() == 1 ? " damaged entry was" : " damaged entries were")
+                    .append(" moved to quarantine and hidden from the list.");
+        }
+        return message.toString().trim();
+    }
+}
@@ -0,0 +1,238 @@
+// IntegrityScanner.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Verifies the whole diary in the background, a small slice at a time.
+ * A pass starts from a copy of the diary file read without any lock; each slice then checks a few
+ * of its records, the header checksum and sealed fields first and then a chunked body against its
+ * "bodyChecksum", a few chunks at a time so a book-length body is spread over several slices.
+ * At the end of the pass, still one slice at a time, a damaged header file is repaired (see
+ * DiaryStore.readVerifiedEntries()), entries whose body is damaged are quarantined one by one and
+ * chunk files no entry points to any more are deleted a few at a time.
+ *
+ * The scanner only works while the store has been idle for a while, rests between slices and
+ * never waits for the I/O lock, so it cannot slow down reads and writes made by the activities.
+ * Pausing keeps the cursor, so a pass continues where it left off on the next start().
+ */
+public class IntegrityScanner {
+
+    /**
+     * Receives the outcome of a scan pass. Called on the scanner thread.
+     */
+    public interface Listener {
+        void onScanFinished(IntegrityReport report);
+
+        void onScanFailed(Exception e);
+    }
+
+    // Upper bounds for the work done while holding the I/O lock
+    private static final int RECORDS_PER_SLICE = 20;
+    private static final int CHARS_PER_SLICE = 256 * 1024; // Body chunks are at most 16K chars each
+    private static final int FILES_PER_SLICE = 50;
+
+    // Rest between slices, and how long the store must have been idle before a slice runs
+    private static final long SLICE_PAUSE_MS = 200;
+    private static final long FOREGROUND_QUIET_MS = 750;
+
+    // A finished pass is not repeated sooner than this
+    private static final long MIN_PASS_INTERVAL_MS = 6 * 60 * 60 * 1000L;
+
+    // Shared across scanner instances so recreating an activity does not trigger a new pass
+    private static volatile long lastPassFinishedAt;
+
+    private final DiaryStore store;
+    private final Listener listener;
+
+    private Thread worker;
+    private boolean paused;
+
+    // State of the current pass, only touched by the worker thread
+    private JSONArray snapshot; // Stored headers being scanned, null between passes
+    private int cursor;
+    private JSONObject body; // Entry whose body is being verified, null between bodies
+    private int bodyChunk; // Next chunk of it to verify
+    private CRC32 bodyCrc;
+    private boolean headerDamage;
+    private final List<Long> damagedBodies = new ArrayList<>();
+    private IntegrityReport report;
+    private boolean repairsTaken;
+    private List<File> orphans; // Found once the repairs are done, null until then
+
+    public IntegrityScanner(DiaryStore store, Listener listener) {
+        this.store = store;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts or resumes scanning on a low-priority background thread.
+     */
+    public synchronized void start() {
+        paused = false;
+        if (worker != null) {
+            return; // Still running, it will simply carry on
+        }
+        if (snapshot == null && lastPassFinishedAt != 0
+                && System.currentTimeMillis() - lastPassFinishedAt < MIN_PASS_INTERVAL_MS) {
+            return; // Scanned recently enough
+        }
+        worker = new Thread(this::run, "IntegrityScanner");
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Pauses scanning after the current slice. The pass resumes on the next start().
+     */
+    public synchronized void stop() {
+        paused = true;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (paused) {
+                        worker = null;
+                        return;
+                    }
+                }
+
+                if (snapshot == null) {
+                    startPass();
+                }
+                if (!store.tryLockBackground(FOREGROUND_QUIET_MS)) {
+                    Thread.sleep(SLICE_PAUSE_MS); // The activities are busy with the store, back off
+                    continue;
+                }
+                boolean passComplete;
+                try {
+                    passComplete = doSlice();
+                } finally {
+                    store.unlockBackground();
+                }
+
+                if (passComplete) {
+                    IntegrityReport finished = report;
+                    snapshot = null;
+                    report = null;
+                    lastPassFinishedAt = System.currentTimeMillis();
+                    listener.onScanFinished(finished);
+                    synchronized (this) {
+                        worker = null;
+                    }
+                    return;
+                }
+                Thread.sleep(SLICE_PAUSE_MS);
+            }
+        } catch (Exception e) {
+            snapshot = null; // Start over on the next pass
+            synchronized (this) {
+                worker = null;
+            }
+            listener.onScanFailed(e);
+        }
+    }
+
+    /**
+     * Reads the stored headers for a new pass. Runs without the I/O lock: the diary file is only
+     * ever replaced by a rename, so this sees either the old or the new file, never a mix.
+     */
+    private void startPass() throws Exception {
+        cursor = 0;
+        body = null;
+        damagedBodies.clear();
+        report = new IntegrityReport();
+        repairsTaken = false;
+        orphans = null;
+        try {
+            snapshot = store.readStoredEntries();
+            headerDamage = false;
+        } catch (JSONException e) {
+            snapshot = new JSONArray(); // The file does not parse as a whole; finishPass() salvages it
+            headerDamage = true;
+        }
+    }
+
+    /**
+     * Does one bounded piece of work: a slice of the scan, then one repair, then a slice of the orphan
+     * sweep. Must be called with the store's I/O lock held; the store's methods called from here take
+     * it again without counting as foreground I/O.
+     * @return True once the pass is complete.
+     */
+    private boolean doSlice() throws Exception {
+        if (cursor < snapshot.length()) {
+            scanSlice();
+        } else if (!repairsTaken) {
+            if (headerDamage) {
+                store.readVerifiedEntries(); // Quarantines the damaged headers, reported just below
+            }
+            IntegrityReport repairs = store.takeRepairReport();
+            if (repairs != null) {
+                report.merge(repairs);
+            } else {
+                report.addChecked(snapshot.length());
+            }
+            repairsTaken = true;
+        } else if (!damagedBodies.isEmpty()) {
+            // Re-verified under the lock, so one body per slice
+            report.merge(store.quarantineDamagedBodies(Collections.singletonList(damagedBodies.remove(0))));
+        } else if (orphans == null) {
+            orphans = store.findOrphanedChunks();
+        } else {
+            for (int i = 0; i < FILES_PER_SLICE && !orphans.isEmpty(); i++) {
+                store.deleteOrphanedChunk(orphans.remove(orphans.size() - 1));
+            }
+        }
+        return repairsTaken && damagedBodies.isEmpty() && orphans != null && orphans.isEmpty();
+    }
+
+    /**
+     * Checks the next records of the snapshot, and the bodies of chunked ones chunk by chunk,
+     * until the slice's budget is used up.
+     */
+    private void scanSlice() throws Exception {
+        int records = 0;
+        int chars = 0;
+        while (cursor < snapshot.length() && records < RECORDS_PER_SLICE && chars < CHARS_PER_SLICE) {
+            if (body == null) {
+                JSONObject entry = store.verifyStoredEntry(snapshot.opt(cursor));
+                if (entry == null) {
+                    headerDamage = true;
+                } else if (DiaryStore.hasBodyChecksum(entry)) {
+                    body = entry;
+                    bodyChunk = 0;
+                    bodyCrc = new CRC32();
+                    continue;
+                }
+                records++;
+                cursor++;
+                continue;
+            }
+
+            int length = store.checksumChunk(body, bodyChunk, bodyCrc);
+            bodyChunk++;
+            chars += Math.max(0, length);
+            boolean lastChunk = bodyChunk >= body.optInt(DiaryStore.KEY_CHUNK_COUNT, 0);
+            if (length < 0 || (lastChunk && bodyCrc.getValue() != body.optLong(DiaryStore.KEY_BODY_CHECKSUM, -1))) {
+                damagedBodies.add(body.getLong(DiaryStore.KEY_UNIQUE_ID));
+                lastChunk = true;
+            }
+            if (lastChunk) {
+                body = null;
+                records++;
+                cursor++;
+            }
+        }
+    }
+}
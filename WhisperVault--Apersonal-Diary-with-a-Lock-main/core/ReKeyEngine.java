@@ -0,0 +1,180 @@
+// ReKeyEngine.java
+package com.example.madproject;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves every record of the diary over to the current data key, e.g. after the user asked for a
+ * full re-key or when plaintext records from before encryption have to be encrypted.
+ *
+ * The work is spread over a fork-join pool. Each record carries the ID of the key it was written
+ * with, so records already under the current key are skipped: an interrupted run (app killed,
+ * a file that could not be written) simply continues where it stopped when it is run again.
+ * The retired keys are only deleted once a run finished without failures.
+ */
+public class ReKeyEngine {
+
+    // Record files re-encrypted by one fork-join task before it stops splitting
+    private static final int FILES_PER_TASK = 8;
+
+    /**
+     * Outcome and throughput of one run.
+     */
+    public static class Result {
+        private final int recordsRewritten;
+        private final int recordsFailed;
+        private final long bytesRewritten;
+        private final long elapsedNanos;
+
+        Result(int recordsRewritten, int recordsFailed, long bytesRewritten, long elapsedNanos) {
+            this.recordsRewritten = recordsRewritten;
+            this.recordsFailed = recordsFailed;
+            this.bytesRewritten = bytesRewritten;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getRecordsRewritten() {
+            return recordsRewritten;
+        }
+
+        /**
+         * Number of record files that could not be re-encrypted. They are retried on the next run.
+         */
+        public int getRecordsFailed() {
+            return recordsFailed;
+        }
+
+        public long getBytesRewritten() {
+            return bytesRewritten;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedNanos / 1_000_000;
+        }
+
+        public boolean isComplete() {
+            return recordsFailed == 0;
+        }
+
+        /**
+         * Throughput of the run in MB/s.
+         */
+        public double getMegabytesPerSecond() {
+            if (elapsedNanos <= 0) {
+                return 0;
+            }
+            return (bytesRewritten / (1024.0 * 1024.0)) / (elapsedNanos / 1_000_000_000.0);
+        }
+
+        /**
+         * Returns a short, user-readable summary of the run.
+         */
+        public String describe() {
+            String summary = String.format(Locale.US, "Re-encrypted %d records (%.1f MB) in %d ms, %.1f MB/s.",
+                    recordsRewritten, bytesRewritten / (1024.0 * 1024.0), getElapsedMillis(), getMegabytesPerSecond());
+            if (recordsFailed > 0) {
+                summary += " " + recordsFailed + " records failed and will be retried.";
+            }
+            return summary;
+        }
+    }
+
+    private final DiaryStore store;
+    private final DiaryKeyManager keyManager;
+
+    public ReKeyEngine(DiaryStore store, DiaryKeyManager keyManager) {
+        this.store = store;
+        this.keyManager = keyManager;
+    }
+
+    /**
+     * Re-encrypts the whole diary under the store's current data key. Blocks until done,
+     * so it must be called from a background thread.
+     * @param parallelism Number of worker threads.
+     */
+    public Result run(int parallelism) throws IOException, JSONException {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            long start = System.nanoTime();
+            int targetKeyId = store.getCipher().getCurrentKeyId();
+
+            // Entry headers are one file, sealed per record in parallel inside the store
+            int headerCount = store.readEntries().length();
+            long bytes = store.resealEntries(pool);
+
+            // Body chunks and the quarantine file are independent records
+            AtomicInteger rewritten = new AtomicInteger(headerCount);
+            AtomicInteger failed = new AtomicInteger();
+            List<File> files = store.listRecordFiles();
+            bytes += pool.invoke(new ReencryptTask(files, 0, files.size(), rewritten, failed));
+
+            Result result = new Result(rewritten.get(), failed.get(), bytes, System.nanoTime() - start);
+            if (result.isComplete()) {
+                // A PIN change with re-key may have made a newer key current while this run was going;
+                // then its records are not all moved yet and the old keys stay until that run finishes
+                synchronized (DiaryKeyManager.KEY_FILE_LOCK) {
+                    if (keyManager.dropRetiredKeys(targetKeyId) && store.getCipher().getCurrentKeyId() == targetKeyId) {
+                        store.setCipher(store.getCipher().withCurrentKeyOnly());
+                    }
+                }
+            }
+            return result;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Re-encrypts files[from, to), splitting the range until it is small enough.
+     * A file that fails is counted and left for the next run instead of failing the whole task.
+     */
+    private class ReencryptTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> files;
+        private final int from;
+        private final int to;
+        private final AtomicInteger rewritten;
+        private final AtomicInteger failed;
+
+        ReencryptTask(List<File> files, int from, int to, AtomicInteger rewritten, AtomicInteger failed) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.rewritten = rewritten;
+            this.failed = failed;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from <= FILES_PER_TASK) {
+                long bytes = 0;
+                for (int i = from; i < to; i++) {
+                    try {
+                        long fileBytes = store.reencryptFile(files.get(i));
+                        if (fileBytes > 0) {
+                            bytes += fileBytes;
+                            rewritten.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                    }
+                }
+                return bytes;
+            }
+            int middle = (from + to) >>> 1;
+            ReencryptTask left = new ReencryptTask(files, from, middle, rewritten, failed);
+            left.fork();
+            long rightBytes = new ReencryptTask(files, middle, to, rewritten, failed).compute();
+            return left.join() + rightBytes;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+// RecordCipher.java
+package com.example.madproject;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Encrypts and decrypts single diary records (a sealed entry header, a body chunk file, a summary)
+ * with AES-GCM under the diary's data keys.
+ *
+ * Encrypted records start with a small plaintext header: the magic "WVE1" and the ID of the data key
+ * used. Keeping the key ID on every record lets several data keys be active while the diary is being
+ * re-keyed, and lets ReKeyEngine skip records that are already under the current key. Records without
+ * the magic are plaintext from before encryption existed and are passed through unchanged.
+ *
+ * Instances are immutable and safe to use from several threads at once.
+ */
+public class RecordCipher {
+
+    /**
+     * Cipher without any data key. Writes plaintext and can only read plaintext records.
+     */
+    public static final RecordCipher NONE = new RecordCipher(Collections.<Integer, SecretKey>emptyMap(), 0);
+
+    private static final byte[] MAGIC = {'W', 'V', 'E', '1'};
+    private static final int HEADER_LENGTH = MAGIC.length + 4; // Magic + key ID
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Cipher objects are not thread-safe, so every thread (e.g. in ReKeyEngine's pool) gets its own
+    private static final ThreadLocal<Cipher> AES_GCM = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance("AES/GCM/NoPadding");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AES-GCM is not available", e);
+            }
+        }
+    };
+
+    private final Map<Integer, SecretKey> keys;
+    private final int currentKeyId;
+
+    /**
+     * @param keys All data keys that may be needed for reading, by key ID.
+     * @param currentKeyId The key used for writing new records.
+     */
+    public RecordCipher(Map<Integer, SecretKey> keys, int currentKeyId) {
+        this.keys = Collections.unmodifiableMap(new HashMap<>(keys));
+        this.currentKeyId = currentKeyId;
+    }
+
+    /**
+     * Returns true if this cipher holds data keys, i.e. the diary is unlocked.
+     */
+    public boolean hasKeys() {
+        return !keys.isEmpty();
+    }
+
+    public int getCurrentKeyId() {
+        return currentKeyId;
+    }
+
+    /**
+     * Encrypts a record under the current data key. Without keys the record is returned as is.
+     */
+    public byte[] encrypt(byte[] plaintext) throws IOException {
+        if (!hasKeys()) {
+            return plaintext;
+        }
+        byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        byte[] header = header(currentKeyId);
+        try {
+            Cipher cipher = AES_GCM.get();
+            cipher.init(Cipher.ENCRYPT_MODE, keys.get(currentKeyId), new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(header); // Binds the key ID to the ciphertext
+            byte[] ciphertext = cipher.doFinal(plaintext);
+
+            byte[] record = new byte[header.length + iv.length + ciphertext.length];
+            System.arraycopy(header, 0, record, 0, header.length);
+            System.arraycopy(iv, 0, record, header.length, iv.length);
+            System.arraycopy(ciphertext, 0, record, header.length + iv.length, ciphertext.length);
+            return record;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not encrypt record: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decrypts a record. Plaintext records from before encryption are returned as is.
+     * @throws DiaryLockedException if the record's data key is not available.
+     * @throws IOException if the record was damaged or tampered with.
+     */
+    public byte[] decrypt(byte[] record) throws IOException {
+        int keyId = keyIdOf(record);
+        if (keyId == -1) {
+            return record;
+        }
+        SecretKey key = keys.get(keyId);
+        if (key == null) {
+            throw new DiaryLockedException("Data key " + keyId + " is not available");
+        }
+        if (record.length < HEADER_LENGTH + IV_LENGTH) {
+            throw new IOException("Encrypted record is truncated");
+        }
+        try {
+            Cipher cipher = AES_GCM.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, record, HEADER_LENGTH, IV_LENGTH));
+            cipher.updateAAD(record, 0, HEADER_LENGTH);
+            return cipher.doFinal(record, HEADER_LENGTH + IV_LENGTH, record.length - HEADER_LENGTH - IV_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Record failed authentication: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns a cipher holding only the current data key, for use once a re-key has finished.
+     */
+    public RecordCipher withCurrentKeyOnly() {
+        if (!hasKeys()) {
+            return this;
+        }
+        return new RecordCipher(Collections.singletonMap(currentKeyId, keys.get(currentKeyId)), currentKeyId);
+    }
+
+    /**
+     * Returns true if the record has to be rewritten to end up under the current data key.
+     */
+    public boolean needsReencryption(byte[] record) {
+        return hasKeys() && keyIdOf(record) != currentKeyId;
+    }
+
+    /**
+     * Returns the data key ID of an encrypted record, or -1 for a plaintext record.
+     */
+    static int keyIdOf(byte[] record) {
+        if (record.length < HEADER_LENGTH) {
+            return -1;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (record[i] != MAGIC[i]) {
+                return -1;
+            }
+        }
+        return ((record[4] & 0xFF) << 24) | ((record[5] & 0xFF) << 16) | ((record[6] & 0xFF) << 8) | (record[7] & 0xFF);
+    }
+
+    private static byte[] header(int keyId) {
+        byte[] header = new byte[HEADER_LENGTH];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        header[4] = (byte) (keyId >>> 24);
+        header[5] = (byte) (keyId >>> 16);
+        header[6] = (byte) (keyId >>> 8);
+        header[7] = (byte) keyId;
+        return header;
+    }
+
+    /**
+     * Hex encoding used wherever binary records have to live inside JSON.
+     * (java.util.Base64 is not available on all supported Android versions.)
+     */
+    static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = digits[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = digits[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    static byte[] fromHex(String hex) throws IOException {
+        if (hex.length() % 2 != 0) {
+            throw new IOException("Malformed hex string");
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IOException("Malformed hex string");
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+}
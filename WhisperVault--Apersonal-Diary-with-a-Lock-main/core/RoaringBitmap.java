@@ -0,0 +1,339 @@
+// RoaringBitmap.java
+package com.example.madproject;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compressed set of non-negative ints in the roaring layout: values are grouped by their high 16 bits,
+ * and each group (container) holds the low 16 bits either as a sorted array, while it has at most
+ * ARRAY_MAX values, or as a 65536-bit bitmap once it is denser than that. Sparse sets stay small and
+ * dense ones cost a fixed 8 KB per 65536 values; intersections work container by container.
+ *
+ * Used by EntryFilterIndex, one bitmap per tag, mood and year over the entries' ordinals.
+ * Not thread-safe.
+ */
+public class RoaringBitmap {
+
+    // Above this many values an array container takes more room than a bitmap container
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 65536 / 64;
+
+    private static final byte TYPE_ARRAY = 0;
+    private static final byte TYPE_BITMAP = 1;
+
+    /**
+     * The low 16 bits of the values sharing one high 16 bits. Exactly one of values and words is set.
+     */
+    private static final class Container {
+        char[] values; // Sorted, first cardinality slots used
+        long[] words;
+        int cardinality;
+
+        static Container ofArray(char[] values, int cardinality) {
+            Container container = new Container();
+            container.values = values;
+            container.cardinality = cardinality;
+            return container;
+        }
+
+        static Container ofBitmap(long[] words, int cardinality) {
+            Container container = new Container();
+            container.words = words;
+            container.cardinality = cardinality;
+            return container;
+        }
+
+        boolean contains(char low) {
+            if (words != null) {
+                return (words[low >>> 6] & (1L << low)) != 0;
+            }
+            return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+        }
+
+        void add(char low) {
+            if (words != null) {
+                long before = words[low >>> 6];
+                words[low >>> 6] = before | (1L << low);
+                if (before != words[low >>> 6]) {
+                    cardinality++;
+                }
+                return;
+            }
+            int index = Arrays.binarySearch(values, 0, cardinality, low);
+            if (index >= 0) {
+                return;
+            }
+            index = -index - 1;
+            if (cardinality == ARRAY_MAX) {
+                toBitmap();
+                add(low);
+                return;
+            }
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, Math.max(4, cardinality * 2)));
+            }
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = low;
+            cardinality++;
+        }
+
+        void remove(char low) {
+            if (words != null) {
+                long before = words[low >>> 6];
+                words[low >>> 6] = before & ~(1L << low);
+                if (before != words[low >>> 6]) {
+                    cardinality--;
+                    if (cardinality <= ARRAY_MAX) {
+                        toArray();
+                    }
+                }
+                return;
+            }
+            int index = Arrays.binarySearch(values, 0, cardinality, low);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+                cardinality--;
+            }
+        }
+
+        private void toBitmap() {
+            words = new long[BITMAP_WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+            values = null;
+        }
+
+        private void toArray() {
+            values = new char[cardinality];
+            int n = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    values[n++] = (char) (w * 64 + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            words = null;
+        }
+
+        static Container and(Container a, Container b) {
+            if (a.words != null && b.words != null) {
+                long[] words = new long[BITMAP_WORDS];
+                int cardinality = 0;
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    words[w] = a.words[w] & b.words[w];
+                    cardinality += Long.bitCount(words[w]);
+                }
+                Container result = ofBitmap(words, cardinality);
+                if (cardinality <= ARRAY_MAX) {
+                    result.toArray();
+                }
+                return result;
+            }
+            if (a.words != null) {
+                return and(b, a); // Array first
+            }
+            char[] values = new char[a.cardinality];
+            int n = 0;
+            if (b.words != null) {
+                for (int i = 0; i < a.cardinality; i++) {
+                    if (b.contains(a.values[i])) {
+                        values[n++] = a.values[i];
+                    }
+                }
+            } else {
+                int i = 0;
+                int j = 0;
+                while (i < a.cardinality && j < b.cardinality) {
+                    if (a.values[i] < b.values[j]) {
+                        i++;
+                    } else if (a.values[i] > b.values[j]) {
+                        j++;
+                    } else {
+                        values[n++] = a.values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            }
+            return ofArray(values, n);
+        }
+
+        Container copy() {
+            return words != null ? ofBitmap(words.clone(), cardinality) : ofArray(Arrays.copyOf(values, cardinality), cardinality);
+        }
+    }
+
+    private char[] keys = new char[0]; // High 16 bits of each container, sorted
+    private Container[] containers = new Container[0];
+    private int size; // Containers in use
+
+    /**
+     * Adds a value. Values must not be negative.
+     */
+    public void add(int value) {
+        char high = (char) (value >>> 16);
+        int index = Arrays.binarySearch(keys, 0, size, high);
+        if (index < 0) {
+            index = -index - 1;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(4, size * 2));
+                containers = Arrays.copyOf(containers, keys.length);
+            }
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            System.arraycopy(containers, index, containers, index + 1, size - index);
+            keys[index] = high;
+            containers[index] = Container.ofArray(new char[4], 0);
+            size++;
+        }
+        containers[index].add((char) value);
+    }
+
+    public void remove(int value) {
+        int index = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        if (index < 0) {
+            return;
+        }
+        containers[index].remove((char) value);
+        if (containers[index].cardinality == 0) {
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+            size--;
+            containers[size] = null;
+        }
+    }
+
+    public boolean contains(int value) {
+        int index = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality;
+        }
+        return cardinality;
+    }
+
+    /**
+     * Returns the values in ascending order.
+     */
+    public int[] toArray() {
+        int[] result = new int[getCardinality()];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            int high = keys[i] << 16;
+            Container container = containers[i];
+            if (container.words != null) {
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    long word = container.words[w];
+                    while (word != 0) {
+                        result[n++] = high | (w * 64 + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                for (int v = 0; v < container.cardinality; v++) {
+                    result[n++] = high | container.values[v];
+                }
+            }
+        }
+        return result;
+    }
+
+    public RoaringBitmap copy() {
+        RoaringBitmap copy = new RoaringBitmap();
+        copy.keys = Arrays.copyOf(keys, size);
+        copy.containers = new Container[size];
+        for (int i = 0; i < size; i++) {
+            copy.containers[i] = containers[i].copy();
+        }
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Returns the values present in both bitmaps. Only containers whose keys match are compared.
+     */
+    public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap();
+        result.keys = new char[Math.min(a.size, b.size)];
+        result.containers = new Container[result.keys.length];
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container container = Container.and(a.containers[i], b.containers[j]);
+                if (container.cardinality > 0) {
+                    result.keys[result.size] = a.keys[i];
+                    result.containers[result.size] = container;
+                    result.size++;
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            Container container = containers[i];
+            out.writeChar(keys[i]);
+            out.writeInt(container.cardinality);
+            if (container.words != null) {
+                out.writeByte(TYPE_BITMAP);
+                for (long word : container.words) {
+                    out.writeLong(word);
+                }
+            } else {
+                out.writeByte(TYPE_ARRAY);
+                for (int v = 0; v < container.cardinality; v++) {
+                    out.writeChar(container.values[v]);
+                }
+            }
+        }
+    }
+
+    static RoaringBitmap readFrom(DataInputStream in) throws IOException {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        bitmap.size = in.readInt();
+        bitmap.keys = new char[bitmap.size];
+        bitmap.containers = new Container[bitmap.size];
+        for (int i = 0; i < bitmap.size; i++) {
+            bitmap.keys[i] = in.readChar();
+            int cardinality = in.readInt();
+            byte type = in.readByte();
+            if (type == TYPE_BITMAP) {
+                long[] words = new long[BITMAP_WORDS];
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    words[w] = in.readLong();
+                }
+                bitmap.containers[i] = Container.ofBitmap(words, cardinality);
+            } else if (type == TYPE_ARRAY && cardinality <= ARRAY_MAX) {
+                char[] values = new char[cardinality];
+                for (int v = 0; v < cardinality; v++) {
+                    values[v] = in.readChar();
+                }
+                bitmap.containers[i] = Container.ofArray(values, cardinality);
+            } else {
+                throw new IOException("Unrecognized bitmap container");
+            }
+        }
+        return bitmap;
+    }
+}
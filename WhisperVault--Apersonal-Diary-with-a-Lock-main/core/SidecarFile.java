@@ -0,0 +1,223 @@
+// SidecarFile.java
+package com.example.madproject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * One of the files kept next to diary_entries.json so the list and the insights screen never have
+ * to read it: the summary table, the filter index and the stats. Each starts with a magic number,
+ * a version and a state byte that tracks whether the file matches the entry headers.
+ *
+ * DiaryStore marks the file pending (markPending()) before every header write, and the owner's
+ * following put/remove applies the change in memory (beginChange(), changed()). If the app dies in
+ * between, the file stays pending and is found stale on the next load. Changes are only written by
+ * flush(); until then the file stays marked pending, so a process that dies first leaves it to be
+ * rebuilt.
+ *
+ * Not thread-safe: the owner calls it with its own lock held.
+ */
+final class SidecarFile {
+
+    // Offset of the state byte, right after the magic number and the version
+    private static final int STATE_OFFSET = 8;
+
+    private static final byte STATE_CLEAN = 0; // File matches the entry headers
+    private static final byte STATE_PENDING = 1; // Headers are being written, one put/remove will follow
+    private static final byte STATE_STALE = 2; // A change was missed, the file must be rebuilt
+
+    /**
+     * Writes the content after the header.
+     */
+    interface Writer {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    private final File file;
+    private final int magic;
+    private final int version;
+
+    private boolean changePending; // markPending() was called and its put() or remove() has not come yet
+    private boolean dirty; // The owner's copy in memory is ahead of the file, which is marked pending until flush
+
+    SidecarFile(File file, int magic, int version) {
+        this.file = file;
+        this.magic = magic;
+        this.version = version;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns true if the file exists and, with the changes kept in memory, reflects the current entry headers.
+     */
+    boolean isInSync() {
+        if (changePending) {
+            return false;
+        }
+        return dirty || readState() == STATE_CLEAN;
+    }
+
+    /**
+     * Marks the file as about to change.
+     * @return False if a previous change never completed, so the owner's copy in memory is out of
+     *         date and must be dropped.
+     */
+    boolean markPending() throws IOException {
+        if (changePending) {
+            // The previous change never completed, the file is missing it
+            writeState(STATE_STALE);
+            changePending = false;
+            dirty = false;
+            return false;
+        }
+        if (dirty) {
+            changePending = true; // The file is still marked pending from the change not flushed yet
+        } else {
+            byte state = readState();
+            if (state == STATE_CLEAN) {
+                writeState(STATE_PENDING);
+                changePending = true;
+            } else if (state == STATE_PENDING) {
+                writeState(STATE_STALE); // Left pending by a process that died
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if markPending() announced a change for the owner to apply in memory. False if
+     * the file is stale; the owner should then drop its copy in memory, and the file is rebuilt on
+     * the next load instead.
+     */
+    boolean beginChange() {
+        return changePending;
+    }
+
+    /**
+     * Records that the change announced by markPending() has been applied in memory.
+     */
+    void changed() {
+        changePending = false;
+        dirty = true;
+    }
+
+    /**
+     * Returns true if the owner has changes in memory that flush() should write.
+     */
+    boolean needsFlush() {
+        return dirty && !changePending;
+    }
+
+    /**
+     * Opens the file and positions the stream after the header. Only a file that matches the entry
+     * headers can be read: one that is clean, or marked pending by a change not applied yet.
+     * @throws IOException if the file is missing, in another format, or stale.
+     */
+    DataInputStream openForReading() throws IOException {
+        if (!file.exists()) {
+            throw new IOException(file.getName() + " does not exist yet");
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != magic || in.readInt() != version) {
+                throw new IOException("Unrecognized format of " + file.getName());
+            }
+            byte state = in.readByte();
+            if (state != STATE_CLEAN && !(state == STATE_PENDING && changePending && !dirty)) {
+                throw new IOException(file.getName() + " is out of date");
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+    /**
+     * Reads a file holding one sealed record, as written by writeSealed().
+     */
+    byte[] readSealed() throws IOException {
+        DataInputStream in = openForReading();
+        try {
+            byte[] sealed = new byte[in.readInt()];
+            in.readFully(sealed);
+            return sealed;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the file to a temporary file and renames it over the old one. The result is always clean.
+     */
+    void writeAll(Writer content) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeByte(STATE_CLEAN);
+            content.writeTo(out);
+            out.flush();
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Could not replace " + file.getName());
+        }
+        changePending = false;
+        dirty = false;
+    }
+
+    /**
+     * Writes a file holding one sealed record.
+     */
+    void writeSealed(byte[] sealed) throws IOException {
+        writeAll(out -> {
+            out.writeInt(sealed.length);
+            out.write(sealed);
+        });
+    }
+
+    /**
+     * Reads the state byte, treating a missing or unreadable file as stale.
+     */
+    private byte readState() {
+        if (!file.exists()) {
+            return STATE_STALE;
+        }
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                if (in.readInt() != magic || in.readInt() != version) {
+                    return STATE_STALE;
+                }
+                return in.readByte();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return STATE_STALE;
+        }
+    }
+
+    private void writeState(byte state) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.seek(STATE_OFFSET);
+            out.writeByte(state);
+        } finally {
+            out.close();
+        }
+    }
+}
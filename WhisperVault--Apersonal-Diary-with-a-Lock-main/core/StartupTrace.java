@@ -0,0 +1,115 @@
+// StartupTrace.java
+package com.example.madproject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Startup trace markers: named spans timed with System.nanoTime(), for cold start, warm start and
+ * the time from entering the PIN to the first entry on screen. The activities begin and end the
+ * spans; a Listener passes them on to the log and to the platform trace.
+ *
+ * A span that was not begun, or has already ended, ends as a no-op, so the activities can end a span
+ * wherever it might finish and only the first end counts. StartupBenchmark uses the same spans.
+ */
+public class StartupTrace {
+
+    // Process start to the first frame of the PIN screen
+    public static final String COLD_START = "coldStart";
+    // PIN screen created in a process that was already running, to its first frame
+    public static final String WARM_START = "warmStart";
+    // PIN submitted to the first page of the list on screen
+    public static final String UNLOCK_TO_FIRST_ENTRY = "unlockToFirstEntry";
+
+    /**
+     * Receives spans as they begin and end. Called on the thread that begins or ends the span.
+     */
+    public interface Listener {
+        void onSpanBegun(String span);
+
+        void onSpanEnded(String span, long durationNanos);
+    }
+
+    private static final Map<String, Long> beganAt = new HashMap<>(); // System.nanoTime() by running span
+    private static final Map<String, Long> lastDurations = new HashMap<>();
+    private static boolean launchTraced; // A launch was traced in this process already
+    private static Listener listener;
+
+    private StartupTrace() {
+    }
+
+    public static synchronized void setListener(Listener newListener) {
+        listener = newListener;
+    }
+
+    /**
+     * Begins the span of a launch: COLD_START from the process start on the first launch of the
+     * process, WARM_START from now on later ones.
+     * @param processStartNanos When the process started, on the System.nanoTime() clock.
+     * @return The span begun.
+     */
+    public static String beginLaunch(long processStartNanos) {
+        String span;
+        synchronized (StartupTrace.class) {
+            span = launchTraced ? WARM_START : COLD_START;
+            launchTraced = true;
+        }
+        begin(span, span.equals(COLD_START) ? processStartNanos : System.nanoTime());
+        return span;
+    }
+
+    public static void begin(String span) {
+        begin(span, System.nanoTime());
+    }
+
+    /**
+     * Begins a span at the given System.nanoTime(), restarting it if it is already running.
+     */
+    public static void begin(String span, long startNanos) {
+        Listener current;
+        synchronized (StartupTrace.class) {
+            beganAt.put(span, startNanos);
+            current = listener;
+        }
+        if (current != null) {
+            current.onSpanBegun(span);
+        }
+    }
+
+    /**
+     * Ends a span.
+     * @return Its duration in nanoseconds, or -1 if the span was not running.
+     */
+    public static long end(String span) {
+        long duration;
+        Listener current;
+        synchronized (StartupTrace.class) {
+            Long startNanos = beganAt.remove(span);
+            if (startNanos == null) {
+                return -1;
+            }
+            duration = System.nanoTime() - startNanos;
+            lastDurations.put(span, duration);
+            current = listener;
+        }
+        if (current != null) {
+            current.onSpanEnded(span, duration);
+        }
+        return duration;
+    }
+
+    /**
+     * Drops a running span without recording it, e.g. when the PIN was wrong.
+     */
+    public static synchronized void cancel(String span) {
+        beganAt.remove(span);
+    }
+
+    /**
+     * Returns the duration of the last completed run of a span in nanoseconds, or -1 if it never completed.
+     */
+    public static synchronized long getLastDuration(String span) {
+        Long duration = lastDurations.get(span);
+        return duration != null ? duration : -1;
+    }
+}
@@ -0,0 +1,100 @@
+// StartupWarmup.java
+package com.example.madproject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Warmup list for the path from the PIN screen to the first entry of the list, run on a background
+ * thread while the user is still typing the PIN. It does at run time what a baseline profile does
+ * at build time: the classes on the path are loaded and initialized in the order they are first
+ * used, the crypto providers are initialized, and the small files the first screen reads are pulled
+ * into the OS page cache.
+ *
+ * Nothing here needs the PIN or changes any file. Anything that fails only loses its speed-up.
+ */
+public class StartupWarmup {
+
+    // Classes first used between the PIN screen and the first row of the list, in that order.
+    // Keep in step with those paths; StartupBenchmark shows what the list is worth.
+    private static final String[] HOT_CLASSES = {
+            "com.example.madproject.DiaryLock",
+            "com.example.madproject.DiaryKeyManager",
+            "com.example.madproject.RecordCipher",
+            "com.example.madproject.DiaryStore",
+            "com.example.madproject.EntrySummaryTable",
+            "com.example.madproject.EntryFilterIndex",
+            "com.example.madproject.DiaryStats",
+            "com.example.madproject.ChangeLog",
+            "com.example.madproject.DiaryActivity",
+            "com.example.madproject.DiaryRepository",
+            "com.example.madproject.IntegrityReport",
+            "com.example.madproject.IntegrityScanner",
+            "com.example.madproject.EntrySummary",
+            "org.json.JSONObject",
+            "org.json.JSONArray",
+            "org.json.JSONTokener",
+    };
+
+    // Files read before the first row is drawn, and how much of each
+    private static final String[] HOT_FILES = {
+            DiaryKeyManager.KEY_FILE_NAME,
+            EntrySummaryTable.SUMMARY_FILE_NAME,
+            EntryFilterIndex.INDEX_FILE_NAME,
+            DiaryStats.STATS_FILE_NAME,
+    };
+    private static final int READ_AHEAD_BYTES = 64 * 1024; // Covers the first page of the summary table
+
+    private StartupWarmup() {
+    }
+
+    /**
+     * Runs the whole warmup. Call it from a background thread.
+     * @param filesDir The app's private files directory (Context.getFilesDir()).
+     * @return The number of hot classes that could be loaded.
+     */
+    public static int run(File filesDir) {
+        int loaded = 0;
+        ClassLoader classLoader = StartupWarmup.class.getClassLoader();
+        for (String className : HOT_CLASSES) {
+            try {
+                Class.forName(className, true, classLoader);
+                loaded++;
+            } catch (ClassNotFoundException | LinkageError e) {
+                // Not on this classpath (e.g. the activities in a plain JVM)
+            }
+        }
+        try {
+            DiaryKeyManager.warmUpCrypto();
+        } catch (Exception e) {
+            // The first PIN check initializes the providers instead
+        }
+        for (String fileName : HOT_FILES) {
+            readAhead(new File(filesDir, fileName));
+        }
+        return loaded;
+    }
+
+    private static void readAhead(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        byte[] buffer = new byte[8192];
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                int total = 0;
+                int n;
+                while (total < READ_AHEAD_BYTES && (n = in.read(buffer)) != -1) {
+                    total += n;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // The file is read for real later, and fails there if it has to
+        }
+    }
+}
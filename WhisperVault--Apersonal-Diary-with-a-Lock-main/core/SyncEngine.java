@@ -0,0 +1,403 @@
+// SyncEngine.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Keeps one diary in step across devices through a relay server (SyncTransport).
+ *
+ * Each device only sends the entries changed since its last push (see ChangeLog) and only reads
+ * the frames written since its last pull, so the cost of a sync depends on what changed, not on
+ * the size of the diary. Changes travel in batched frames: up to MAX_CHANGES_PER_FRAME entries,
+ * compressed with Deflate and encrypted with a cipher shared by the paired devices.
+ *
+ * Every entry carries a version: "modifiedAt" (milliseconds) and "modifiedBy" (device ID). When both
+ * sides changed the same uniqueId, the newer version wins; equal times are decided by the device ID,
+ * and a delete beats an edit made in the same millisecond. Every device therefore ends up with the
+ * same result, whatever order the changes arrive in.
+ */
+public class SyncEngine {
+
+    // Limits of one frame, before compression
+    private static final int MAX_CHANGES_PER_FRAME = 200;
+    private static final int MAX_FRAME_CHARS = 512 * 1024;
+
+    // Frames sent or requested per call to the server
+    private static final int FRAMES_PER_ROUND_TRIP = 8;
+
+    private static final int FRAME_VERSION = 1;
+
+    // Header fields derived from the text or from how it is stored; the receiving store rebuilds them in putText()
+    private static final List<String> LOCAL_KEYS = Arrays.asList(
+            DiaryStore.KEY_UNIQUE_ID, DiaryStore.KEY_TEXT, DiaryStore.KEY_PREVIEW, DiaryStore.KEY_WORD_COUNT,
+            DiaryStore.KEY_TEXT_LENGTH, DiaryStore.KEY_CHUNK_COUNT, DiaryStore.KEY_BODY_VERSION, DiaryStore.KEY_CHECKSUM,
+            DiaryStore.KEY_BODY_CHECKSUM, DiaryStore.KEY_SEALED, DiaryStore.KEY_MODIFIED_AT, DiaryStore.KEY_MODIFIED_BY);
+
+    private final DiaryStore store;
+    private final ChangeLog changeLog;
+    private final SyncTransport transport;
+    private final RecordCipher frameCipher;
+
+    /**
+     * @param frameCipher Cipher shared by all paired devices, see openFrameCipher().
+     */
+    public SyncEngine(DiaryStore store, SyncTransport transport, RecordCipher frameCipher) {
+        if (!frameCipher.hasKeys()) {
+            throw new IllegalArgumentException("Sync frames must be encrypted");
+        }
+        this.store = store;
+        this.changeLog = store.getChangeLog();
+        this.transport = transport;
+        this.frameCipher = frameCipher;
+    }
+
+    /**
+     * Derives the frame cipher of a pairing from its code and the salt the server keeps for it,
+     * which the first device to pair picks at random. Slow on purpose, so call it off the main thread.
+     */
+    public static RecordCipher openFrameCipher(SyncTransport transport, String pairingCode)
+            throws IOException, GeneralSecurityException {
+        return DiaryKeyManager.deriveSyncCipher(pairingCode, transport.pairingSalt(DiaryKeyManager.newSalt()));
+    }
+
+    /**
+     * Pulls and applies the changes made on other devices, then pushes the changes made here.
+     * Blocks until done, so it must be called from a background thread. If it fails half-way,
+     * the next call continues from the last frame that was fully applied or sent. The push also stops
+     * at an entry whose text cannot be read (see SyncReport.isPushComplete()).
+     */
+    public synchronized SyncReport sync() throws IOException, JSONException {
+        SyncReport report = new SyncReport();
+        long start = System.nanoTime();
+        String deviceId = changeLog.getDeviceId();
+
+        if (!changeLog.hasBaseline()) {
+            // First sync on this device: entries written before recording started must be sent too.
+            // Recording starts under the update lock, so a save lands either in the entries read here
+            // or in the log.
+            JSONArray entries;
+            store.lockForUpdate();
+            try {
+                changeLog.startRecording();
+                entries = store.readEntries();
+            } finally {
+                store.unlockForUpdate();
+            }
+            List<Long> uniqueIds = new ArrayList<>(entries.length());
+            for (int i = 0; i < entries.length(); i++) {
+                uniqueIds.add(entries.getJSONObject(i).getLong(DiaryStore.KEY_UNIQUE_ID));
+            }
+            changeLog.appendBaseline(uniqueIds);
+        }
+
+        pull(deviceId, report);
+        push(deviceId, report); // After pulling, so pushed entries already include the merge
+        report.setElapsedNanos(System.nanoTime() - start);
+        return report;
+    }
+
+    /**
+     * Compares two versions of an entry.
+     * @return A positive number if version A wins, a negative number if B wins, 0 if they are the same.
+     */
+    public static int compareVersions(long modifiedAtA, String modifiedByA, boolean deletedA,
+                                      long modifiedAtB, String modifiedByB, boolean deletedB) {
+        if (modifiedAtA != modifiedAtB) {
+            return Long.compare(modifiedAtA, modifiedAtB);
+        }
+        int byDevice = modifiedByA.compareTo(modifiedByB);
+        if (byDevice != 0) {
+            return byDevice;
+        }
+        return Boolean.compare(deletedA, deletedB); // A delete beats an edit made in the same millisecond
+    }
+
+    /**
+     * Returns the version time of an entry. Entries saved before sync existed use their creation time.
+     */
+    static long modifiedAtOf(JSONObject entry) {
+        return entry.optLong(DiaryStore.KEY_MODIFIED_AT, entry.optLong(DiaryStore.KEY_UNIQUE_ID, 0));
+    }
+
+    static String modifiedByOf(JSONObject entry) {
+        return entry.optString(DiaryStore.KEY_MODIFIED_BY, "");
+    }
+
+    private void pull(String deviceId, SyncReport report) throws IOException, JSONException {
+        long cursor = changeLog.getPulledCursor();
+        while (true) {
+            long roundTripStart = System.nanoTime();
+            SyncTransport.Pull pull = transport.pull(deviceId, cursor, FRAMES_PER_ROUND_TRIP);
+            report.addRoundTrip(System.nanoTime() - roundTripStart);
+
+            // All frames of a round trip are applied with one write of the entry headers
+            List<JSONObject> changes = new ArrayList<>();
+            for (byte[] frame : pull.getFrames()) {
+                byte[] raw = decodeFrame(frame);
+                JSONArray frameChanges = new JSONObject(new String(raw, StandardCharsets.UTF_8)).getJSONArray("changes");
+                for (int i = 0; i < frameChanges.length(); i++) {
+                    changes.add(frameChanges.getJSONObject(i));
+                }
+                report.addReceived(frameChanges.length(), raw.length, frame.length);
+            }
+            if (!changes.isEmpty()) {
+                applyChanges(changes, report);
+            }
+            cursor = pull.getCursor();
+            changeLog.setPulledCursor(cursor); // Only once the frames are applied; re-applying one is harmless
+            if (!pull.hasMore()) {
+                return;
+            }
+        }
+    }
+
+    private void push(String deviceId, SyncReport report) throws IOException, JSONException {
+        long pushedSeq = changeLog.getPushedSeq();
+        List<ChangeLog.Change> changes = changeLog.readSince(pushedSeq);
+        if (changes.isEmpty()) {
+            return;
+        }
+        Map<Long, JSONObject> entriesById = indexById(store.readEntries());
+
+        List<byte[]> frames = new ArrayList<>();
+        JSONArray frameChanges = new JSONArray();
+        int frameChars = 0;
+        long lastSeq = pushedSeq;
+        for (ChangeLog.Change change : changes) {
+            JSONObject entry = entriesById.get(change.getUniqueId());
+            String text = entry != null ? store.readVerifiedText(entry) : null;
+            if (entry != null && text == null) {
+                // Saved again while being read, or damaged: the cursor must not pass it, so stop here
+                // and let the next sync start again from this change
+                report.setPushStoppedAt(change.getUniqueId());
+                break;
+            }
+            JSONObject wireChange = toWireChange(change.getUniqueId(), entry, text);
+            if (wireChange != null) {
+                frameChanges.put(wireChange);
+                frameChars += wireChange.toString().length();
+            }
+            lastSeq = change.getSeq();
+
+            if (frameChanges.length() >= MAX_CHANGES_PER_FRAME || frameChars >= MAX_FRAME_CHARS) {
+                frames.add(encodeFrame(deviceId, frameChanges, report));
+                frameChanges = new JSONArray();
+                frameChars = 0;
+                if (frames.size() >= FRAMES_PER_ROUND_TRIP) {
+                    sendFrames(deviceId, frames, report);
+                    changeLog.setPushedSeq(lastSeq);
+                    pushedSeq = lastSeq;
+                    frames.clear();
+                }
+            }
+        }
+        if (frameChanges.length() > 0) {
+            frames.add(encodeFrame(deviceId, frameChanges, report));
+        }
+        if (!frames.isEmpty()) {
+            sendFrames(deviceId, frames, report);
+        }
+        if (lastSeq != pushedSeq) {
+            changeLog.setPushedSeq(lastSeq);
+        }
+    }
+
+    private void sendFrames(String deviceId, List<byte[]> frames, SyncReport report) throws IOException {
+        long roundTripStart = System.nanoTime();
+        transport.push(deviceId, frames);
+        report.addRoundTrip(System.nanoTime() - roundTripStart);
+    }
+
+    /**
+     * Builds the change sent for an entry: its current fields and full text, or a delete with the
+     * tombstone's version if it no longer exists.
+     * @param entry The entry's header, or null if it no longer exists.
+     * @param text The entry's verified text, see DiaryStore.readVerifiedText().
+     * @return The change, or null if there is nothing to send.
+     */
+    private JSONObject toWireChange(long uniqueId, JSONObject entry, String text) throws IOException, JSONException {
+        JSONObject change = new JSONObject();
+        change.put("id", uniqueId);
+        if (entry != null) {
+            JSONObject fields = new JSONObject();
+            Iterator<String> keys = entry.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (!LOCAL_KEYS.contains(key)) {
+                    fields.put(key, entry.opt(key));
+                }
+            }
+            change.put("at", modifiedAtOf(entry));
+            change.put("by", modifiedByOf(entry));
+            change.put("fields", fields);
+            change.put("text", text);
+            return change;
+        }
+        ChangeLog.Tombstone tombstone = changeLog.getTombstone(uniqueId);
+        if (tombstone == null) {
+            return null;
+        }
+        change.put("at", tombstone.getModifiedAt());
+        change.put("by", tombstone.getModifiedBy());
+        change.put("deleted", true);
+        return change;
+    }
+
+    /**
+     * Applies pulled changes in a single write of the entry headers, and passes just the applied
+     * ones on to the summary table, its filter index and the stats.
+     * A change is only applied if it is newer than the local entry or tombstone.
+     */
+    private void applyChanges(List<JSONObject> changes, SyncReport report) throws IOException, JSONException {
+        store.lockForUpdate();
+        try {
+            Map<Long, JSONObject> entriesById = indexById(store.readEntries());
+            Set<Long> changedHere = new HashSet<>();
+            for (ChangeLog.Change change : changeLog.readSince(changeLog.getPushedSeq())) {
+                changedHere.add(change.getUniqueId());
+            }
+
+            Map<Long, ChangeLog.Tombstone> addedTombstones = new HashMap<>();
+            List<Long> removedTombstones = new ArrayList<>();
+            Map<Long, EntrySummary> putSummaries = new LinkedHashMap<>();
+            Set<Long> removedIds = new HashSet<>();
+            int applied = 0;
+            for (JSONObject change : changes) {
+                long uniqueId = change.getLong("id");
+                long modifiedAt = change.getLong("at");
+                String modifiedBy = change.getString("by");
+                boolean deleted = change.optBoolean("deleted", false);
+
+                // Compare against the local entry, or the local tombstone if it was deleted here
+                JSONObject local = entriesById.get(uniqueId);
+                ChangeLog.Tombstone tombstone = addedTombstones.get(uniqueId);
+                if (local == null && tombstone == null && !removedTombstones.contains(uniqueId)) {
+                    tombstone = changeLog.getTombstone(uniqueId);
+                }
+                int comparison = 1;
+                if (local != null) {
+                    comparison = compareVersions(modifiedAt, modifiedBy, deleted, modifiedAtOf(local), modifiedByOf(local), false);
+                } else if (tombstone != null) {
+                    comparison = compareVersions(modifiedAt, modifiedBy, deleted,
+                            tombstone.getModifiedAt(), tombstone.getModifiedBy(), true);
+                }
+                if (comparison != 0 && changedHere.contains(uniqueId)) {
+                    report.addConflicts(1); // Changed on both sides since the last sync
+                }
+                if (comparison <= 0) {
+                    continue; // The local version is newer, or the same
+                }
+
+                if (deleted) {
+                    entriesById.remove(uniqueId);
+                    addedTombstones.put(uniqueId, new ChangeLog.Tombstone(uniqueId, modifiedAt, modifiedBy));
+                    putSummaries.remove(uniqueId);
+                    removedIds.add(uniqueId);
+                } else {
+                    JSONObject entry = new JSONObject();
+                    JSONObject fields = change.getJSONObject("fields");
+                    Iterator<String> keys = fields.keys();
+                    while (keys.hasNext()) {
+                        String key = keys.next();
+                        if (!LOCAL_KEYS.contains(key)) {
+                            entry.put(key, fields.opt(key));
+                        }
+                    }
+                    entry.put(DiaryStore.KEY_UNIQUE_ID, uniqueId);
+                    entry.put(DiaryStore.KEY_MODIFIED_AT, modifiedAt);
+                    entry.put(DiaryStore.KEY_MODIFIED_BY, modifiedBy);
+                    store.putText(entry, change.getString("text"));
+                    entriesById.put(uniqueId, entry);
+                    putSummaries.put(uniqueId, EntrySummary.fromHeader(entry));
+                    removedIds.remove(uniqueId);
+                    if (addedTombstones.remove(uniqueId) == null && tombstone != null) {
+                        removedTombstones.add(uniqueId); // Edited elsewhere after it was deleted here
+                    }
+                }
+                applied++;
+            }
+
+            if (applied > 0) {
+                JSONArray entries = new JSONArray();
+                for (JSONObject entry : entriesById.values()) {
+                    entries.put(entry);
+                }
+                store.writeEntries(entries); // Also removes the bodies of deleted and replaced entries
+                store.getSummaryTable().update(new ArrayList<>(putSummaries.values()), removedIds);
+                changeLog.updateTombstones(addedTombstones.values(), removedTombstones);
+                report.addApplied(applied);
+            }
+        } finally {
+            store.unlockForUpdate();
+        }
+    }
+
+    private static Map<Long, JSONObject> indexById(JSONArray entries) throws JSONException {
+        Map<Long, JSONObject> entriesById = new LinkedHashMap<>();
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            entriesById.put(entry.getLong(DiaryStore.KEY_UNIQUE_ID), entry);
+        }
+        return entriesById;
+    }
+
+    private byte[] encodeFrame(String deviceId, JSONArray changes, SyncReport report) throws IOException, JSONException {
+        JSONObject frame = new JSONObject();
+        frame.put("version", FRAME_VERSION);
+        frame.put("origin", deviceId);
+        frame.put("changes", changes);
+        byte[] raw = frame.toString().getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater);
+            out.write(raw);
+            out.close();
+        } finally {
+            deflater.end();
+        }
+        byte[] wire = frameCipher.encrypt(compressed.toByteArray());
+        report.addSent(changes.length(), raw.length, wire.length);
+        return wire;
+    }
+
+    private byte[] decodeFrame(byte[] frame) throws IOException {
+        if (RecordCipher.keyIdOf(frame) == -1) {
+            throw new IOException("Received an unencrypted sync frame");
+        }
+        InputStream in = new InflaterInputStream(new ByteArrayInputStream(frameCipher.decrypt(frame)));
+        try {
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                raw.write(buffer, 0, n);
+            }
+            return raw.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
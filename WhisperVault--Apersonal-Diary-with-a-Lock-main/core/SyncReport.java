@@ -0,0 +1,154 @@
+// SyncReport.java
+package com.example.madproject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Bandwidth and latency of one SyncEngine.sync() call, and what it changed.
+ */
+public class SyncReport {
+
+    private int changesSent; // Entries pushed (created, updated or deleted here)
+    private int changesReceived; // Entries pulled from other devices
+    private int changesApplied; // Pulled entries that replaced or removed the local copy
+    private int conflicts; // Pulled entries that had also been changed here; the newer version won
+    private int framesSent;
+    private int framesReceived;
+    private long bytesSent; // Frame bytes on the wire (compressed and encrypted)
+    private long bytesReceived;
+    private long rawBytesSent; // The same frames before compression
+    private long rawBytesReceived;
+    private final List<Long> roundTripNanos = new ArrayList<>();
+    private long elapsedNanos;
+    private long pushStoppedAt = -1; // Entry whose text could not be read, or -1 if the push finished
+
+    void addSent(int changes, long rawBytes, long wireBytes) {
+        changesSent += changes;
+        framesSent++;
+        rawBytesSent += rawBytes;
+        bytesSent += wireBytes;
+    }
+
+    void addReceived(int changes, long rawBytes, long wireBytes) {
+        changesReceived += changes;
+        framesReceived++;
+        rawBytesReceived += rawBytes;
+        bytesReceived += wireBytes;
+    }
+
+    void addApplied(int count) {
+        changesApplied += count;
+    }
+
+    void addConflicts(int count) {
+        conflicts += count;
+    }
+
+    void addRoundTrip(long nanos) {
+        roundTripNanos.add(nanos);
+    }
+
+    void setElapsedNanos(long nanos) {
+        elapsedNanos = nanos;
+    }
+
+    void setPushStoppedAt(long uniqueId) {
+        pushStoppedAt = uniqueId;
+    }
+
+    public int getChangesSent() {
+        return changesSent;
+    }
+
+    public int getChangesReceived() {
+        return changesReceived;
+    }
+
+    public int getChangesApplied() {
+        return changesApplied;
+    }
+
+    public int getConflicts() {
+        return conflicts;
+    }
+
+    public int getFramesSent() {
+        return framesSent;
+    }
+
+    public int getFramesReceived() {
+        return framesReceived;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getRawBytesSent() {
+        return rawBytesSent;
+    }
+
+    public long getRawBytesReceived() {
+        return rawBytesReceived;
+    }
+
+    public int getRoundTrips() {
+        return roundTripNanos.size();
+    }
+
+    /**
+     * Returns the median time of one push or pull, in milliseconds.
+     */
+    public double getMedianRoundTripMillis() {
+        if (roundTripNanos.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<>(roundTripNanos);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2) / 1_000_000.0;
+    }
+
+    public double getMaxRoundTripMillis() {
+        return roundTripNanos.isEmpty() ? 0 : Collections.max(roundTripNanos) / 1_000_000.0;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedNanos / 1_000_000;
+    }
+
+    /**
+     * Returns false if the push stopped at an entry whose text could not be read: it was saved again
+     * while being read, or its body is damaged. Nothing from that entry on was sent; the next sync
+     * starts again from it, and keeps stopping there until IntegrityScanner has dealt with a damaged body.
+     */
+    public boolean isPushComplete() {
+        return pushStoppedAt == -1;
+    }
+
+    /**
+     * Returns the unique ID of the entry the push stopped at, or -1 if it finished.
+     */
+    public long getPushStoppedAt() {
+        return pushStoppedAt;
+    }
+
+    /**
+     * Returns a one-line summary for logs and benchmarks.
+     */
+    public String describe() {
+        String summary = String.format(Locale.US,
+                "Sent %d changes in %d frames (%d bytes, %d raw), received %d changes in %d frames (%d bytes, %d raw), "
+                        + "applied %d, conflicts %d, %d round trips (median %.1f ms, max %.1f ms), %d ms total.",
+                changesSent, framesSent, bytesSent, rawBytesSent, changesReceived, framesReceived, bytesReceived,
+                rawBytesReceived, changesApplied, conflicts, getRoundTrips(), getMedianRoundTripMillis(),
+                getMaxRoundTripMillis(), getElapsedMillis());
+        return isPushComplete() ? summary : summary + " Push stopped at unreadable entry " + pushStoppedAt + ".";
+    }
+}
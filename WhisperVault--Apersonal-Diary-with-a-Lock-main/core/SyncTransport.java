@@ -0,0 +1,59 @@
+// SyncTransport.java
+package com.example.madproject;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Connection to the sync server. The server only relays frames: it orders them, keeps them,
+ * and hands each device the frames written by the other devices. It never sees an entry,
+ * since frames are encrypted by SyncEngine before they are pushed.
+ */
+public interface SyncTransport {
+
+    /**
+     * Frames written by other devices, returned by pull().
+     */
+    class Pull {
+        private final List<byte[]> frames;
+        private final long cursor;
+        private final boolean hasMore;
+
+        public Pull(List<byte[]> frames, long cursor, boolean hasMore) {
+            this.frames = frames;
+            this.cursor = cursor;
+            this.hasMore = hasMore;
+        }
+
+        public List<byte[]> getFrames() {
+            return frames;
+        }
+
+        /**
+         * Server position to pass to the next pull() once these frames have been applied.
+         */
+        public long getCursor() {
+            return cursor;
+        }
+
+        public boolean hasMore() {
+            return hasMore;
+        }
+    }
+
+    /**
+     * Returns the salt the paired devices derive the frame cipher with. The first device to ask
+     * proposes a random one, which the server keeps for every device after it.
+     */
+    byte[] pairingSalt(byte[] proposedSalt) throws IOException;
+
+    /**
+     * Stores frames written by this device, in order. Returns once the server has kept them.
+     */
+    void push(String deviceId, List<byte[]> frames) throws IOException;
+
+    /**
+     * Returns up to maxFrames frames written by other devices after the given server position.
+     */
+    Pull pull(String deviceId, long cursor, int maxFrames) throws IOException;
+}
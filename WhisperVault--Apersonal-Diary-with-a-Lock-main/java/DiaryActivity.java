@@ -2,7 +2,6 @@
 package com.example.madproject; // Corrected package name based on user's path
 
 import android.Manifest;
-import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.res.TypedArray; // Import for TypedArray
@@ -15,6 +14,7 @@ import android.util.Log;
 import android.util.TypedValue; // Import for TypedValue
 import android.view.Gravity;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageView;
@@ -28,18 +28,19 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class DiaryActivity extends AppCompatActivity {
 
@@ -47,16 +48,41 @@ public class DiaryActivity extends AppCompatActivity {
 
     // UI elements declaration
     private EditText newEntryInput;
+    private EditText newEntryTagsInput;
+    private EditText newEntryMoodInput;
     private Button saveEntryButton;
     private Button addImageButton;
     private ImageView selectedImageView;
     private LinearLayout pastEntriesContainer; // Container for dynamically added entries
+    private EditText filterInput; // e.g. "tag:travel AND mood:happy AND 2024"
 
     // URI of the currently selected image
     private Uri selectedImageUri;
 
-    // File name for storing diary entries (now in JSON format)
-    private static final String DIARY_FILE_NAME = "diary_entries.json";
+    // Store for entry headers and chunked entry bodies, and the entry operations on top of it
+    private DiaryStore diaryStore;
+    private DiaryRepository diaryRepository;
+    private IntegrityScanner integrityScanner;
+
+    // Span of the activity heatmap and the words per month on the insights dialog
+    private static final int HEATMAP_WEEKS = 12;
+    private static final int INSIGHT_MONTHS = 6;
+
+    // Number of entries read from the summary table per page of the list
+    private static final int PAGE_SIZE = 30;
+    private int loadedEntryCount; // Entries currently shown in the list
+    private Button showOlderButton; // Appended below the last row while older entries remain
+    private EntryFilterIndex.Match currentFilter; // Entries matching filterInput, or null to show all
+    private int loadGeneration; // Bumped by every loadDiaryEntries(), so only the latest load is shown
+
+    // Reads the first page of the list off the main thread (and rebuilds the summary table if needed)
+    private static final ExecutorService listExecutor = Executors.newSingleThreadExecutor();
+
+    // Resource of the theme's selectableItemBackground, resolved once for all rows; 0 until then
+    private int selectableItemBackgroundId;
+
+    // Formats summary times the same way entry timestamps are written on save
+    private final SimpleDateFormat rowDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.getDefault());
 
     // ActivityResultLauncher for picking images from gallery
     private ActivityResultLauncher<Intent> pickImageLauncher;
@@ -74,10 +100,50 @@ public class DiaryActivity extends AppCompatActivity {
 
         // Initialize UI elements
         newEntryInput = findViewById(R.id.newEntryInput);
+        newEntryTagsInput = findViewById(R.id.newEntryTagsInput);
+        newEntryMoodInput = findViewById(R.id.newEntryMoodInput);
         saveEntryButton = findViewById(R.id.saveEntryButton);
         addImageButton = findViewById(R.id.addImageButton);
         selectedImageView = findViewById(R.id.selectedImageView);
         pastEntriesContainer = findViewById(R.id.pastEntriesContainer);
+        filterInput = findViewById(R.id.filterInput);
+
+        diaryStore = DiaryStore.getInstance(getFilesDir());
+        if (!diaryStore.isUnlocked()) {
+            // The process was restarted without going through the PIN screen, the entries cannot be read
+            startActivity(new Intent(this, MainActivity.class));
+            finish();
+            return;
+        }
+        diaryRepository = new DiaryRepository(diaryStore);
+
+        // Verifies checksums of all records in the background while the diary is open and idle
+        integrityScanner = new IntegrityScanner(diaryStore, new IntegrityScanner.Listener() {
+            @Override
+            public void onScanFinished(IntegrityReport report) {
+                Log.d(TAG, "Integrity scan finished. Records checked: " + report.getRecordsChecked()
+                        + ", quarantined: " + report.getQuarantinedCount());
+                try {
+                    // Still on the scanner thread, so the full check of the insights totals can take its time
+                    if (!diaryRepository.checkStats()) {
+                        Log.w(TAG, "Insights totals did not match the entries and have been rebuilt.");
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Insights check failed: " + e.getMessage(), e);
+                }
+                if (report.hasRepairs()) {
+                    runOnUiThread(() -> {
+                        loadDiaryEntries(); // Damaged entries are gone from the list now
+                        showRepairReport(report);
+                    });
+                }
+            }
+
+            @Override
+            public void onScanFailed(Exception e) {
+                Log.e(TAG, "Integrity scan failed: " + e.getMessage(), e);
+            }
+        });
 
         // Initialize pickImageLauncher for selecting new images
         pickImageLauncher = registerForActivityResult(
@@ -155,6 +221,39 @@ public class DiaryActivity extends AppCompatActivity {
         // Set up button click listeners
         saveEntryButton.setOnClickListener(v -> saveDiaryEntry());
         addImageButton.setOnClickListener(v -> checkAndRequestPermission());
+        findViewById(R.id.applyFilterButton).setOnClickListener(v -> loadDiaryEntries());
+        findViewById(R.id.insightsButton).setOnClickListener(v -> showInsights());
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        integrityScanner.start(); // Resume verifying the diary while the user is reading it
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        integrityScanner.stop();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (diaryRepository != null) {
+            listExecutor.execute(this::flushRepository); // Persist the list tables before the process may be killed
+        }
+    }
+
+    /**
+     * Writes the changes the summary table keeps in memory to disk. Runs on listExecutor.
+     */
+    private void flushRepository() {
+        try {
+            diaryRepository.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing the summary table: " + e.getMessage(), e); // Rebuilt on the next start
+        }
     }
 
     /**
@@ -226,191 +325,382 @@ public class DiaryActivity extends AppCompatActivity {
             return;
         }
 
-        // Get current date and time
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.getDefault());
-        String currentDate = sdf.format(new Date());
-        long uniqueId = System.currentTimeMillis(); // Generate a unique ID based on timestamp for each entry
+        final String imageUri = selectedImageUri != null ? selectedImageUri.toString() : null;
+        final List<String> tags = DiaryRepository.splitTags(newEntryTagsInput.getText().toString());
+        final String mood = newEntryMoodInput.getText().toString();
+        saveEntryButton.setEnabled(false); // No second save of the same text while this one runs
 
-        try {
-            JSONArray existingEntries = new JSONArray();
-            // Attempt to read existing entries from the file
+        // Written on listExecutor, so the loads queued behind it see the new entry
+        listExecutor.execute(() -> {
             try {
-                FileInputStream fis = openFileInput(DIARY_FILE_NAME);
-                InputStreamReader isr = new InputStreamReader(fis);
-                BufferedReader br = new BufferedReader(isr);
-                StringBuilder jsonString = new StringBuilder();
-                String line;
-                while ((line = br.readLine()) != null) {
-                    jsonString.append(line);
-                }
-                br.close();
-                if (jsonString.length() > 0) {
-                    existingEntries = new JSONArray(jsonString.toString());
-                    Log.d(TAG, "Successfully read existing entries. Count: " + existingEntries.length());
-                } else {
-                    Log.d(TAG, "Existing diary file is empty. Starting with new JSONArray.");
-                }
+                JSONObject newEntry = diaryRepository.createEntry(entryText, imageUri, tags, mood);
+                Log.d(TAG, "New entry created: " + newEntry.toString(2)); // Log with indentation for readability
+                runOnUiThread(() -> {
+                    if (isDestroyed()) {
+                        return;
+                    }
+                    saveEntryButton.setEnabled(true);
+                    Toast.makeText(this, "Entry saved successfully!", Toast.LENGTH_SHORT).show();
+                    newEntryInput.setText(""); // Clear text input
+                    newEntryTagsInput.setText("");
+                    newEntryMoodInput.setText("");
+                    selectedImageView.setVisibility(View.GONE); // Hide image preview
+                    selectedImageView.setImageURI(null); // Clear image display
+                    selectedImageUri = null; // Clear selected URI
+
+                    loadDiaryEntries(); // Reload entries to show the newly saved one in the list
+                });
             } catch (Exception e) {
-                Log.e(TAG, "Error reading existing diary file (might be first save): " + e.getMessage());
-                // File might not exist or be empty, which is fine for the first entry.
-                // existingEntries remains an empty JSONArray.
+                Log.e(TAG, "CRITICAL: Error saving diary entry: " + e.getMessage(), e);
+                runOnUiThread(() -> {
+                    if (!isDestroyed()) {
+                        saveEntryButton.setEnabled(true); // Keep the text so the user can try again
+                        Toast.makeText(this, "Error saving entry: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                    }
+                });
             }
+        });
+    }
 
-            // Create a JSONObject for the new entry
-            JSONObject newEntry = new JSONObject();
-            newEntry.put("uniqueId", uniqueId); // Store the unique ID
-            newEntry.put("timestamp", currentDate);
-            newEntry.put("text", entryText);
-            if (selectedImageUri != null) {
-                newEntry.put("imageUri", selectedImageUri.toString());
+    /**
+     * Loads and displays the newest diary entries from the summary table.
+     * Only the first page of summaries is read, so the first screen never parses the entry
+     * headers or touches entry bodies. If the table is missing or out of sync (first run after
+     * an upgrade, or a save interrupted by a crash) it is rebuilt from the headers first.
+     * If the filter field is not empty, only the entries matching it are shown.
+     * The reading happens on listExecutor, so the screen is drawn without waiting for it.
+     */
+    private void loadDiaryEntries() {
+        Log.d(TAG, "Attempting to load diary entries.");
+        final int generation = ++loadGeneration;
+        final String filter = filterInput.getText().toString().trim();
+        loadedEntryCount = 0;
+        showListMessage("Loading entries...");
+
+        listExecutor.execute(() -> {
+            try {
+                if (diaryRepository.prepareList()) {
+                    Log.d(TAG, "Summary table was out of sync and has been rebuilt from the entry headers.");
+                }
+                IntegrityReport repairs = diaryStore.takeRepairReport();
+                EntryFilterIndex.Match match = filter.isEmpty() ? null : diaryRepository.filterEntries(filter);
+                int listed = match != null && !match.matchesAll() ? match.count() : diaryRepository.countEntries();
+                List<EntrySummary> firstPage = listed == 0
+                        ? Collections.<EntrySummary>emptyList()
+                        : match != null
+                                ? diaryRepository.readPage(0, PAGE_SIZE, match)
+                                : diaryRepository.readPage(0, PAGE_SIZE);
+                runOnUiThread(() -> showFirstPage(generation, match, listed, firstPage, repairs));
+            } catch (Exception e) {
+                Log.e(TAG, "CRITICAL: Error loading diary entries: " + e.getMessage(), e);
+                runOnUiThread(() -> {
+                    if (generation == loadGeneration && !isDestroyed()) {
+                        currentFilter = null;
+                        // Not "No entries yet": that would hide a diary that exists but cannot be read
+                        showListMessage("Could not read the diary: " + e.getMessage());
+                    }
+                });
             }
-            Log.d(TAG, "New entry created: " + newEntry.toString(2)); // Log with indentation for readability
-
-            existingEntries.put(newEntry); // Add the new entry to the existing array
-
-            // Write the updated JSON array back to the file
-            FileOutputStream fos = openFileOutput(DIARY_FILE_NAME, Context.MODE_PRIVATE);
-            OutputStreamWriter osw = new OutputStreamWriter(fos);
-            osw.write(existingEntries.toString(4)); // Use 4 for indentation for readability
-            osw.flush();
-            osw.close();
-            Log.d(TAG, "Diary file written successfully. Total entries: " + existingEntries.length());
-
-            Toast.makeText(this, "Entry saved successfully!", Toast.LENGTH_SHORT).show();
-            newEntryInput.setText(""); // Clear text input
-            selectedImageView.setVisibility(View.GONE); // Hide image preview
-            selectedImageView.setImageURI(null); // Clear image display
-            selectedImageUri = null; // Clear selected URI
-
-            loadDiaryEntries(); // Reload entries to show the newly saved one in the list
-        } catch (Exception e) {
-            Log.e(TAG, "CRITICAL: Error saving diary entry: " + e.getMessage(), e);
-            Toast.makeText(this, "Error saving entry: " + e.getMessage(), Toast.LENGTH_LONG).show();
+        });
+    }
+
+    /**
+     * Shows the first page read by loadDiaryEntries(), unless a newer load has started since.
+     */
+    private void showFirstPage(int generation, EntryFilterIndex.Match match, int listed, List<EntrySummary> firstPage,
+                               IntegrityReport repairs) {
+        if (generation != loadGeneration || isDestroyed()) {
+            return;
+        }
+        if (repairs != null && repairs.hasRepairs()) {
+            showRepairReport(repairs); // Damaged records were found while reading the headers
+        }
+        currentFilter = match;
+        pastEntriesContainer.removeAllViews();
+        if (listed == 0) { // If there are no entries (e.g., all deleted)
+            displayNoEntriesMessage();
+        } else {
+            appendPage(firstPage, listed);
         }
+        endTraceOnNextFrame(StartupTrace.UNLOCK_TO_FIRST_ENTRY); // Only counts right after unlocking
     }
 
     /**
-     * Loads and displays all existing diary entries from the JSON file.
-     * Dynamically creates and adds LinearLayouts for each entry to pastEntriesContainer.
+     * Appends the next page of entries to the list, followed by a "Show older entries" button
+     * if there are more entries left in the summary table. The page is read on listExecutor.
      */
-    private void loadDiaryEntries() {
-        Log.d(TAG, "Attempting to load diary entries.");
-        pastEntriesContainer.removeAllViews(); // Clear existing views before loading new ones
+    private void loadNextPage() {
+        final int generation = loadGeneration;
+        final int offset = loadedEntryCount;
+        final EntryFilterIndex.Match filter = currentFilter;
+        showOlderButton.setEnabled(false); // One page at a time
 
-        try {
-            FileInputStream fis = openFileInput(DIARY_FILE_NAME);
-            InputStreamReader isr = new InputStreamReader(fis);
-            BufferedReader br = new BufferedReader(isr);
-            StringBuilder jsonString = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) {
-                jsonString.append(line);
+        listExecutor.execute(() -> {
+            try {
+                List<EntrySummary> page = filter != null
+                        ? diaryRepository.readPage(offset, PAGE_SIZE, filter)
+                        : diaryRepository.readPage(offset, PAGE_SIZE);
+                int listed = countListedEntries(filter);
+                runOnUiThread(() -> {
+                    showOlderButton.setEnabled(true);
+                    // Dropped if the list was reloaded meanwhile
+                    if (generation == loadGeneration && offset == loadedEntryCount && !isDestroyed()) {
+                        appendPage(page, listed);
+                    }
+                });
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading more diary entries: " + e.getMessage(), e);
+                runOnUiThread(() -> {
+                    showOlderButton.setEnabled(true);
+                    if (!isDestroyed()) {
+                        Toast.makeText(this, "Error loading older entries.", Toast.LENGTH_SHORT).show();
+                    }
+                });
             }
-            br.close();
-            Log.d(TAG, "Raw JSON string read: " + jsonString.toString());
+        });
+    }
 
-            if (jsonString.length() > 0) {
-                JSONArray entriesArray = new JSONArray(jsonString.toString());
-                Log.d(TAG, "Parsed JSON array. Number of entries: " + entriesArray.length());
+    /**
+     * Adds the rows of a page, and the "Show older entries" button if fewer than listed entries are shown.
+     */
+    private void appendPage(List<EntrySummary> page, int listed) {
+        if (showOlderButton != null) {
+            pastEntriesContainer.removeView(showOlderButton);
+        }
+        Log.d(TAG, "Read summary page at offset " + loadedEntryCount + ". Entries: " + page.size());
+        for (EntrySummary summary : page) {
+            addEntryRow(summary);
+        }
+        loadedEntryCount += page.size();
 
-                if (entriesArray.length() == 0) { // If array is empty after parsing (e.g., all deleted)
-                    displayNoEntriesMessage();
-                    return; // Exit if no entries to display
-                }
+        if (loadedEntryCount < listed) {
+            if (showOlderButton == null) {
+                showOlderButton = new Button(this);
+                showOlderButton.setText("Show older entries");
+                showOlderButton.setOnClickListener(v -> loadNextPage());
+            }
+            pastEntriesContainer.addView(showOlderButton);
+        }
+    }
 
-                // Iterate through entries in reverse to show latest first
-                for (int i = entriesArray.length() - 1; i >= 0; i--) {
-                    JSONObject entry = entriesArray.getJSONObject(i);
-                    long uniqueId = entry.getLong("uniqueId"); // Retrieve unique ID
-                    String timestamp = entry.getString("timestamp");
-                    String text = entry.getString("text");
-                    String imageUriString = entry.optString("imageUri", null); // Get image URI if it exists
-                    Log.d(TAG, "Processing entry (ID: " + uniqueId + "): Text='" + text + "', ImageURI='" + (imageUriString != null ? "present" : "absent") + "'");
-
-                    // Create a new LinearLayout for each entry
-                    LinearLayout entryLayout = new LinearLayout(this);
-                    entryLayout.setOrientation(LinearLayout.VERTICAL);
-                    LinearLayout.LayoutParams layoutParams = new LinearLayout.LayoutParams(
-                            LinearLayout.LayoutParams.MATCH_PARENT,
-                            LinearLayout.LayoutParams.WRAP_CONTENT
-                    );
-                    layoutParams.setMargins(0, 0, 0, 24); // Add margin between entries
-                    entryLayout.setLayoutParams(layoutParams);
-                    entryLayout.setBackgroundResource(R.drawable.rounded_entry_background); // Custom drawable for entry background
-                    entryLayout.setPadding(16, 16, 16, 16);
-                    entryLayout.setClickable(true); // Make the entry clickable
-                    entryLayout.setFocusable(true); // Make the entry focusable
-
-                    // Resolve selectableItemBackground attribute to get the actual drawable ID
-                    TypedValue outValue = new TypedValue();
-                    getTheme().resolveAttribute(android.R.attr.selectableItemBackground, outValue, true);
-                    entryLayout.setForeground(ContextCompat.getDrawable(this, outValue.resourceId)); // Corrected line
-
-                    entryLayout.setTag(entry.toString()); // Store the entry's JSON string in the tag for easy retrieval when clicked
-
-                    // Set click listener to open EntryDetailActivity
-                    entryLayout.setOnClickListener(v -> {
-                        String entryJsonStringClicked = (String) v.getTag();
-                        Intent intent = new Intent(DiaryActivity.this, EntryDetailActivity.class);
-                        intent.putExtra("entryJson", entryJsonStringClicked); // Pass the entry's JSON string
-                        editEntryLauncher.launch(intent); // Use the launcher to start activity and get a result
-                    });
+    /**
+     * Ends a startup span right before the next frame is drawn, i.e. once the rows just added are on screen.
+     */
+    private void endTraceOnNextFrame(String span) {
+        View root = getWindow().getDecorView();
+        root.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                root.getViewTreeObserver().removeOnPreDrawListener(this);
+                StartupTrace.end(span);
+                return true;
+            }
+        });
+    }
 
-                    // Add timestamp TextView
-                    TextView timestampTextView = new TextView(this);
-                    timestampTextView.setText(timestamp);
-                    timestampTextView.setTextSize(14f);
-                    timestampTextView.setTextColor(ContextCompat.getColor(this, R.color.dark_gray_text));
-                    timestampTextView.setPadding(0, 0, 0, 8);
-                    entryLayout.addView(timestampTextView);
-
-                    // Add text content TextView if not empty
-                    if (!TextUtils.isEmpty(text)) {
-                        TextView entryTextView = new TextView(this);
-                        entryTextView.setText(text);
-                        entryTextView.setTextSize(16f);
-                        entryTextView.setTextColor(ContextCompat.getColor(this, R.color.black_text));
-                        entryTextView.setPadding(0, 0, 0, 8);
-                        entryLayout.addView(entryTextView);
-                    }
+    /**
+     * Returns the number of entries the list shows: all of them, or those matching the filter.
+     */
+    private int countListedEntries(EntryFilterIndex.Match filter) throws IOException {
+        return filter != null && !filter.matchesAll()
+                ? filter.count()
+                : diaryRepository.countEntries();
+    }
 
-                    // Add ImageView if an image URI exists
-                    if (imageUriString != null && !imageUriString.isEmpty()) {
-                        ImageView entryImageView = new ImageView(this);
-                        LinearLayout.LayoutParams imageLayoutParams = new LinearLayout.LayoutParams(
-                                LinearLayout.LayoutParams.MATCH_PARENT,
-                                300 // Fixed height for displayed images in the list view
-                        );
-                        imageLayoutParams.setMargins(0, 8, 0, 0); // Margin above image
-                        entryImageView.setLayoutParams(imageLayoutParams);
-                        entryImageView.setScaleType(ImageView.ScaleType.CENTER_CROP);
-                        try {
-                            entryImageView.setImageURI(Uri.parse(imageUriString)); // Load image from URI
-                            Log.d(TAG, "Image loaded for entry ID: " + uniqueId);
-                        } catch (SecurityException e) {
-                            // This can happen if URI permission was not persisted or revoked
-                            Log.e(TAG, "SecurityException loading image for URI: " + imageUriString + ". Error: " + e.getMessage());
-                            entryImageView.setImageDrawable(null); // Clear image if permission denied
-                            Toast.makeText(DiaryActivity.this, "Failed to load image (permission issue).", Toast.LENGTH_SHORT).show();
-                        } catch (Exception e) {
-                            Log.e(TAG, "Error loading image for URI: " + imageUriString + ", " + e.getMessage());
-                            entryImageView.setImageDrawable(null); // Clear image if other error
-                            Toast.makeText(DiaryActivity.this, "Failed to load image for an entry.", Toast.LENGTH_SHORT).show();
-                        }
-                        entryLayout.addView(entryImageView);
+    /**
+     * Creates a LinearLayout for one entry summary and adds it to pastEntriesContainer.
+     */
+    private void addEntryRow(EntrySummary summary) {
+        long uniqueId = summary.getUniqueId();
+        String timestamp = rowDateFormat.format(new Date(summary.getEpochTime()));
+        String preview = summary.getPreview(); // Bounded preview, independent of entry length
+        int wordCount = summary.getWordCount();
+        String imageUriString = summary.getThumbnailKey(); // Image URI if the entry has one
+        Log.d(TAG, "Processing entry (ID: " + uniqueId + "): Words=" + wordCount + ", ImageURI='" + (summary.hasAttachment() ? "present" : "absent") + "'");
+
+        // Create a new LinearLayout for each entry
+        LinearLayout entryLayout = new LinearLayout(this);
+        entryLayout.setOrientation(LinearLayout.VERTICAL);
+        LinearLayout.LayoutParams layoutParams = new LinearLayout.LayoutParams(
+                LinearLayout.LayoutParams.MATCH_PARENT,
+                LinearLayout.LayoutParams.WRAP_CONTENT
+        );
+        layoutParams.setMargins(0, 0, 0, 24); // Add margin between entries
+        entryLayout.setLayoutParams(layoutParams);
+        entryLayout.setBackgroundResource(R.drawable.rounded_entry_background); // Custom drawable for entry background
+        entryLayout.setPadding(16, 16, 16, 16);
+        entryLayout.setClickable(true); // Make the entry clickable
+        entryLayout.setFocusable(true); // Make the entry focusable
+
+        // Resolve selectableItemBackground attribute to get the actual drawable ID, once for all rows.
+        // Each row still needs its own drawable, since drawables keep their pressed state.
+        if (selectableItemBackgroundId == 0) {
+            TypedValue outValue = new TypedValue();
+            getTheme().resolveAttribute(android.R.attr.selectableItemBackground, outValue, true);
+            selectableItemBackgroundId = outValue.resourceId;
+        }
+        entryLayout.setForeground(ContextCompat.getDrawable(this, selectableItemBackgroundId));
+
+        entryLayout.setTag(uniqueId); // Store the entry's unique ID in the tag for easy retrieval when clicked
+
+        // Set click listener to open EntryDetailActivity
+        entryLayout.setOnClickListener(v -> {
+            long uniqueIdClicked = (Long) v.getTag();
+            Intent intent = new Intent(DiaryActivity.this, EntryDetailActivity.class);
+            intent.putExtra("entryId", uniqueIdClicked); // The detail screen loads the header itself
+            editEntryLauncher.launch(intent); // Use the launcher to start activity and get a result
+        });
+
+        // Add timestamp TextView
+        TextView timestampTextView = new TextView(this);
+        timestampTextView.setText(timestamp);
+        timestampTextView.setTextSize(14f);
+        timestampTextView.setTextColor(ContextCompat.getColor(this, R.color.dark_gray_text));
+        timestampTextView.setPadding(0, 0, 0, 8);
+        entryLayout.addView(timestampTextView);
+
+        // Add text preview and word count TextViews if not empty
+        if (!TextUtils.isEmpty(preview)) {
+            TextView entryTextView = new TextView(this);
+            entryTextView.setText(summary.isPreviewTruncated() ? preview + "\u2026" : preview);
+            entryTextView.setTextSize(16f);
+            entryTextView.setTextColor(ContextCompat.getColor(this, R.color.black_text));
+            entryTextView.setPadding(0, 0, 0, 8);
+            entryLayout.addView(entryTextView);
+
+            TextView wordCountTextView = new TextView(this);
+            wordCountTextView.setText(wordCount == 1 ? "1 word" : wordCount + " words");
+            wordCountTextView.setTextSize(12f);
+            wordCountTextView.setTextColor(ContextCompat.getColor(this, R.color.medium_gray_text));
+            wordCountTextView.setPadding(0, 0, 0, 8);
+            entryLayout.addView(wordCountTextView);
+        }
+
+        // Add mood and tags, if the entry has any
+        if (summary.hasMood() || !summary.getTags().isEmpty()) {
+            StringBuilder labels = new StringBuilder();
+            if (summary.hasMood()) {
+                labels.append("Mood: ").append(summary.getMood());
+            }
+            for (String tag : summary.getTags()) {
+                labels.append(labels.length() > 0 ? "  #" : "#").append(tag);
+            }
+            TextView labelsTextView = new TextView(this);
+            labelsTextView.setText(labels);
+            labelsTextView.setTextSize(12f);
+            labelsTextView.setTextColor(ContextCompat.getColor(this, R.color.medium_gray_text));
+            labelsTextView.setPadding(0, 0, 0, 8);
+            entryLayout.addView(labelsTextView);
+        }
+
+        // Add ImageView if an image URI exists
+        if (imageUriString != null) {
+            ImageView entryImageView = new ImageView(this);
+            LinearLayout.LayoutParams imageLayoutParams = new LinearLayout.LayoutParams(
+                    LinearLayout.LayoutParams.MATCH_PARENT,
+                    300 // Fixed height for displayed images in the list view
+            );
+            imageLayoutParams.setMargins(0, 8, 0, 0); // Margin above image
+            entryImageView.setLayoutParams(imageLayoutParams);
+            entryImageView.setScaleType(ImageView.ScaleType.CENTER_CROP);
+            try {
+                entryImageView.setImageURI(Uri.parse(imageUriString)); // Load image from URI
+                Log.d(TAG, "Image loaded for entry ID: " + uniqueId);
+            } catch (SecurityException e) {
+                // This can happen if URI permission was not persisted or revoked
+                Log.e(TAG, "SecurityException loading image for URI: " + imageUriString + ". Error: " + e.getMessage());
+                entryImageView.setImageDrawable(null); // Clear image if permission denied
+                Toast.makeText(DiaryActivity.this, "Failed to load image (permission issue).", Toast.LENGTH_SHORT).show();
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading image for URI: " + imageUriString + ", " + e.getMessage());
+                entryImageView.setImageDrawable(null); // Clear image if other error
+                Toast.makeText(DiaryActivity.this, "Failed to load image for an entry.", Toast.LENGTH_SHORT).show();
+            }
+            entryLayout.addView(entryImageView);
+        }
+
+        pastEntriesContainer.addView(entryLayout); // Add the created entry layout to the container
+        Log.d(TAG, "Added entry layout to container for ID: " + uniqueId);
+    }
+
+    /**
+     * Shows writing streaks, word counts and an activity heatmap of the last weeks.
+     * Everything comes from the running totals, so this never reads an entry. The totals are read
+     * on listExecutor, since they may have to be loaded or rebuilt first.
+     */
+    private void showInsights() {
+        listExecutor.execute(() -> {
+            try {
+                String message = describeInsights();
+                runOnUiThread(() -> {
+                    if (isDestroyed()) {
+                        return;
                     }
+                    new AlertDialog.Builder(this)
+                            .setTitle("Insights")
+                            .setMessage(message)
+                            .setPositiveButton("OK", (dialog, which) -> dialog.dismiss())
+                            .show();
+                });
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading insights: " + e.getMessage(), e);
+                runOnUiThread(() -> Toast.makeText(this, "Error loading insights.", Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
 
-                    pastEntriesContainer.addView(entryLayout); // Add the created entry layout to the container
-                    Log.d(TAG, "Added entry layout to container for ID: " + uniqueId);
-                }
-            } else {
-                Log.d(TAG, "JSON string is empty or no data read. Displaying no entries message.");
-                displayNoEntriesMessage(); // If file is empty or contains no valid JSON, display "No entries yet"
+    /**
+     * Builds the text of the insights dialog. Runs on listExecutor.
+     */
+    private String describeInsights() throws IOException, JSONException {
+        diaryRepository.prepareList(); // Rebuilds the totals too if a save was interrupted
+        DiaryStats stats = diaryRepository.getStats();
+        int today = DiaryStats.dayOf(System.currentTimeMillis());
+
+        StringBuilder message = new StringBuilder();
+        message.append("Entries: ").append(stats.getEntryCount())
+                .append(" (").append(stats.getPhotoEntryCount()).append(" with photos)\n");
+        message.append("Words written: ").append(stats.getWordCount()).append('\n');
+        message.append("Current streak: ").append(stats.getCurrentStreak(today)).append(" days\n");
+        message.append("Longest streak: ").append(stats.getLongestStreak()).append(" days\n");
+
+        // One column per week, oldest on the left, one row per day of the week
+        int firstDay = today - HEATMAP_WEEKS * 7 + 1;
+        int[] entriesByDay = stats.getEntriesByDay(firstDay, today);
+        message.append("\nLast ").append(HEATMAP_WEEKS).append(" weeks:\n");
+        for (int row = 0; row < 7; row++) {
+            for (int week = 0; week < HEATMAP_WEEKS; week++) {
+                int count = entriesByDay[week * 7 + row];
+                message.append(count == 0 ? '\u2591' : count == 1 ? '\u2592' : count == 2 ? '\u2593' : '\u2588');
             }
-        } catch (Exception e) {
-            Log.e(TAG, "CRITICAL: Error loading diary entries: " + e.getMessage(), e);
-            displayNoEntriesMessage(); // If any parsing or file reading error, display "No entries yet"
+            message.append('\n');
         }
+
+        List<Map.Entry<String, Long>> months = new ArrayList<>(stats.getWordsByMonth().entrySet());
+        if (!months.isEmpty()) {
+            message.append("\nWords per month:\n");
+            for (Map.Entry<String, Long> month : months.subList(Math.max(0, months.size() - INSIGHT_MONTHS), months.size())) {
+                message.append(month.getKey()).append(": ").append(month.getValue()).append('\n');
+            }
+        }
+
+        return message.toString().trim();
+    }
+
+    /**
+     * Tells the user that damaged records were recovered or quarantined, instead of silently
+     * showing fewer entries.
+     */
+    private void showRepairReport(IntegrityReport report) {
+        Log.w(TAG, "Diary repaired: " + report.describe());
+        for (String line : report.getQuarantined()) {
+            Log.w(TAG, "Quarantined " + line);
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Diary Repaired")
+                .setMessage(report.describe() + " Quarantined entries are kept in " + DiaryStore.QUARANTINE_FILE_NAME + ".")
+                .setPositiveButton("OK", (dialog, which) -> dialog.dismiss())
+                .show();
     }
 
     /**
@@ -418,12 +708,19 @@ public class DiaryActivity extends AppCompatActivity {
      */
     private void displayNoEntriesMessage() {
         Log.d(TAG, "Displaying 'No entries yet' message.");
-        TextView noEntriesTextView = new TextView(this);
-        noEntriesTextView.setText("No entries yet.");
-        noEntriesTextView.setTextSize(16f);
-        noEntriesTextView.setTextColor(ContextCompat.getColor(this, R.color.medium_gray_text));
-        noEntriesTextView.setGravity(Gravity.CENTER_HORIZONTAL); // Center horizontally
+        showListMessage(currentFilter != null ? "No entries match the filter." : "No entries yet.");
+    }
+
+    /**
+     * Replaces the list with a single centered message.
+     */
+    private void showListMessage(String message) {
+        TextView messageTextView = new TextView(this);
+        messageTextView.setText(message);
+        messageTextView.setTextSize(16f);
+        messageTextView.setTextColor(ContextCompat.getColor(this, R.color.medium_gray_text));
+        messageTextView.setGravity(Gravity.CENTER_HORIZONTAL); // Center horizontally
         pastEntriesContainer.removeAllViews(); // Ensure only this message is displayed
-        pastEntriesContainer.addView(noEntriesTextView);
+        pastEntriesContainer.addView(messageTextView);
     }
 }
@@ -1,114 +1,416 @@
-package com.example.madproject;
-// MainActivity.java
-// Adjust your package name accordingly
-
-import android.content.Context;
-import android.content.Intent;
-import android.content.SharedPreferences;
-import android.os.Bundle;
-import android.text.TextUtils;
-import android.view.View;
-import android.widget.Button;
-import android.widget.EditText;
-import android.widget.TextView;
-import android.widget.Toast;
-
-import androidx.appcompat.app.AppCompatActivity;
-
-public class MainActivity extends AppCompatActivity {
-
-    // UI elements declaration
-    private EditText pinInput;
-    private Button confirmButton;
-    private TextView authTitle;
-    private TextView messageText;
-
-    // SharedPreferences to store the PIN securely (for this example)
-    private SharedPreferences sharedPreferences;
-    private static final String PREF_NAME = "DiaryAppPrefs";
-    private static final String KEY_PIN = "diary_pin";
-    private String storedPin;
-
-    @Override
-    protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_main); // Set the layout for this activity
-
-        // Initialize UI elements
-        pinInput = findViewById(R.id.pinInput);
-        confirmButton = findViewById(R.id.confirmButton);
-        authTitle = findViewById(R.id.authTitle);
-        messageText = findViewById(R.id.messageText);
-
-        // Initialize SharedPreferences
-        sharedPreferences = getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
-
-        // Retrieve stored PIN (if any)
-        storedPin = sharedPreferences.getString(KEY_PIN, null);
-
-        // Check if a PIN has been set previously
-        if (storedPin == null) {
-            // No PIN set, prompt user to set a new one
-            authTitle.setText("Set Your New PIN");
-            confirmButton.setText("Set PIN");
-            messageText.setText("Please set a 4-digit PIN for your diary.");
-        } else {
-            // PIN already set, prompt user to enter it for authentication
-            authTitle.setText("Enter Your PIN");
-            confirmButton.setText("Unlock Diary");
-            messageText.setText("Enter your 4-digit PIN to access your diary.");
-        }
-
-        // Set up the button click listener
-        confirmButton.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                handlePinInput(); // Call method to handle PIN logic
-            }
-        });
-    }
-
-    /**
-     * Handles the logic for setting or verifying the PIN.
-     */
-    private void handlePinInput() {
-        String enteredPin = pinInput.getText().toString();
-
-        // Basic validation for PIN length
-        if (TextUtils.isEmpty(enteredPin) || enteredPin.length() != 4) {
-            messageText.setText("PIN must be 4 digits long.");
-            return;
-        }
-
-        if (storedPin == null) {
-            // Case 1: No PIN is set, user wants to set a new PIN
-            SharedPreferences.Editor editor = sharedPreferences.edit();
-            editor.putString(KEY_PIN, enteredPin); // Save the new PIN
-            editor.apply(); // Apply changes asynchronously
-            storedPin = enteredPin; // Update local variable
-            messageText.setText("PIN set successfully!");
-            Toast.makeText(this, "PIN set! Unlocking diary...", Toast.LENGTH_SHORT).show();
-            navigateToDiaryActivity(); // Navigate to the diary
-        } else {
-            // Case 2: PIN is already set, user is trying to authenticate
-            if (enteredPin.equals(storedPin)) {
-                messageText.setText("PIN correct! Unlocking diary...");
-                Toast.makeText(this, "PIN correct! Unlocking diary...", Toast.LENGTH_SHORT).show();
-                navigateToDiaryActivity(); // Navigate to the diary
-            } else {
-                messageText.setText("Incorrect PIN. Please try again.");
-                Toast.makeText(this, "Incorrect PIN.", Toast.LENGTH_SHORT).show();
-                pinInput.setText(""); // Clear the input field
-            }
-        }
-    }
-
-    /**
-     * Navigates to the DiaryActivity.
-     */
-    private void navigateToDiaryActivity() {
-        Intent intent = new Intent(MainActivity.this, DiaryActivity.class);
-        startActivity(intent);
-        finish(); // Finish MainActivity so user can't go back to it with back button
-    }
-}
+package com.example.madproject;
+// MainActivity.java
+// Adjust your package name accordingly
+
+import android.content.Context;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.Trace;
+import android.text.InputType;
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class MainActivity extends AppCompatActivity {
+
+    private static final String TAG = "MainActivity"; // Tag for Logcat filtering
+    private static final String TRACE_TAG = "StartupTrace"; // Logcat tag of the startup spans
+
+    // UI elements declaration
+    private EditText pinInput;
+    private Button confirmButton;
+    private Button changePinButton;
+    private TextView authTitle;
+    private TextView messageText;
+
+    // SharedPreferences holding the plaintext PIN of older versions (migrated to DiaryLock on unlock)
+    private SharedPreferences sharedPreferences;
+    private static final String PREF_NAME = "DiaryAppPrefs";
+    private static final String KEY_PIN = "diary_pin";
+    private volatile String legacyPin; // Read by preload() on pinExecutor
+    private boolean pinSet; // Whether a PIN exists, as found by preload(); only used on the UI thread
+
+    // Sets up, checks and changes the PIN, and unlocks the shared DiaryStore
+    private DiaryLock diaryLock;
+
+    // Key derivation is slow on purpose, so PIN checks never run on the main thread
+    private static final ExecutorService pinExecutor = Executors.newSingleThreadExecutor();
+
+    // Runs ReKeyEngine. Static so a re-key survives the activity finishing; runs are queued, never concurrent.
+    private static final ExecutorService reKeyExecutor = Executors.newSingleThreadExecutor();
+
+    // Sends the startup spans to Logcat and, where supported, to the system trace (Perfetto)
+    private static final StartupTrace.Listener TRACE_LISTENER = new StartupTrace.Listener() {
+        @Override
+        public void onSpanBegun(String span) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.beginAsyncSection(span, 0);
+            }
+        }
+
+        @Override
+        public void onSpanEnded(String span, long durationNanos) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.endAsyncSection(span, 0);
+            }
+            Log.i(TRACE_TAG, span + ": " + durationNanos / 1_000_000 + " ms");
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        StartupTrace.setListener(TRACE_LISTENER);
+        endTraceOnNextFrame(StartupTrace.beginLaunch(processStartNanos()));
+        setContentView(R.layout.activity_main); // Set the layout for this activity
+
+        // Initialize UI elements
+        pinInput = findViewById(R.id.pinInput);
+        confirmButton = findViewById(R.id.confirmButton);
+        changePinButton = findViewById(R.id.changePinButton);
+        authTitle = findViewById(R.id.authTitle);
+        messageText = findViewById(R.id.messageText);
+
+        diaryLock = new DiaryLock(getFilesDir());
+
+        // The prompt depends on files and preferences, which are read off the main thread;
+        // the buttons stay disabled until it is shown
+        setButtonsEnabled(false);
+        pinExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                preload();
+            }
+        });
+
+        // Set up the button click listeners
+        confirmButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                handlePinInput(); // Call method to handle PIN logic
+            }
+        });
+        changePinButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showChangePinDialog();
+            }
+        });
+    }
+
+    /**
+     * Reads what the PIN screen needs, then warms up the unlock path while the user types. Runs on
+     * pinExecutor, so a PIN check submitted in the meantime waits for it and finds everything loaded.
+     */
+    private void preload() {
+        // Retrieve a PIN stored by an older version (if any)
+        sharedPreferences = getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        legacyPin = sharedPreferences.getString(KEY_PIN, null);
+        final boolean pinSet = hasPin();
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                showPrompt(pinSet);
+            }
+        });
+
+        Trace.beginSection("StartupWarmup");
+        try {
+            int loaded = StartupWarmup.run(getFilesDir());
+            Log.d(TAG, "Startup warmup done. Hot classes loaded: " + loaded);
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    private void showPrompt(boolean pinSet) {
+        this.pinSet = pinSet;
+        // Check if a PIN has been set previously
+        if (!pinSet) {
+            // No PIN set, prompt user to set a new one
+            authTitle.setText("Set Your New PIN");
+            confirmButton.setText("Set PIN");
+            messageText.setText("Please set a 4-digit PIN for your diary.");
+        } else {
+            // PIN already set, prompt user to enter it for authentication
+            authTitle.setText("Enter Your PIN");
+            confirmButton.setText("Unlock Diary");
+            messageText.setText("Enter your 4-digit PIN to access your diary.");
+            changePinButton.setVisibility(View.VISIBLE);
+        }
+        setButtonsEnabled(true);
+    }
+
+    /**
+     * Returns when this process started, on the System.nanoTime() clock (both count from boot,
+     * without deep sleep). Before Android 7 this is unknown and the cold start is timed from now.
+     */
+    private static long processStartNanos() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartUptimeMillis() * 1_000_000L;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Ends a startup span right before the next frame is drawn, i.e. once the current views are on screen.
+     */
+    private void endTraceOnNextFrame(final String span) {
+        final View root = getWindow().getDecorView();
+        root.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                root.getViewTreeObserver().removeOnPreDrawListener(this);
+                StartupTrace.end(span);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Checks the key file and the preferences, so it must not run on the main thread.
+     */
+    private boolean hasPin() {
+        return diaryLock.hasPin() || legacyPin != null;
+    }
+
+    private static boolean isValidPin(String pin) {
+        return !TextUtils.isEmpty(pin) && pin.length() == 4;
+    }
+
+    /**
+     * Handles the logic for setting or verifying the PIN.
+     * The data keys are created or unwrapped on a background thread; the result is shown on the UI thread.
+     */
+    private void handlePinInput() {
+        final String enteredPin = pinInput.getText().toString();
+
+        // Basic validation for PIN length
+        if (!isValidPin(enteredPin)) {
+            messageText.setText("PIN must be 4 digits long.");
+            return;
+        }
+
+        final boolean settingNewPin = !pinSet; // The buttons are only enabled once preload() found out
+        setButtonsEnabled(false);
+        StartupTrace.begin(StartupTrace.UNLOCK_TO_FIRST_ENTRY); // Ended by DiaryActivity once the list is drawn
+        messageText.setText(settingNewPin ? "Setting PIN..." : "Checking PIN...");
+        pinExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean unlocked = unlock(enteredPin);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onUnlockFinished(unlocked, settingNewPin);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Sets up or verifies the PIN and hands the data keys to the store. Runs on pinExecutor.
+     * @return True if the diary is unlocked.
+     */
+    private boolean unlock(String enteredPin) {
+        try {
+            if (diaryLock.hasPin()) {
+                // Case 1: Data keys exist, unwrap them with the entered PIN
+                if (!diaryLock.unlock(enteredPin)) {
+                    return false;
+                }
+            } else if (legacyPin == null) {
+                // Case 2: No PIN is set, generate the diary's data key
+                diaryLock.createPin(enteredPin, false);
+            } else {
+                // Case 3: PIN from an older version, move it into the key file and encrypt the existing entries
+                if (!enteredPin.equals(legacyPin)) {
+                    return false;
+                }
+                diaryLock.createPin(enteredPin, true);
+            }
+            if (legacyPin != null) {
+                sharedPreferences.edit().remove(KEY_PIN).commit(); // Never keep the PIN in plain text
+                legacyPin = null;
+            }
+
+            // Finish a re-key that was interrupted (app killed, a record that could not be written)
+            if (diaryLock.isReKeyPending()) {
+                startReKey(getApplicationContext(), diaryLock);
+            }
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Error unlocking diary: " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private void onUnlockFinished(boolean unlocked, boolean settingNewPin) {
+        setButtonsEnabled(true);
+        pinSet |= unlocked;
+        if (unlocked && settingNewPin) {
+            messageText.setText("PIN set successfully!");
+            Toast.makeText(this, "PIN set! Unlocking diary...", Toast.LENGTH_SHORT).show();
+            navigateToDiaryActivity(); // Navigate to the diary
+        } else if (unlocked) {
+            messageText.setText("PIN correct! Unlocking diary...");
+            Toast.makeText(this, "PIN correct! Unlocking diary...", Toast.LENGTH_SHORT).show();
+            navigateToDiaryActivity(); // Navigate to the diary
+        } else {
+            StartupTrace.cancel(StartupTrace.UNLOCK_TO_FIRST_ENTRY);
+            messageText.setText("Incorrect PIN. Please try again.");
+            Toast.makeText(this, "Incorrect PIN.", Toast.LENGTH_SHORT).show();
+            pinInput.setText(""); // Clear the input field
+        }
+    }
+
+    /**
+     * Shows a dialog asking for the new PIN. The current PIN is taken from the PIN input field.
+     * "Change PIN" only re-wraps the data keys; "Change PIN and re-key" also moves every record
+     * to a fresh data key, in the background.
+     */
+    private void showChangePinDialog() {
+        final String currentPin = pinInput.getText().toString();
+        if (!isValidPin(currentPin)) {
+            messageText.setText("Enter your current PIN first, then tap Change PIN.");
+            return;
+        }
+
+        final EditText newPinInput = new EditText(this);
+        newPinInput.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_VARIATION_PASSWORD);
+        newPinInput.setHint("New 4-digit PIN");
+
+        new AlertDialog.Builder(this)
+                .setTitle("Change PIN")
+                .setView(newPinInput)
+                .setPositiveButton("Change PIN", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        changePin(currentPin, newPinInput.getText().toString(), false);
+                    }
+                })
+                .setNeutralButton("Change PIN and re-key", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        changePin(currentPin, newPinInput.getText().toString(), true);
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private void changePin(final String currentPin, final String newPin, final boolean reKey) {
+        if (!isValidPin(newPin)) {
+            messageText.setText("PIN must be 4 digits long.");
+            return;
+        }
+        setButtonsEnabled(false);
+        messageText.setText("Changing PIN...");
+        pinExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean changed = changePinInBackground(currentPin, newPin, reKey);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        setButtonsEnabled(true);
+                        pinInput.setText("");
+                        if (changed) {
+                            messageText.setText("PIN changed. Enter your new PIN to unlock.");
+                            Toast.makeText(MainActivity.this, "PIN changed.", Toast.LENGTH_SHORT).show();
+                        } else {
+                            messageText.setText("Incorrect PIN. Please try again.");
+                            Toast.makeText(MainActivity.this, "Incorrect PIN.", Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Changes the PIN and optionally starts a full re-key. Runs on pinExecutor.
+     * @return False if the current PIN is wrong.
+     */
+    private boolean changePinInBackground(String currentPin, String newPin, boolean reKey) {
+        try {
+            if (!diaryLock.hasPin()) {
+                // PIN from an older version: migrate it first (which also encrypts the entries),
+                // then re-wrap the new data key under the new PIN
+                if (!unlock(currentPin)) {
+                    return false;
+                }
+            }
+            if (!diaryLock.changePin(currentPin, newPin, reKey)) {
+                return false;
+            }
+            if (reKey) {
+                startReKey(getApplicationContext(), diaryLock);
+            }
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Error changing PIN: " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Queues a re-key on reKeyExecutor and reports its throughput when it is done.
+     * Only uses the application context, since the activity is usually gone by then.
+     */
+    private static void startReKey(final Context appContext, final DiaryLock diaryLock) {
+        reKeyExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    ReKeyEngine.Result result = diaryLock.reKey();
+                    message = result.describe();
+                    Log.d(TAG, "Re-key finished. " + message);
+                } catch (Exception e) {
+                    message = "Re-encrypting the diary failed, it will be retried on the next unlock.";
+                    Log.e(TAG, "Re-key failed: " + e.getMessage(), e);
+                }
+                final String toastMessage = message;
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(appContext, toastMessage, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        });
+    }
+
+    private void setButtonsEnabled(boolean enabled) {
+        confirmButton.setEnabled(enabled);
+        changePinButton.setEnabled(enabled);
+    }
+
+    /**
+     * Navigates to the DiaryActivity.
+     */
+    private void navigateToDiaryActivity() {
+        Intent intent = new Intent(MainActivity.this, DiaryActivity.class);
+        startActivity(intent);
+        finish(); // Finish MainActivity so user can't go back to it with back button
+    }
+}
@@ -0,0 +1,142 @@
+// BackupEngineTest.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Picking and restoring snapshots: the chosen one is restored and no other, and a snapshot that
+ * cannot be read leaves the diary alone.
+ */
+public class BackupEngineTest {
+
+    private static final String PASSPHRASE = "test passphrase";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DiaryStore store;
+    private DiaryRepository repository;
+    private BackupEngine backupEngine;
+
+    @Before
+    public void setUp() throws Exception {
+        File filesDir = folder.newFolder("files");
+        File backupDir = new File(filesDir, "backups");
+        store = new DiaryStore(filesDir);
+        new DiaryLock(new DiaryKeyManager(filesDir), store).createPin("1234", false);
+        repository = new DiaryRepository(store);
+        backupEngine = new BackupEngine(store, backupDir, BackupEngine.openBackupCipher(backupDir, PASSPHRASE));
+    }
+
+    @Test
+    public void restoresTheChosenSnapshot() throws Exception {
+        long first = create("First entry");
+        long second = create("Second entry");
+        BackupEngine.Snapshot before = backupEngine.backup();
+        Map<Long, String> stateBefore = textsOf(store);
+
+        repository.updateEntry(first, "First entry, edited", null, Collections.<String>emptyList(), null);
+        create("Third entry");
+        BackupEngine.Snapshot middle = backupEngine.backup();
+        Map<Long, String> stateMiddle = textsOf(store);
+
+        repository.deleteEntry(second);
+        create("Fourth entry");
+        BackupEngine.Snapshot after = backupEngine.backup();
+        Map<Long, String> stateAfter = textsOf(store);
+
+        List<BackupEngine.Snapshot> snapshots = backupEngine.listSnapshots();
+        assertEquals(3, snapshots.size());
+        assertEquals(before.getId(), snapshots.get(0).getId()); // Oldest first
+        assertEquals(middle.getId(), snapshots.get(1).getId());
+        assertEquals(after.getId(), snapshots.get(2).getId());
+        assertEquals(3, snapshots.get(1).getEntryCount());
+
+        assertTrue(backupEngine.restore(middle.getId()) > 0);
+        assertEquals(stateMiddle, textsOf(store));
+        backupEngine.restore(before.getId());
+        assertEquals(stateBefore, textsOf(store));
+        backupEngine.restore(after.getId());
+        assertEquals(stateAfter, textsOf(store));
+    }
+
+    @Test
+    public void restoringTheCurrentStateChangesNothing() throws Exception {
+        create("Unchanged entry");
+        BackupEngine.Snapshot snapshot = backupEngine.backup();
+
+        assertEquals(0, backupEngine.restore(snapshot.getId()));
+    }
+
+    @Test
+    public void missingSnapshotLeavesTheDiaryAlone() throws Exception {
+        create("Only entry");
+        BackupEngine.Snapshot snapshot = backupEngine.backup();
+        create("Written after the backup");
+        Map<Long, String> state = textsOf(store);
+
+        try {
+            backupEngine.restore(snapshot.getId() + 1);
+            fail("Restored a snapshot that does not exist");
+        } catch (IOException expected) {
+            // The diary must be untouched
+        }
+        assertEquals(state, textsOf(store));
+    }
+
+    @Test
+    public void pruneKeepsTheLatestSnapshots() throws Exception {
+        long uniqueId = create("Version 1");
+        BackupEngine.Snapshot oldest = backupEngine.backup();
+        for (int version = 2; version <= 4; version++) {
+            repository.updateEntry(uniqueId, "Version " + version, null, Collections.<String>emptyList(), null);
+            backupEngine.backup();
+        }
+        List<BackupEngine.Snapshot> snapshots = backupEngine.listSnapshots();
+
+        backupEngine.prune(2);
+
+        List<BackupEngine.Snapshot> kept = backupEngine.listSnapshots();
+        assertEquals(2, kept.size());
+        assertEquals(snapshots.get(2).getId(), kept.get(0).getId());
+        assertEquals(snapshots.get(3).getId(), kept.get(1).getId());
+        try {
+            backupEngine.restore(oldest.getId());
+            fail("Restored a pruned snapshot");
+        } catch (IOException expected) {
+            // Pruned snapshots are gone
+        }
+        backupEngine.restore(kept.get(0).getId()); // Its chunks survived the prune
+        assertEquals("Version 3", store.readFullText(repository.findEntry(uniqueId)));
+    }
+
+    private long create(String text) throws Exception {
+        return repository.createEntry(text, null, Collections.<String>emptyList(), null).getLong(DiaryStore.KEY_UNIQUE_ID);
+    }
+
+    private static Map<Long, String> textsOf(DiaryStore store) throws Exception {
+        Map<Long, String> texts = new TreeMap<>();
+        JSONArray entries = store.readEntries();
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            texts.put(entry.getLong(DiaryStore.KEY_UNIQUE_ID), store.readFullText(entry));
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,126 @@
+// ChangeLogTest.java
+package com.example.madproject;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Recording of changes and tombstones, which only starts with the first sync, and the tombstone
+ * log across reloads, torn appends and expiry.
+ */
+public class ChangeLogTest {
+
+    private static final String DEVICE = "phone";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File filesDir;
+
+    @Before
+    public void setUp() throws Exception {
+        filesDir = folder.newFolder("files");
+    }
+
+    @Test
+    public void nothingIsRecordedBeforeSyncStarts() throws Exception {
+        ChangeLog changeLog = new ChangeLog(filesDir);
+
+        assertEquals(0, changeLog.append(1));
+        changeLog.updateTombstones(Collections.singletonList(tombstone(2, System.currentTimeMillis())),
+                Collections.<Long>emptyList());
+
+        assertTrue(changeLog.readSince(0).isEmpty());
+        assertNull(changeLog.getTombstone(2));
+        assertFalse(new File(filesDir, ChangeLog.TOMBSTONE_FILE_NAME).exists());
+    }
+
+    @Test
+    public void tombstonesSurviveAReload() throws Exception {
+        long now = System.currentTimeMillis();
+        ChangeLog changeLog = recording();
+        changeLog.updateTombstones(Arrays.asList(tombstone(1, now), tombstone(2, now), tombstone(3, now)),
+                Collections.<Long>emptyList());
+        changeLog.updateTombstones(Collections.<ChangeLog.Tombstone>emptyList(), Collections.singletonList(2L));
+
+        ChangeLog reloaded = new ChangeLog(filesDir);
+
+        assertNotNull(reloaded.getTombstone(1));
+        assertNull(reloaded.getTombstone(2));
+        assertEquals(now, reloaded.getTombstone(3).getModifiedAt());
+        assertEquals(DEVICE, reloaded.getTombstone(3).getModifiedBy());
+    }
+
+    @Test
+    public void tornAppendIsCutOff() throws Exception {
+        long now = System.currentTimeMillis();
+        recording().updateTombstones(Collections.singletonList(tombstone(1, now)), Collections.<Long>emptyList());
+        File tombstoneFile = new File(filesDir, ChangeLog.TOMBSTONE_FILE_NAME);
+        long validLength = tombstoneFile.length();
+        FileOutputStream out = new FileOutputStream(tombstoneFile, true);
+        try {
+            out.write(new byte[]{1, 0, 0, 0}); // The start of a record, as left by a crash mid-append
+        } finally {
+            out.close();
+        }
+
+        ChangeLog reloaded = new ChangeLog(filesDir);
+        assertNotNull(reloaded.getTombstone(1));
+        assertEquals(validLength, tombstoneFile.length());
+
+        reloaded.updateTombstones(Collections.singletonList(tombstone(2, now)), Collections.<Long>emptyList());
+        assertNotNull(new ChangeLog(filesDir).getTombstone(2));
+    }
+
+    @Test
+    public void expiredTombstonesAreDropped() throws Exception {
+        long now = System.currentTimeMillis();
+        ChangeLog changeLog = recording();
+        changeLog.updateTombstones(Arrays.asList(
+                tombstone(1, now - ChangeLog.TOMBSTONE_EXPIRY_MS - 1_000), tombstone(2, now)),
+                Collections.<Long>emptyList());
+
+        assertNull(changeLog.getTombstone(1));
+        assertNotNull(changeLog.getTombstone(2));
+
+        ChangeLog reloaded = new ChangeLog(filesDir);
+        assertNull(reloaded.getTombstone(1));
+        assertNotNull(reloaded.getTombstone(2));
+    }
+
+    @Test
+    public void pushDropsTheSentChanges() throws Exception {
+        ChangeLog changeLog = recording();
+        for (long uniqueId = 1; uniqueId <= 10; uniqueId++) {
+            changeLog.append(uniqueId);
+        }
+        long pushedSeq = changeLog.readSince(0).get(4).getSeq();
+        changeLog.setPushedSeq(pushedSeq);
+
+        assertEquals(5, changeLog.readSince(pushedSeq).size());
+        assertEquals(5, new ChangeLog(filesDir).readSince(0).size());
+    }
+
+    private ChangeLog recording() throws Exception {
+        ChangeLog changeLog = new ChangeLog(filesDir);
+        changeLog.startRecording();
+        return changeLog;
+    }
+
+    private static ChangeLog.Tombstone tombstone(long uniqueId, long modifiedAt) {
+        return new ChangeLog.Tombstone(uniqueId, modifiedAt, DEVICE);
+    }
+}
@@ -0,0 +1,151 @@
+// DiaryStatsTest.java
+package com.example.madproject;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Streak, heatmap and per-month arithmetic of the running totals, keeping them up to date one entry
+ * at a time, and DiaryRepository.checkStats() finding and rebuilding totals that went wrong.
+ */
+public class DiaryStatsTest {
+
+    private static final String PIN = "1234";
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int FIRST_DAY = 19_720; // 2023-12-29, so the entries span two months
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File filesDir;
+    private DiaryStats stats;
+    private List<EntrySummary> summaries;
+    private long nextId = 1;
+
+    @Before
+    public void setUp() throws Exception {
+        filesDir = folder.newFolder("files");
+        stats = new DiaryStats(filesDir);
+        summaries = new ArrayList<>();
+        for (int day : new int[]{0, 1, 1, 2, 5, 6, 10}) {
+            summaries.add(entryOn(FIRST_DAY + day, 10, day == 5));
+        }
+        stats.rebuild(summaries);
+    }
+
+    @Test
+    public void totalsCountEveryEntry() throws Exception {
+        assertEquals(7, stats.getEntryCount());
+        assertEquals(70, stats.getWordCount());
+        assertEquals(1, stats.getPhotoEntryCount());
+    }
+
+    @Test
+    public void streaksCountDaysInARow() throws Exception {
+        assertEquals(3, stats.getLongestStreak()); // Days 0 to 2
+        assertEquals(1, stats.getCurrentStreak(FIRST_DAY + 10));
+        assertEquals(1, stats.getCurrentStreak(FIRST_DAY + 11)); // Not broken until a whole day passes
+        assertEquals(0, stats.getCurrentStreak(FIRST_DAY + 12));
+        assertEquals(2, stats.getCurrentStreak(FIRST_DAY + 7));
+        assertEquals(0, stats.getCurrentStreak(FIRST_DAY - 5));
+    }
+
+    @Test
+    public void heatmapCoversTheRequestedDays() throws Exception {
+        assertArrayEquals(new int[]{0, 1, 2, 1, 0, 0, 1, 1, 0}, stats.getEntriesByDay(FIRST_DAY - 1, FIRST_DAY + 7));
+        assertArrayEquals(new int[]{0, 10, 0}, stats.getWordsByDay(FIRST_DAY + 9, FIRST_DAY + 11));
+        assertArrayEquals(new int[]{0, 0}, stats.getEntriesByDay(FIRST_DAY + 500, FIRST_DAY + 501));
+    }
+
+    @Test
+    public void wordsAreSummedPerMonth() throws Exception {
+        Map<String, Long> words = stats.getWordsByMonth();
+
+        assertEquals(2, words.size());
+        assertEquals(Long.valueOf(40), words.get("2023-12")); // Days 0 to 2
+        assertEquals(Long.valueOf(30), words.get("2024-01"));
+    }
+
+    @Test
+    public void putAndRemoveMatchARebuild() throws Exception {
+        EntrySummary dayThree = entryOn(FIRST_DAY + 3, 25, true);
+        EntrySummary dayFour = entryOn(FIRST_DAY + 4, 5, false);
+        stats.markPending();
+        stats.put(dayThree); // With the next one, fills the gap between day 2 and day 5
+        stats.markPending();
+        stats.put(dayFour);
+        stats.markPending();
+        stats.remove(summaries.get(0).getUniqueId()); // The entry on day 0
+        List<EntrySummary> expected = new ArrayList<>(summaries.subList(1, summaries.size()));
+        expected.add(dayThree);
+        expected.add(dayFour);
+
+        assertTrue(stats.verify(expected));
+
+        assertEquals(6, stats.getLongestStreak()); // Days 1 to 6
+        assertEquals(8, stats.getEntryCount());
+        assertEquals(70 - 10 + 25 + 5, stats.getWordCount());
+        assertEquals(2, stats.getPhotoEntryCount());
+
+        stats.flush();
+        DiaryStats reopened = new DiaryStats(filesDir);
+        assertTrue(reopened.isInSync());
+        assertTrue(reopened.verify(expected));
+        assertEquals(6, reopened.getLongestStreak());
+        assertEquals(8, reopened.getEntryCount());
+    }
+
+    @Test
+    public void missedChangeLeavesTheTotalsStale() throws Exception {
+        stats.markPending();
+        stats.markPending(); // The first change's put() never came
+
+        assertFalse(stats.isInSync());
+        assertFalse(new DiaryStats(filesDir).isInSync());
+    }
+
+    @Test
+    public void checkStatsRebuildsWrongTotals() throws Exception {
+        File diaryDir = folder.newFolder("diary");
+        DiaryStore store = new DiaryStore(diaryDir);
+        new DiaryLock(new DiaryKeyManager(diaryDir), store).createPin(PIN, false);
+        DiaryRepository repository = new DiaryRepository(store);
+        repository.prepareList();
+        for (int i = 0; i < 5; i++) {
+            repository.createEntry("Three words here", i == 0 ? "content://image/1" : null,
+                    Collections.<String>emptyList(), null);
+        }
+        assertTrue(repository.checkStats());
+
+        repository.getStats().rebuild(Collections.<EntrySummary>emptyList()); // Totals that went wrong
+
+        assertFalse(repository.checkStats());
+        assertEquals(5, repository.getStats().getEntryCount());
+        assertEquals(15, repository.getStats().getWordCount());
+        assertEquals(1, repository.getStats().getPhotoEntryCount());
+        assertTrue(repository.checkStats());
+    }
+
+    private EntrySummary entryOn(int day, int words, boolean photo) {
+        // Noon of the day in the device's time zone, as DiaryStats.dayOf() counts days
+        long noon = day * DAY_MILLIS + DAY_MILLIS / 2;
+        long time = noon - TimeZone.getDefault().getOffset(noon);
+        assertEquals(day, DiaryStats.dayOf(time));
+        return new EntrySummary(nextId++, time, "Entry", false, words, photo ? "content://image/" + day : null,
+                Collections.<String>emptyList(), null);
+    }
+}
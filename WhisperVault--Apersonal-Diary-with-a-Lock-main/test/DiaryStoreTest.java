@@ -0,0 +1,155 @@
+// DiaryStoreTest.java
+package com.example.madproject;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Splitting long texts into chunk files and reading them back, and replacing a body under a new
+ * "bodyVersion" without losing the old one before the new header is written.
+ */
+public class DiaryStoreTest {
+
+    private static final String PIN = "1234";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DiaryStore store;
+    private DiaryRepository repository;
+
+    @Before
+    public void setUp() throws Exception {
+        File filesDir = folder.newFolder("files");
+        store = new DiaryStore(filesDir);
+        new DiaryLock(new DiaryKeyManager(filesDir), store).createPin(PIN, false);
+        repository = new DiaryRepository(store);
+    }
+
+    @Test
+    public void shortTextStaysInline() throws Exception {
+        String text = repeat("Short. ", DiaryStore.INLINE_TEXT_LIMIT / 7);
+        JSONObject entry = create(text);
+
+        assertFalse(DiaryStore.isChunked(entry));
+        assertEquals(0, entry.getInt(DiaryStore.KEY_CHUNK_COUNT));
+        assertEquals(text, store.readFullText(entry));
+        assertTrue(store.listRecordFiles().isEmpty());
+    }
+
+    @Test
+    public void longTextIsSplitAndReassembled() throws Exception {
+        String text = repeat("Chunked text. ", 3 * DiaryStore.CHUNK_SIZE / 14 + 5);
+        JSONObject entry = create(text);
+
+        List<String> chunks = readChunks(entry);
+
+        assertTrue(DiaryStore.isChunked(entry));
+        assertEquals(4, entry.getInt(DiaryStore.KEY_CHUNK_COUNT));
+        assertEquals(4, chunks.size());
+        for (String chunk : chunks) {
+            assertTrue(chunk.length() <= DiaryStore.CHUNK_SIZE);
+        }
+        assertEquals(text, join(chunks));
+        assertEquals(text.length(), entry.getInt(DiaryStore.KEY_TEXT_LENGTH));
+        assertTrue(store.verifyBody(entry));
+    }
+
+    @Test
+    public void chunkBoundaryNeverSplitsASurrogatePair() throws Exception {
+        String emoji = "\uD83D\uDE00"; // One code point, two chars
+        String text = repeat("x", DiaryStore.CHUNK_SIZE - 1) + emoji + repeat("y", DiaryStore.CHUNK_SIZE);
+        JSONObject entry = create(text);
+
+        List<String> chunks = readChunks(entry);
+
+        for (String chunk : chunks) {
+            assertFalse(Character.isHighSurrogate(chunk.charAt(chunk.length() - 1)));
+            assertFalse(Character.isLowSurrogate(chunk.charAt(0)));
+        }
+        assertEquals(text, join(chunks));
+    }
+
+    @Test
+    public void newBodyVersionReplacesTheOldChunks() throws Exception {
+        JSONObject entry = create(repeat("First body. ", DiaryStore.CHUNK_SIZE / 6));
+        long uniqueId = entry.getLong(DiaryStore.KEY_UNIQUE_ID);
+        long firstVersion = entry.getLong(DiaryStore.KEY_BODY_VERSION);
+        Set<File> firstChunks = new HashSet<>(store.listRecordFiles());
+
+        String secondText = repeat("Second body. ", DiaryStore.CHUNK_SIZE / 6);
+        JSONObject updated = repository.updateEntry(uniqueId, secondText, null, Collections.<String>emptyList(), null);
+
+        assertTrue(updated.getLong(DiaryStore.KEY_BODY_VERSION) != firstVersion);
+        assertEquals(secondText, store.readFullText(store.findEntry(uniqueId)));
+        for (File file : store.listRecordFiles()) {
+            assertFalse(file.getName(), firstChunks.contains(file)); // Deleted once the new header was written
+        }
+        assertEquals(updated.getInt(DiaryStore.KEY_CHUNK_COUNT), store.listRecordFiles().size());
+    }
+
+    @Test
+    public void oldBodyStaysReadableUntilTheNewHeaderIsWritten() throws Exception {
+        String firstText = repeat("Kept until replaced. ", DiaryStore.CHUNK_SIZE / 10);
+        JSONObject entry = create(firstText);
+        long uniqueId = entry.getLong(DiaryStore.KEY_UNIQUE_ID);
+
+        // A save cut off after writing the new chunks but before the header
+        store.putText(new JSONObject(entry.toString()), repeat("Never committed. ", DiaryStore.CHUNK_SIZE / 8));
+
+        assertEquals(firstText, store.readFullText(store.findEntry(uniqueId)));
+    }
+
+    @Test
+    public void shorteningATextDropsItsChunks() throws Exception {
+        JSONObject entry = create(repeat("Long for now. ", DiaryStore.CHUNK_SIZE / 7));
+        long uniqueId = entry.getLong(DiaryStore.KEY_UNIQUE_ID);
+
+        JSONObject updated = repository.updateEntry(uniqueId, "Short at last", null, Collections.<String>emptyList(), null);
+
+        assertFalse(DiaryStore.isChunked(updated));
+        assertFalse(updated.has(DiaryStore.KEY_BODY_VERSION));
+        assertEquals("Short at last", store.readFullText(store.findEntry(uniqueId)));
+        assertTrue(store.listRecordFiles().isEmpty());
+    }
+
+    private JSONObject create(String text) throws Exception {
+        return repository.createEntry(text, null, Collections.<String>emptyList(), null);
+    }
+
+    private List<String> readChunks(JSONObject entry) throws Exception {
+        final List<String> chunks = new ArrayList<>();
+        store.readText(entry, chunks::add);
+        return chunks;
+    }
+
+    private static String join(List<String> chunks) {
+        StringBuilder text = new StringBuilder();
+        for (String chunk : chunks) {
+            text.append(chunk);
+        }
+        return text.toString();
+    }
+
+    private static String repeat(String piece, int times) {
+        StringBuilder text = new StringBuilder(piece.length() * times);
+        for (int i = 0; i < times; i++) {
+            text.append(piece);
+        }
+        return text.toString();
+    }
+}
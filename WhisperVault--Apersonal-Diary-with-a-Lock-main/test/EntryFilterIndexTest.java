@@ -0,0 +1,182 @@
+// EntryFilterIndexTest.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Parsing of list filters, and the index agreeing with the entries' own tags and moods after
+ * creating, editing and deleting entries and after reopening the diary.
+ */
+public class EntryFilterIndexTest {
+
+    private static final String PIN = "1234";
+    private static final String[] TAGS = {"travel", "work", "family", "ideas"};
+    private static final String[] MOODS = {"happy", "tired", "calm"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File filesDir;
+    private EntryFilterIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        filesDir = folder.newFolder("files");
+        index = new EntryFilterIndex(filesDir);
+        index.rebuild(Arrays.asList(
+                summary(1, timeIn(2023), Arrays.asList("travel", "family"), "happy"),
+                summary(2, timeIn(2024), Collections.singletonList("travel"), "happy"),
+                summary(3, timeIn(2024), Collections.singletonList("work"), "tired"),
+                summary(4, timeIn(2024), Collections.<String>emptyList(), null)));
+    }
+
+    @Test
+    public void tagTermsMatchInEveryForm() throws Exception {
+        for (String filter : new String[]{"tag:travel", "#travel", "travel", "TRAVEL", "  Tag:Travel  "}) {
+            assertMatches(index.query(filter), 1, 2);
+        }
+    }
+
+    @Test
+    public void termsAreIntersected() throws Exception {
+        assertMatches(index.query("tag:travel AND mood:happy AND 2024"), 2);
+        assertMatches(index.query("travel happy"), new long[0]); // "happy" alone is a tag, not a mood
+        assertMatches(index.query("mood:happy and year:2023"), 1);
+        assertMatches(index.query("2024"), 2, 3, 4);
+    }
+
+    @Test
+    public void emptyFilterMatchesAll() throws Exception {
+        EntryFilterIndex.Match match = index.query("   ");
+
+        assertTrue(match.matchesAll());
+        assertEquals(-1, match.count());
+        assertTrue(match.contains(4));
+    }
+
+    @Test
+    public void unknownTermMatchesNothing() throws Exception {
+        EntryFilterIndex.Match match = index.query("travel AND tag:nowhere");
+
+        assertFalse(match.matchesAll());
+        assertEquals(0, match.count());
+        assertFalse(match.contains(1));
+    }
+
+    @Test
+    public void matchKeepsItsEntriesAcrossLaterChanges() throws Exception {
+        EntryFilterIndex.Match before = index.query("work");
+        index.markPending();
+        index.update(Collections.singletonList(summary(5, timeIn(2024), Collections.singletonList("ideas"), null)),
+                Collections.singletonList(3L)); // Entry 5 may take over entry 3's ordinal
+
+        assertTrue(before.contains(3));
+        assertFalse(before.contains(5));
+        assertMatches(index.query("work"), new long[0]);
+        assertMatches(index.query("ideas"), 5);
+    }
+
+    @Test
+    public void indexAgreesWithTheEntries() throws Exception {
+        File diaryDir = folder.newFolder("diary");
+        DiaryStore store = new DiaryStore(diaryDir);
+        new DiaryLock(new DiaryKeyManager(diaryDir), store).createPin(PIN, false);
+        DiaryRepository repository = new DiaryRepository(store);
+        repository.prepareList();
+        Random random = new Random(11);
+        List<Long> uniqueIds = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int action = uniqueIds.isEmpty() ? 0 : random.nextInt(4);
+            if (action <= 1) {
+                uniqueIds.add(repository.createEntry("Entry " + i, null, randomTags(random), randomMood(random))
+                        .getLong(DiaryStore.KEY_UNIQUE_ID));
+            } else if (action == 2) {
+                long uniqueId = uniqueIds.get(random.nextInt(uniqueIds.size()));
+                repository.updateEntry(uniqueId, "Edited " + i, null, randomTags(random), randomMood(random));
+            } else {
+                repository.deleteEntry(uniqueIds.remove(random.nextInt(uniqueIds.size())));
+            }
+        }
+        assertAgrees(repository);
+
+        repository.flush();
+        DiaryStore reopened = new DiaryStore(diaryDir);
+        if (!new DiaryLock(new DiaryKeyManager(diaryDir), reopened).unlock(PIN)) {
+            fail("PIN was not accepted");
+        }
+        DiaryRepository reopenedRepository = new DiaryRepository(reopened);
+        assertFalse(reopenedRepository.prepareList());
+        assertAgrees(reopenedRepository);
+    }
+
+    private static void assertAgrees(DiaryRepository repository) throws Exception {
+        JSONArray entries = repository.getStore().readEntries();
+        for (String tag : TAGS) {
+            for (String mood : MOODS) {
+                EntryFilterIndex.Match match = repository.filterEntries("#" + tag + " AND mood:" + mood);
+                int expected = 0;
+                for (int i = 0; i < entries.length(); i++) {
+                    JSONObject entry = entries.getJSONObject(i);
+                    boolean matches = DiaryStore.getTags(entry).contains(tag)
+                            && mood.equals(entry.optString(DiaryStore.KEY_MOOD, null));
+                    assertEquals(tag + " " + mood, matches, match.contains(entry.getLong(DiaryStore.KEY_UNIQUE_ID)));
+                    expected += matches ? 1 : 0;
+                }
+                assertEquals(tag + " " + mood, expected, match.count());
+            }
+        }
+    }
+
+    private static List<String> randomTags(Random random) {
+        List<String> tags = new ArrayList<>();
+        for (String tag : TAGS) {
+            if (random.nextInt(3) == 0) {
+                tags.add(random.nextBoolean() ? tag : "#" + tag.toUpperCase(Locale.ROOT)); // Normalized on save
+            }
+        }
+        return tags;
+    }
+
+    private static String randomMood(Random random) {
+        int mood = random.nextInt(MOODS.length + 1);
+        return mood < MOODS.length ? MOODS[mood] : null;
+    }
+
+    private static void assertMatches(EntryFilterIndex.Match match, long... uniqueIds) {
+        assertFalse(match.matchesAll());
+        assertEquals(uniqueIds.length, match.count());
+        for (long uniqueId : uniqueIds) {
+            assertTrue(String.valueOf(uniqueId), match.contains(uniqueId));
+        }
+    }
+
+    private static long timeIn(int year) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, Calendar.JUNE, 15, 12, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private static EntrySummary summary(long uniqueId, long epochTime, List<String> tags, String mood) {
+        return new EntrySummary(uniqueId, epochTime, "Entry " + uniqueId, false, 2, null, tags, mood);
+    }
+}
@@ -0,0 +1,132 @@
+// EntrySummaryTableTest.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Rebuilding the summary table from the entry headers, and finding it stale when a header write
+ * was not followed by its update, in this process or in one that died.
+ */
+public class EntrySummaryTableTest {
+
+    private static final String PIN = "1234";
+    private static final int ENTRY_COUNT = 12;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File filesDir;
+    private DiaryStore store;
+    private DiaryRepository repository;
+    private List<Long> uniqueIds; // In creation order, so oldest first
+
+    @Before
+    public void setUp() throws Exception {
+        filesDir = folder.newFolder("files");
+        store = new DiaryStore(filesDir);
+        new DiaryLock(new DiaryKeyManager(filesDir), store).createPin(PIN, false);
+        repository = new DiaryRepository(store);
+        repository.prepareList();
+        uniqueIds = new ArrayList<>();
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            uniqueIds.add(repository.createEntry("Entry " + i, null, Collections.<String>emptyList(), null)
+                    .getLong(DiaryStore.KEY_UNIQUE_ID));
+        }
+        repository.flush();
+    }
+
+    @Test
+    public void rebuildListsEntriesNewestFirst() throws Exception {
+        assertTrue(new File(filesDir, EntrySummaryTable.SUMMARY_FILE_NAME).delete()); // As after an upgrade
+        DiaryStore reopened = reopen();
+        EntrySummaryTable table = reopened.getSummaryTable();
+        assertFalse(table.isInSync());
+
+        assertTrue(new DiaryRepository(reopened).prepareList());
+
+        assertTrue(table.isInSync());
+        assertEquals(ENTRY_COUNT, table.count());
+        List<EntrySummary> firstPage = table.readPage(0, 5);
+        List<EntrySummary> lastPage = table.readPage(10, 5);
+        assertEquals(5, firstPage.size());
+        assertEquals(2, lastPage.size());
+        assertEquals((long) uniqueIds.get(ENTRY_COUNT - 1), firstPage.get(0).getUniqueId());
+        assertEquals("Entry " + (ENTRY_COUNT - 1), firstPage.get(0).getPreview());
+        assertEquals((long) uniqueIds.get(0), lastPage.get(1).getUniqueId());
+    }
+
+    @Test
+    public void flushedTableIsInSyncAfterReopening() throws Exception {
+        DiaryStore reopened = reopen();
+
+        assertTrue(reopened.getSummaryTable().isInSync());
+        assertFalse(new DiaryRepository(reopened).prepareList());
+        assertEquals(ENTRY_COUNT, reopened.getSummaryTable().count());
+    }
+
+    @Test
+    public void headerWriteWithoutItsUpdateIsFoundByTheNextProcess() throws Exception {
+        JSONArray entries = store.readEntries();
+        entries.remove(0);
+        store.writeEntries(entries); // The process dies before the summary table is updated
+
+        DiaryStore reopened = reopen();
+        assertFalse(reopened.getSummaryTable().isInSync());
+        assertTrue(new DiaryRepository(reopened).prepareList());
+        assertEquals(ENTRY_COUNT - 1, reopened.getSummaryTable().count());
+        assertTrue(reopened.getSummaryTable().isInSync());
+    }
+
+    @Test
+    public void missedUpdateMakesTheTableStale() throws Exception {
+        JSONArray entries = store.readEntries();
+        entries.remove(0);
+        store.writeEntries(entries);
+        entries.remove(0);
+        store.writeEntries(entries); // The first write's update never came
+
+        assertFalse(store.getSummaryTable().isInSync());
+        repository.flush(); // Must not bless the stale table
+        assertFalse(reopen().getSummaryTable().isInSync());
+
+        assertTrue(repository.prepareList());
+        assertEquals(ENTRY_COUNT - 2, store.getSummaryTable().count());
+    }
+
+    @Test
+    public void updateKeepsTheTableInSync() throws Exception {
+        long newest = uniqueIds.get(ENTRY_COUNT - 1);
+
+        repository.deleteEntry(uniqueIds.get(0));
+        repository.updateEntry(newest, "Edited", null, Collections.<String>emptyList(), null);
+
+        EntrySummaryTable table = store.getSummaryTable();
+        assertTrue(table.isInSync());
+        assertEquals(ENTRY_COUNT - 1, table.count());
+        assertEquals("Edited", table.readPage(0, 1).get(0).getPreview());
+        repository.flush();
+        assertFalse(new DiaryRepository(reopen()).prepareList());
+    }
+
+    private DiaryStore reopen() throws Exception {
+        DiaryStore reopened = new DiaryStore(filesDir);
+        if (!new DiaryLock(new DiaryKeyManager(filesDir), reopened).unlock(PIN)) {
+            fail("PIN was not accepted");
+        }
+        return reopened;
+    }
+}
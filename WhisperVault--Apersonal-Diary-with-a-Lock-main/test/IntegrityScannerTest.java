@@ -0,0 +1,153 @@
+// IntegrityScannerTest.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Repairing a damaged diary: salvaging the records of a diary file that no longer parses,
+ * quarantining records whose checksum does not match, and the background scan quarantining an
+ * entry whose body was corrupted.
+ */
+public class IntegrityScannerTest {
+
+    private static final String PIN = "1234";
+    private static final int ENTRY_COUNT = 4;
+    private static final long SCAN_TIMEOUT_SECONDS = 60;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File filesDir;
+    private File diaryFile;
+
+    @Before
+    public void setUp() throws Exception {
+        filesDir = folder.newFolder("files");
+        diaryFile = new File(filesDir, DiaryStore.DIARY_FILE_NAME);
+        DiaryStore store = new DiaryStore(filesDir);
+        new DiaryLock(new DiaryKeyManager(filesDir), store).createPin(PIN, false);
+        DiaryRepository repository = new DiaryRepository(store);
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            repository.createEntry("Entry " + i, null, Collections.<String>emptyList(), null);
+        }
+    }
+
+    @Test
+    public void truncatedDiaryFileIsSalvaged() throws Exception {
+        String json = new String(Files.readAllBytes(diaryFile.toPath()), StandardCharsets.UTF_8);
+        int lastRecord = json.lastIndexOf("{");
+        Files.write(diaryFile.toPath(), json.substring(0, lastRecord + 20).getBytes(StandardCharsets.UTF_8));
+
+        DiaryStore reopened = reopen();
+        JSONArray entries = reopened.readEntries();
+        IntegrityReport report = reopened.takeRepairReport();
+
+        assertEquals(ENTRY_COUNT - 1, entries.length());
+        assertNotNull(report);
+        assertEquals(ENTRY_COUNT - 1, report.getRecordsSalvaged());
+        assertEquals(1, report.getQuarantinedCount());
+        assertTrue(new File(filesDir, DiaryStore.QUARANTINE_FILE_NAME).exists());
+        // The diary file was rewritten without the damaged record, so it is only reported once
+        String repaired = new String(Files.readAllBytes(diaryFile.toPath()), StandardCharsets.UTF_8);
+        assertEquals(ENTRY_COUNT - 1, new JSONArray(repaired).length());
+        DiaryStore again = reopen();
+        assertEquals(ENTRY_COUNT - 1, again.readEntries().length());
+        assertNull(again.takeRepairReport());
+        assertEquals(ENTRY_COUNT - 1, again.getSummaryTable().count());
+    }
+
+    @Test
+    public void recordWithAWrongChecksumIsQuarantined() throws Exception {
+        JSONArray stored = new JSONArray(new String(Files.readAllBytes(diaryFile.toPath()), StandardCharsets.UTF_8));
+        JSONObject damaged = stored.getJSONObject(1);
+        damaged.put(DiaryStore.KEY_CHECKSUM, damaged.getLong(DiaryStore.KEY_CHECKSUM) ^ 1);
+        Files.write(diaryFile.toPath(), stored.toString().getBytes(StandardCharsets.UTF_8));
+
+        DiaryStore reopened = reopen();
+        JSONArray entries = reopened.readEntries();
+        IntegrityReport report = reopened.takeRepairReport();
+
+        assertEquals(ENTRY_COUNT - 1, entries.length());
+        assertNull(reopened.findEntry(damaged.getLong(DiaryStore.KEY_UNIQUE_ID)));
+        assertNotNull(report);
+        assertEquals(0, report.getRecordsSalvaged()); // The file itself still parsed
+        assertEquals(1, report.getQuarantinedCount());
+        assertEquals(ENTRY_COUNT, report.getRecordsChecked());
+    }
+
+    // IntegrityScanner runs at most one pass per process every few hours, so this is the only test that scans
+    @Test
+    public void scanQuarantinesACorruptedBodyAndDeletesOrphans() throws Exception {
+        DiaryStore store = reopen();
+        StringBuilder longText = new StringBuilder();
+        while (longText.length() <= DiaryStore.INLINE_TEXT_LIMIT) {
+            longText.append("A long entry kept in chunk files. ");
+        }
+        long damagedId = new DiaryRepository(store)
+                .createEntry(longText.toString(), null, Collections.<String>emptyList(), null)
+                .getLong(DiaryStore.KEY_UNIQUE_ID);
+        File chunkFile = store.listRecordFiles().get(0);
+        byte[] chunk = Files.readAllBytes(chunkFile.toPath());
+        chunk[chunk.length - 1] ^= 0x01;
+        Files.write(chunkFile.toPath(), chunk);
+        File orphan = new File(chunkFile.getParentFile(), "12345_1_0.txt"); // Left by a save cut off by a crash
+        Files.write(orphan.toPath(), new byte[]{1, 2, 3});
+
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicReference<Object> outcome = new AtomicReference<>();
+        new IntegrityScanner(store, new IntegrityScanner.Listener() {
+            @Override
+            public void onScanFinished(IntegrityReport report) {
+                outcome.set(report);
+                finished.countDown();
+            }
+
+            @Override
+            public void onScanFailed(Exception e) {
+                outcome.set(e);
+                finished.countDown();
+            }
+        }).start();
+        if (!finished.await(SCAN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            fail("Scan did not finish");
+        }
+
+        if (!(outcome.get() instanceof IntegrityReport)) {
+            fail("Scan failed: " + outcome.get());
+        }
+        IntegrityReport report = (IntegrityReport) outcome.get();
+        assertEquals(1, report.getQuarantinedCount());
+        assertNull(store.findEntry(damagedId));
+        assertEquals(ENTRY_COUNT, store.readEntries().length());
+        assertTrue(chunkFile.exists()); // Kept so the text can still be recovered by hand
+        assertFalse(orphan.exists());
+    }
+
+    private DiaryStore reopen() throws Exception {
+        DiaryStore reopened = new DiaryStore(filesDir);
+        if (!new DiaryLock(new DiaryKeyManager(filesDir), reopened).unlock(PIN)) {
+            fail("PIN was not accepted");
+        }
+        return reopened;
+    }
+}
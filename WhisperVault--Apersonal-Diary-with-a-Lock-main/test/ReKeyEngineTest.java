@@ -0,0 +1,143 @@
+// ReKeyEngineTest.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Re-keying after a PIN change, including a run that is interrupted by a record it cannot rewrite
+ * and picked up again by the next one.
+ */
+public class ReKeyEngineTest {
+
+    private static final String PIN = "1234";
+    private static final String NEW_PIN = "5678";
+    private static final int LONG_TEXT_WORDS = 2_000; // Well past the inline limit, so stored in chunks
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File filesDir;
+    private DiaryStore store;
+    private DiaryLock diaryLock;
+    private Map<Long, String> texts;
+
+    @Before
+    public void setUp() throws Exception {
+        filesDir = folder.newFolder("files");
+        store = new DiaryStore(filesDir);
+        diaryLock = new DiaryLock(new DiaryKeyManager(filesDir), store);
+        diaryLock.createPin(PIN, false);
+
+        DiaryRepository repository = new DiaryRepository(store);
+        texts = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            String text = i % 2 == 0 ? longText(i) : "Short entry " + i;
+            long uniqueId = repository.createEntry(text, null, Collections.<String>emptyList(), null)
+                    .getLong(DiaryStore.KEY_UNIQUE_ID);
+            texts.put(uniqueId, text);
+        }
+        repository.flush();
+    }
+
+    @Test
+    public void reKeyMovesEveryRecordToTheNewKey() throws Exception {
+        assertTrue(diaryLock.changePin(PIN, NEW_PIN, true));
+        assertTrue(diaryLock.isReKeyPending());
+
+        ReKeyEngine.Result result = diaryLock.reKey();
+
+        assertTrue(result.isComplete());
+        assertEquals(0, result.getRecordsFailed());
+        assertFalse(diaryLock.isReKeyPending());
+        assertAllUnderCurrentKey(store);
+        assertTextsReadable(reopen(NEW_PIN));
+    }
+
+    @Test
+    public void interruptedReKeyKeepsOldKeyAndResumes() throws Exception {
+        assertTrue(diaryLock.changePin(PIN, NEW_PIN, true));
+        File chunkFile = store.listRecordFiles().get(0);
+        byte[] original = Files.readAllBytes(chunkFile.toPath());
+        byte[] tampered = original.clone();
+        tampered[tampered.length - 1] ^= 0x01; // Fails authentication, like a torn write
+        Files.write(chunkFile.toPath(), tampered);
+
+        ReKeyEngine.Result interrupted = diaryLock.reKey();
+
+        assertFalse(interrupted.isComplete());
+        assertEquals(1, interrupted.getRecordsFailed());
+        assertTrue(diaryLock.isReKeyPending());
+
+        // The old key is kept while a record still needs it, so the next run can finish the job
+        Files.write(chunkFile.toPath(), original);
+        DiaryStore reopened = reopen(NEW_PIN);
+        assertTextsReadable(reopened);
+        ReKeyEngine.Result resumed = new ReKeyEngine(reopened, new DiaryKeyManager(filesDir)).run(2);
+
+        assertTrue(resumed.isComplete());
+        assertFalse(diaryLock.isReKeyPending());
+        assertAllUnderCurrentKey(reopened);
+        assertTextsReadable(reopen(NEW_PIN));
+    }
+
+    @Test
+    public void oldPinNoLongerUnlocksAfterChange() throws Exception {
+        assertTrue(diaryLock.changePin(PIN, NEW_PIN, true));
+        diaryLock.reKey();
+
+        DiaryStore reopened = new DiaryStore(filesDir);
+        assertFalse(new DiaryLock(new DiaryKeyManager(filesDir), reopened).unlock(PIN));
+        assertFalse(diaryLock.changePin(PIN, "0000", false));
+    }
+
+    private DiaryStore reopen(String pin) throws Exception {
+        DiaryStore reopened = new DiaryStore(filesDir);
+        if (!new DiaryLock(new DiaryKeyManager(filesDir), reopened).unlock(pin)) {
+            fail("PIN " + pin + " was not accepted");
+        }
+        return reopened;
+    }
+
+    private static void assertAllUnderCurrentKey(DiaryStore diary) throws Exception {
+        int currentKeyId = diary.getCipher().getCurrentKeyId();
+        List<File> files = diary.listRecordFiles();
+        assertFalse(files.isEmpty());
+        for (File file : files) {
+            assertEquals(file.getName(), currentKeyId, RecordCipher.keyIdOf(Files.readAllBytes(file.toPath())));
+        }
+    }
+
+    private void assertTextsReadable(DiaryStore diary) throws Exception {
+        JSONArray entries = diary.readEntries();
+        assertEquals(texts.size(), entries.length());
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            assertEquals(texts.get(entry.getLong(DiaryStore.KEY_UNIQUE_ID)), diary.readFullText(entry));
+        }
+    }
+
+    private static String longText(int seed) {
+        StringBuilder text = new StringBuilder();
+        for (int w = 0; w < LONG_TEXT_WORDS; w++) {
+            text.append("word").append((w + seed) % 17).append(' ');
+        }
+        return text.toString();
+    }
+}
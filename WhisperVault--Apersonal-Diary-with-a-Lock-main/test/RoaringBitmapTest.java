@@ -0,0 +1,213 @@
+// RoaringBitmapTest.java
+package com.example.madproject;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RoaringBitmap against a TreeSet, across the switch between array and bitmap containers
+ * (at 4096 values per container) and across containers.
+ */
+public class RoaringBitmapTest {
+
+    private static final int CONTAINER_SPAN = 1 << 16;
+    private static final int ARRAY_MAX = 4096;
+
+    @Test
+    public void emptyBitmap() {
+        RoaringBitmap bitmap = new RoaringBitmap();
+
+        assertTrue(bitmap.isEmpty());
+        assertEquals(0, bitmap.getCardinality());
+        assertFalse(bitmap.contains(0));
+        assertEquals(0, bitmap.toArray().length);
+    }
+
+    @Test
+    public void addAndRemoveAcrossTheContainerSwitch() {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int value = 0; value < ARRAY_MAX + 100; value++) {
+            bitmap.add(value * 3); // Dense enough to become a bitmap container
+            expected.add(value * 3);
+        }
+        assertMatches(expected, bitmap);
+        for (int value = 0; value < ARRAY_MAX + 100; value += 2) {
+            bitmap.remove(value * 3); // Back below the switch
+            expected.remove(value * 3);
+        }
+        assertMatches(expected, bitmap);
+        assertFalse(bitmap.contains(0));
+        assertTrue(bitmap.contains(3));
+    }
+
+    @Test
+    public void addingTwiceAndRemovingAbsentValuesChangeNothing() {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        bitmap.add(7);
+        bitmap.add(7);
+        bitmap.remove(8);
+        bitmap.remove(CONTAINER_SPAN + 7);
+
+        assertEquals(1, bitmap.getCardinality());
+        assertArrayEquals(new int[]{7}, bitmap.toArray());
+    }
+
+    @Test
+    public void valuesInManyContainers() {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        TreeSet<Integer> expected = new TreeSet<>();
+        int[] values = {Integer.MAX_VALUE, 5 * CONTAINER_SPAN + 1, 0, CONTAINER_SPAN - 1, CONTAINER_SPAN, 70_000};
+        for (int value : values) {
+            bitmap.add(value);
+            expected.add(value);
+        }
+        assertMatches(expected, bitmap);
+
+        bitmap.remove(5 * CONTAINER_SPAN + 1); // Empties its container
+        expected.remove(5 * CONTAINER_SPAN + 1);
+        assertMatches(expected, bitmap);
+        assertFalse(bitmap.contains(5 * CONTAINER_SPAN + 1));
+    }
+
+    @Test
+    public void randomOperationsMatchATreeSet() {
+        Random random = new Random(42);
+        RoaringBitmap bitmap = new RoaringBitmap();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < 50_000; i++) {
+            int value = random.nextInt(3 * CONTAINER_SPAN);
+            if (random.nextInt(4) == 0) {
+                bitmap.remove(value);
+                expected.remove(value);
+            } else {
+                bitmap.add(value);
+                expected.add(value);
+            }
+        }
+        assertMatches(expected, bitmap);
+    }
+
+    @Test
+    public void andKeepsOnlyCommonValues() {
+        Random random = new Random(7);
+        RoaringBitmap sparse = new RoaringBitmap();
+        RoaringBitmap dense = new RoaringBitmap();
+        TreeSet<Integer> sparseValues = new TreeSet<>();
+        TreeSet<Integer> denseValues = new TreeSet<>();
+        for (int i = 0; i < 1_000; i++) {
+            int value = random.nextInt(4 * CONTAINER_SPAN);
+            sparse.add(value);
+            sparseValues.add(value);
+        }
+        for (int value = CONTAINER_SPAN; value < 3 * CONTAINER_SPAN; value += 2) {
+            dense.add(value);
+            denseValues.add(value);
+        }
+        TreeSet<Integer> expected = new TreeSet<>(sparseValues);
+        expected.retainAll(denseValues);
+
+        assertMatches(expected, RoaringBitmap.and(sparse, dense));
+        assertMatches(expected, RoaringBitmap.and(dense, sparse));
+        assertMatches(denseValues, RoaringBitmap.and(dense, dense));
+        assertTrue(RoaringBitmap.and(sparse, new RoaringBitmap()).isEmpty());
+    }
+
+    @Test
+    public void andOfDisjointBitmapsIsEmpty() {
+        RoaringBitmap even = new RoaringBitmap();
+        RoaringBitmap odd = new RoaringBitmap();
+        for (int value = 0; value < 2 * ARRAY_MAX; value++) {
+            (value % 2 == 0 ? even : odd).add(value);
+        }
+
+        RoaringBitmap both = RoaringBitmap.and(even, odd);
+
+        assertTrue(both.isEmpty());
+        assertEquals(0, both.getCardinality());
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        RoaringBitmap original = new RoaringBitmap();
+        for (int value = 0; value < ARRAY_MAX * 2; value++) {
+            original.add(value);
+        }
+        original.add(CONTAINER_SPAN * 2);
+
+        RoaringBitmap copy = original.copy();
+        copy.remove(1);
+        copy.add(CONTAINER_SPAN * 9);
+        original.remove(CONTAINER_SPAN * 2);
+
+        assertTrue(original.contains(1));
+        assertFalse(original.contains(CONTAINER_SPAN * 9));
+        assertTrue(copy.contains(CONTAINER_SPAN * 2));
+        assertEquals(ARRAY_MAX * 2, original.getCardinality());
+        assertEquals(ARRAY_MAX * 2 + 1, copy.getCardinality());
+    }
+
+    @Test
+    public void writeAndReadRoundTrip() throws IOException {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int value = 0; value < ARRAY_MAX + 1; value++) {
+            bitmap.add(value); // A bitmap container
+            expected.add(value);
+        }
+        for (int value = 0; value < 10; value++) {
+            bitmap.add(4 * CONTAINER_SPAN + value * 100); // An array container
+            expected.add(4 * CONTAINER_SPAN + value * 100);
+        }
+
+        assertMatches(expected, roundTrip(bitmap));
+        assertTrue(roundTrip(new RoaringBitmap()).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void readingATruncatedBitmapFails() throws IOException {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        bitmap.add(1);
+        bitmap.add(CONTAINER_SPAN);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bitmap.writeTo(new DataOutputStream(bytes));
+        byte[] truncated = new byte[bytes.size() - 1];
+        System.arraycopy(bytes.toByteArray(), 0, truncated, 0, truncated.length);
+
+        RoaringBitmap.readFrom(new DataInputStream(new ByteArrayInputStream(truncated)));
+    }
+
+    private static RoaringBitmap roundTrip(RoaringBitmap bitmap) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        bitmap.writeTo(out);
+        out.flush();
+        return RoaringBitmap.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static void assertMatches(TreeSet<Integer> expected, RoaringBitmap bitmap) {
+        int[] values = new int[expected.size()];
+        int n = 0;
+        for (int value : expected) {
+            values[n++] = value;
+        }
+        assertArrayEquals(values, bitmap.toArray());
+        assertEquals(expected.size(), bitmap.getCardinality());
+        assertEquals(expected.isEmpty(), bitmap.isEmpty());
+        for (int value : expected) {
+            assertTrue(bitmap.contains(value));
+        }
+    }
+}
@@ -0,0 +1,180 @@
+// SyncEngineTest.java
+package com.example.madproject;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Last-writer-wins merging between two devices syncing through an InMemorySyncServer.
+ */
+public class SyncEngineTest {
+
+    private static final long CLOCK_STEP_MS = 5; // Keeps the versions of successive edits apart
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DiaryRepository phone;
+    private DiaryRepository tablet;
+    private SyncEngine phoneSync;
+    private SyncEngine tabletSync;
+
+    @Before
+    public void setUp() throws Exception {
+        InMemorySyncServer server = new InMemorySyncServer();
+        RecordCipher frameCipher = SyncEngine.openFrameCipher(server, "test pairing code");
+        DiaryStore phoneStore = openDevice(folder.newFolder("phone"));
+        DiaryStore tabletStore = openDevice(folder.newFolder("tablet"));
+        phone = new DiaryRepository(phoneStore);
+        tablet = new DiaryRepository(tabletStore);
+        phoneSync = new SyncEngine(phoneStore, server, frameCipher);
+        tabletSync = new SyncEngine(tabletStore, server, frameCipher);
+    }
+
+    @Test
+    public void newerVersionWins() {
+        assertTrue(SyncEngine.compareVersions(2_000, "a", false, 1_000, "b", false) > 0);
+        assertTrue(SyncEngine.compareVersions(1_000, "b", false, 2_000, "a", false) < 0);
+        assertTrue(SyncEngine.compareVersions(1_000, "a", true, 2_000, "b", false) < 0); // A late edit beats an old delete
+    }
+
+    @Test
+    public void sameMillisecondIsDecidedByDeviceThenByDelete() {
+        assertTrue(SyncEngine.compareVersions(1_000, "b", false, 1_000, "a", false) > 0);
+        assertTrue(SyncEngine.compareVersions(1_000, "a", false, 1_000, "b", false) < 0);
+        assertTrue(SyncEngine.compareVersions(1_000, "a", true, 1_000, "a", false) > 0);
+        assertTrue(SyncEngine.compareVersions(1_000, "a", false, 1_000, "a", true) < 0);
+        assertEquals(0, SyncEngine.compareVersions(1_000, "a", false, 1_000, "a", false));
+    }
+
+    @Test
+    public void concurrentEditsConvergeOnTheLaterOne() throws Exception {
+        long uniqueId = createOnPhoneAndSync("First draft");
+
+        phone.updateEntry(uniqueId, "Edited on the phone", null, Collections.<String>emptyList(), null);
+        Thread.sleep(CLOCK_STEP_MS);
+        tablet.updateEntry(uniqueId, "Edited on the tablet", null, Collections.<String>emptyList(), null);
+
+        assertEquals(0, phoneSync.sync().getConflicts());
+        SyncReport tabletReport = tabletSync.sync();
+        assertEquals(1, tabletReport.getConflicts());
+        assertEquals(0, tabletReport.getChangesApplied()); // Its own edit is newer
+        SyncReport phoneReport = phoneSync.sync();
+        assertEquals(1, phoneReport.getChangesApplied());
+
+        assertEquals("Edited on the tablet", textOf(phone, uniqueId));
+        assertEquals("Edited on the tablet", textOf(tablet, uniqueId));
+    }
+
+    @Test
+    public void laterEditBringsBackADeletedEntry() throws Exception {
+        long uniqueId = createOnPhoneAndSync("Kept after all");
+
+        phone.deleteEntry(uniqueId);
+        Thread.sleep(CLOCK_STEP_MS);
+        tablet.updateEntry(uniqueId, "Edited after the delete", null, Collections.<String>emptyList(), null);
+
+        phoneSync.sync();
+        tabletSync.sync();
+        phoneSync.sync();
+
+        assertEquals("Edited after the delete", textOf(phone, uniqueId));
+        assertEquals("Edited after the delete", textOf(tablet, uniqueId));
+    }
+
+    @Test
+    public void laterDeleteWinsOverAnEdit() throws Exception {
+        long uniqueId = createOnPhoneAndSync("Soon gone");
+
+        tablet.updateEntry(uniqueId, "Edited before the delete", null, Collections.<String>emptyList(), null);
+        Thread.sleep(CLOCK_STEP_MS);
+        phone.deleteEntry(uniqueId);
+
+        tabletSync.sync();
+        phoneSync.sync();
+        tabletSync.sync();
+
+        assertNull(phone.findEntry(uniqueId));
+        assertNull(tablet.findEntry(uniqueId));
+    }
+
+    @Test
+    public void pushStopsAtAnUnreadableEntryAndResumes() throws Exception {
+        long before = create(phone, "Written before");
+        StringBuilder longText = new StringBuilder();
+        while (longText.length() <= DiaryStore.INLINE_TEXT_LIMIT) {
+            longText.append("A long entry kept in chunk files. ");
+        }
+        long unreadable = create(phone, longText.toString());
+        long after = create(phone, "Written after");
+        DiaryStore phoneStore = phone.getStore();
+        JSONArray intact = phoneStore.readEntries();
+        phoneStore.writeEntries(withBodyChecksum(intact, unreadable, 0)); // The body no longer matches its header
+
+        SyncReport stopped = phoneSync.sync();
+        tabletSync.sync();
+
+        assertFalse(stopped.isPushComplete());
+        assertEquals(unreadable, stopped.getPushStoppedAt());
+        assertEquals("Written before", textOf(tablet, before));
+        assertNull(tablet.findEntry(unreadable));
+        assertNull(tablet.findEntry(after)); // Nothing past the unreadable entry is sent
+
+        phoneStore.writeEntries(intact);
+        assertTrue(phoneSync.sync().isPushComplete());
+        tabletSync.sync();
+        assertEquals(longText.toString(), textOf(tablet, unreadable));
+        assertEquals("Written after", textOf(tablet, after));
+    }
+
+    private static long create(DiaryRepository repository, String text) throws Exception {
+        return repository.createEntry(text, null, Collections.<String>emptyList(), null).getLong(DiaryStore.KEY_UNIQUE_ID);
+    }
+
+    private static JSONArray withBodyChecksum(JSONArray entries, long uniqueId, long checksum) throws Exception {
+        JSONArray changed = new JSONArray();
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = new JSONObject(entries.getJSONObject(i).toString());
+            if (entry.getLong(DiaryStore.KEY_UNIQUE_ID) == uniqueId) {
+                entry.put(DiaryStore.KEY_BODY_CHECKSUM, checksum);
+            }
+            changed.put(entry);
+        }
+        return changed;
+    }
+
+    private long createOnPhoneAndSync(String text) throws Exception {
+        long uniqueId = phone.createEntry(text, null, Collections.<String>emptyList(), null)
+                .getLong(DiaryStore.KEY_UNIQUE_ID);
+        phoneSync.sync();
+        tabletSync.sync();
+        assertEquals(text, textOf(tablet, uniqueId));
+        Thread.sleep(CLOCK_STEP_MS);
+        return uniqueId;
+    }
+
+    private static String textOf(DiaryRepository repository, long uniqueId) throws Exception {
+        JSONObject entry = repository.findEntry(uniqueId);
+        assertNotNull("Entry " + uniqueId + " is missing", entry);
+        return repository.getStore().readFullText(entry);
+    }
+
+    private static DiaryStore openDevice(File filesDir) throws Exception {
+        DiaryStore store = new DiaryStore(filesDir);
+        new DiaryLock(new DiaryKeyManager(filesDir), store).createPin("1234", false);
+        return store;
+    }
+}
@@ -0,0 +1,29 @@
+#!/bin/sh
+# run-tests.sh
+# Compiles the headless classes in core/ with the tests and runs them with JUnit 4 on a plain JVM.
+# org.json ships with Android, so off the device it needs a jar too:
+#
+#   JUNIT_JAR=junit-4.13.2.jar HAMCREST_JAR=hamcrest-core-1.3.jar JSON_JAR=json-20231013.jar test/run-tests.sh
+#
+# Run from anywhere; pass test class names (e.g. DiaryStatsTest) to run only those.
+set -e
+
+: "${JUNIT_JAR:?Set JUNIT_JAR to the JUnit 4 jar}"
+: "${HAMCREST_JAR:?Set HAMCREST_JAR to the Hamcrest core jar}"
+: "${JSON_JAR:?Set JSON_JAR to an org.json jar}"
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+OUT=$(mktemp -d)
+trap 'rm -rf "$OUT"' EXIT
+CLASSPATH="$JUNIT_JAR:$HAMCREST_JAR:$JSON_JAR"
+
+javac --release 8 -nowarn -encoding UTF-8 -cp "$CLASSPATH" -d "$OUT" "$ROOT"/core/*.java "$ROOT"/test/*.java
+
+if [ $# -eq 0 ]; then
+    set -- $(cd "$ROOT/test" && ls *Test.java | sed 's/\.java$//')
+fi
+CLASSES=""
+for name in "$@"; do
+    CLASSES="$CLASSES com.example.madproject.$name"
+done
+java -cp "$OUT:$CLASSPATH" org.junit.runner.JUnitCore $CLASSES